@@ -3,7 +3,6 @@
 // BSD-style license that can be found in the LICENSE file.
 package com.debughelper.tools.r8;
 
-import static com.debughelper.tools.r8.utils.FileUtils.CLASS_EXTENSION;
 import static com.debughelper.tools.r8.utils.FileUtils.isArchive;
 
 import com.debughelper.tools.r8.ClassFileResourceProvider;
@@ -13,8 +12,9 @@ import com.debughelper.tools.r8.errors.CompilationError;
 import com.debughelper.tools.r8.origin.ArchiveEntryOrigin;
 import com.debughelper.tools.r8.origin.Origin;
 import com.debughelper.tools.r8.origin.PathOrigin;
-import com.debughelper.tools.r8.utils.DescriptorUtils;
-import com.debughelper.tools.r8.utils.ZipUtils;
+import com.debughelper.tools.r8.utils.ArchiveClassFileCache;
+import com.debughelper.tools.r8.utils.ArchiveClassFileCache.ArchiveKey;
+import com.debughelper.tools.r8.utils.ArchiveClassFileCache.ClassEntry;
 import com.google.common.io.ByteStreams;
 import java.io.Closeable;
 import java.io.IOException;
@@ -24,8 +24,8 @@ import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.Collections;
-import java.util.Enumeration;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.zip.ZipEntry;
@@ -35,13 +35,17 @@ import java.util.zip.ZipFile;
  * Lazy Java class file resource provider loading class files from a zip archive.
  *
  * <p>The descriptor index is built eagerly upon creating the provider and subsequent requests for
- * resources in the descriptor set will then force the read of zip entry contents.
+ * resources in the descriptor set will then force the read of zip entry contents. Both the index
+ * and the entry contents are shared with other providers for the same archive through the
+ * process-wide {@link ArchiveClassFileCache}.
  */
 @Keep
 public class ArchiveClassFileProvider implements ClassFileResourceProvider, Closeable {
   private final Origin origin;
-  private final ZipFile zipFile;
-  private final Set<String> descriptors = new HashSet<>();
+  private final Path archive;
+  private final ArchiveKey archiveKey;
+  private final Map<String, ClassEntry> descriptors = new HashMap<>();
+  private ZipFile zipFile;
 
   /**
    * Creates a lazy class-file program-resource provider.
@@ -61,47 +65,61 @@ public class ArchiveClassFileProvider implements ClassFileResourceProvider, Clos
   public ArchiveClassFileProvider(Path archive, Predicate<String> include) throws IOException {
     assert isArchive(archive);
     origin = new PathOrigin(archive);
-    try {
-      zipFile = new ZipFile(archive.toFile(), StandardCharsets.UTF_8);
-    } catch (IOException e) {
-      if (!Files.exists(archive)) {
-        throw new NoSuchFileException(archive.toString());
-      } else {
-        throw e;
-      }
+    this.archive = archive;
+    if (!Files.exists(archive)) {
+      throw new NoSuchFileException(archive.toString());
     }
-    final Enumeration<? extends ZipEntry> entries = zipFile.entries();
-    while (entries.hasMoreElements()) {
-      ZipEntry entry = entries.nextElement();
-      String name = entry.getName();
-      if (ZipUtils.isClassFile(name) && include.test(name)) {
-        descriptors.add(DescriptorUtils.guessTypeDescriptor(name));
+    archiveKey = ArchiveKey.of(archive);
+    for (ClassEntry entry : ArchiveClassFileCache.INSTANCE.getClassEntries(archiveKey)) {
+      if (include.test(entry.name)) {
+        descriptors.put(entry.descriptor, entry);
       }
     }
   }
 
   @Override
   public Set<String> getClassDescriptors() {
-    return Collections.unmodifiableSet(descriptors);
+    return Collections.unmodifiableSet(descriptors.keySet());
   }
 
   @Override
   public com.debughelper.tools.r8.ProgramResource getProgramResource(String descriptor) {
-    if (!descriptors.contains(descriptor)) {
+    ClassEntry entry = descriptors.get(descriptor);
+    if (entry == null) {
       return null;
     }
-    ZipEntry zipEntry = getZipEntryFromDescriptor(descriptor);
-    try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+    try {
+      byte[] bytes =
+          ArchiveClassFileCache.INSTANCE.getContent(archiveKey, entry, () -> readEntry(entry));
       return ProgramResource.fromBytes(
-          new ArchiveEntryOrigin(zipEntry.getName(), origin),
+          new ArchiveEntryOrigin(entry.name, origin),
           Kind.CF,
-          ByteStreams.toByteArray(inputStream),
+          bytes,
           Collections.singleton(descriptor));
     } catch (IOException e) {
       throw new CompilationError("Failed to read '" + descriptor, origin);
     }
   }
 
+  private byte[] readEntry(ClassEntry entry) throws IOException {
+    ZipFile zipFile = getZipFile();
+    ZipEntry zipEntry = zipFile.getEntry(entry.name);
+    if (zipEntry == null) {
+      throw new NoSuchFileException(entry.name);
+    }
+    try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+      return ByteStreams.toByteArray(inputStream);
+    }
+  }
+
+  // The archive is only opened once some entry is not found in the shared cache.
+  private synchronized ZipFile getZipFile() throws IOException {
+    if (zipFile == null) {
+      zipFile = new ZipFile(archive.toFile(), StandardCharsets.UTF_8);
+    }
+    return zipFile;
+  }
+
   @Override
   protected void finalize() throws Throwable {
     close();
@@ -109,11 +127,10 @@ public class ArchiveClassFileProvider implements ClassFileResourceProvider, Clos
   }
 
   @Override
-  public void close() throws IOException {
-    zipFile.close();
-  }
-
-  private ZipEntry getZipEntryFromDescriptor(String descriptor) {
-    return zipFile.getEntry(descriptor.substring(1, descriptor.length() - 1) + CLASS_EXTENSION);
+  public synchronized void close() throws IOException {
+    if (zipFile != null) {
+      zipFile.close();
+      zipFile = null;
+    }
   }
 }
@@ -0,0 +1,36 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface to provide the buffers the compiler writes DEX files into.
+ *
+ * <p>A consumer can implement this to hand out pooled or direct buffers, and thereby avoid that
+ * every written DEX file is laid out in a freshly allocated heap array.
+ */
+@KeepForSubclassing
+public interface ByteBufferProvider {
+
+  /**
+   * Acquire a buffer with at least the given capacity. The buffer may be used by the compiler
+   * until it is passed to {@link #releaseByteBuffer}.
+   *
+   * <p>Can be called concurrently from different threads.
+   *
+   * @param capacity Minimal capacity of the buffer.
+   */
+  default ByteBuffer acquireByteBuffer(int capacity) {
+    return ByteBuffer.allocate(capacity);
+  }
+
+  /**
+   * Release a buffer previously returned by {@link #acquireByteBuffer}. The compiler does not
+   * access the buffer after this call.
+   *
+   * <p>Can be called concurrently from different threads.
+   */
+  default void releaseByteBuffer(ByteBuffer buffer) {}
+}
@@ -51,6 +51,9 @@ public final class D8Command extends com.debughelper.tools.r8.BaseCompilerComman
   public static class Builder extends BaseCompilerCommand.Builder<D8Command, Builder> {
 
     private boolean intermediate = false;
+    private boolean fastDebugCompilation = false;
+    private StringResource previousDexDistribution = null;
+    private StringConsumer dexDistributionConsumer = null;
 
     private Builder() {}
 
@@ -106,6 +109,75 @@ public final class D8Command extends com.debughelper.tools.r8.BaseCompilerComman
       return self();
     }
 
+    /**
+     * Indicate if debug compilation should skip all optimizations of the code.
+     *
+     * <p>Methods are then only desugared and given the rewritings required to run correctly on
+     * the targeted VMs, which trades the quality of the generated code for compilation speed. This
+     * can only be used in {@link CompilationMode#DEBUG} mode.
+     */
+    public Builder setFastDebugCompilation(boolean value) {
+      this.fastDebugCompilation = value;
+      return self();
+    }
+
+    /**
+     * Set the assignment of classes to dex files written by a previous build, see {@link
+     * #setDexDistributionConsumer}.
+     *
+     * <p>Classes are then kept in the dex file they were in, so that adding or removing classes only
+     * changes the dex files of those classes. Note that any subsequent call to this method or {@link
+     * #setPreviousDexDistributionFile} will override the previous setting.
+     *
+     * @param previousDexDistribution Content written by a previous build.
+     */
+    public Builder setPreviousDexDistribution(StringResource previousDexDistribution) {
+      this.previousDexDistribution = previousDexDistribution;
+      return self();
+    }
+
+    /**
+     * Set a file holding the assignment of classes to dex files written by a previous build.
+     *
+     * <p>This is a short-hand for setting a {@link StringResource} of the file using {@link
+     * #setPreviousDexDistribution}. Note that any subsequent call to this method or {@link
+     * #setPreviousDexDistribution} will override the previous setting.
+     *
+     * @param previousDexDistributionPath File-system path to read the distribution from.
+     */
+    public Builder setPreviousDexDistributionFile(Path previousDexDistributionPath) {
+      previousDexDistribution = StringResource.fromFile(previousDexDistributionPath);
+      return self();
+    }
+
+    /**
+     * Set a consumer for receiving the assignment of classes to dex files, to be passed to {@link
+     * #setPreviousDexDistribution} in the next build.
+     *
+     * <p>Note that any subsequent call to this method or {@link #setDexDistributionOutputPath} will
+     * override the previous setting.
+     *
+     * @param dexDistributionConsumer Consumer to receive the content once produced.
+     */
+    public Builder setDexDistributionConsumer(StringConsumer dexDistributionConsumer) {
+      this.dexDistributionConsumer = dexDistributionConsumer;
+      return self();
+    }
+
+    /**
+     * Set an output destination to which the assignment of classes to dex files should be written.
+     *
+     * <p>This is a short-hand for setting a {@link StringConsumer.FileConsumer} using {@link
+     * #setDexDistributionConsumer}. Note that any subsequent call to this method or {@link
+     * #setDexDistributionConsumer} will override the previous setting.
+     *
+     * @param dexDistributionOutputPath File-system path to write output at.
+     */
+    public Builder setDexDistributionOutputPath(Path dexDistributionOutputPath) {
+      dexDistributionConsumer = new StringConsumer.FileConsumer(dexDistributionOutputPath);
+      return self();
+    }
+
     @Override
     Builder self() {
       return this;
@@ -130,6 +202,15 @@ public final class D8Command extends com.debughelper.tools.r8.BaseCompilerComman
           reporter.error("Option --main-dex-list cannot be used with --file-per-class");
         }
       }
+      if (fastDebugCompilation && getMode() != CompilationMode.DEBUG) {
+        reporter.error("Option --fast-debug cannot be used with --release");
+      }
+      if ((previousDexDistribution != null || dexDistributionConsumer != null)
+          && getProgramConsumer() instanceof DexFilePerClassFileConsumer) {
+        reporter.error(
+            "Options --previous-dex-distribution and --dex-distribution-output cannot be used"
+                + " with --file-per-class");
+      }
       super.validate();
     }
 
@@ -149,13 +230,19 @@ public final class D8Command extends com.debughelper.tools.r8.BaseCompilerComman
           getReporter(),
           !getDisableDesugaring(),
           intermediate,
-          isOptimizeMultidexForLinearAlloc());
+          fastDebugCompilation,
+          isOptimizeMultidexForLinearAlloc(),
+          previousDexDistribution,
+          dexDistributionConsumer);
     }
   }
 
   static final String USAGE_MESSAGE = com.debughelper.tools.r8.D8CommandParser.USAGE_MESSAGE;
 
   private boolean intermediate = false;
+  private boolean fastDebugCompilation = false;
+  private StringResource previousDexDistribution = null;
+  private StringConsumer dexDistributionConsumer = null;
 
   public static Builder builder() {
     return new Builder();
@@ -205,7 +292,10 @@ public final class D8Command extends com.debughelper.tools.r8.BaseCompilerComman
       Reporter diagnosticsHandler,
       boolean enableDesugaring,
       boolean intermediate,
-      boolean optimizeMultidexForLinearAlloc) {
+      boolean fastDebugCompilation,
+      boolean optimizeMultidexForLinearAlloc,
+      StringResource previousDexDistribution,
+      StringConsumer dexDistributionConsumer) {
     super(
         inputApp,
         mode,
@@ -215,6 +305,9 @@ public final class D8Command extends com.debughelper.tools.r8.BaseCompilerComman
         enableDesugaring,
         optimizeMultidexForLinearAlloc);
     this.intermediate = intermediate;
+    this.fastDebugCompilation = fastDebugCompilation;
+    this.previousDexDistribution = previousDexDistribution;
+    this.dexDistributionConsumer = dexDistributionConsumer;
   }
 
   private D8Command(boolean printHelp, boolean printVersion) {
@@ -230,6 +323,9 @@ public final class D8Command extends com.debughelper.tools.r8.BaseCompilerComman
     internal.minimalMainDex = internal.debug;
     internal.minApiLevel = getMinApiLevel();
     internal.intermediate = intermediate;
+    internal.fastDebugCompilation = fastDebugCompilation;
+    internal.previousDexDistribution = previousDexDistribution;
+    internal.dexDistributionConsumer = dexDistributionConsumer;
     // Assert and fixup defaults.
     assert internal.enableMinification;
     internal.enableMinification = false;
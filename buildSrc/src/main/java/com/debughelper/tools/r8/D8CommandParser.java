@@ -95,6 +95,8 @@ public class D8CommandParser extends BaseCompilerCommandParser {
               " and options are:",
               "  --debug                 # Compile with debugging information (default).",
               "  --release               # Compile without debugging information.",
+              "  --fast-debug            # Compile with debugging information, but without",
+              "                          # optimizing the code.",
               "  --output <file>         # Output result in <outfile>.",
               "                          # <file> must be an existing directory or a zip file.",
               "  --lib <file>            # Add <file> as a library resource.",
@@ -105,6 +107,11 @@ public class D8CommandParser extends BaseCompilerCommandParser {
               "  --file-per-class        # Produce a separate dex file per input class",
               "  --no-desugaring         # Force disable desugaring.",
               "  --main-dex-list <file>  # List of classes to place in the primary dex file.",
+              "  --previous-dex-distribution <file>",
+              "                          # Keep classes in the dex files recorded in <file> by",
+              "                          # a previous build.",
+              "  --dex-distribution-output <file>",
+              "                          # Record the dex file of each class in <file>.",
               "  --version               # Print the version of d8.",
               "  --help                  # Print this message."));
 
@@ -166,6 +173,8 @@ public class D8CommandParser extends BaseCompilerCommandParser {
             continue;
           }
           compilationMode = CompilationMode.RELEASE;
+        } else if (arg.equals("--fast-debug")) {
+          builder.setFastDebugCompilation(true);
         } else if (arg.equals("--file-per-class")) {
           outputMode = OutputMode.DexFilePerClassFile;
         } else if (arg.equals("--output")) {
@@ -199,6 +208,10 @@ public class D8CommandParser extends BaseCompilerCommandParser {
           }
         } else if (arg.equals("--main-dex-list")) {
           builder.addMainDexListFiles(Paths.get(expandedArgs[++i]));
+        } else if (arg.equals("--previous-dex-distribution")) {
+          builder.setPreviousDexDistributionFile(Paths.get(expandedArgs[++i]));
+        } else if (arg.equals("--dex-distribution-output")) {
+          builder.setDexDistributionOutputPath(Paths.get(expandedArgs[++i]));
         } else if (arg.equals("--optimize-multidex-for-linearalloc")) {
           builder.setOptimizeMultidexForLinearAlloc(true);
         } else if (arg.equals("--min-api")) {
@@ -51,6 +51,11 @@ public interface DataEntryResource extends DataResource {
       return entry.getName();
     }
 
+    /** Returns the entry in the archive, which tells how the bytes are stored. */
+    public ZipEntry getZipEntry() {
+      return entry;
+    }
+
     @Override
     public InputStream getByteStream() throws ResourceException {
       try {
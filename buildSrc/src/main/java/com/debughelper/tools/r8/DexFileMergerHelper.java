@@ -74,6 +74,8 @@ public class DexFileMergerHelper {
     options.enableMinification = false;
     options.enableInlining = false;
     options.outline.enabled = false;
+    // Merged code is not processed, so its instructions are copied without being decoded.
+    options.keepRawDexInstructions = options.passthroughDexCode;
 
     ExecutorService executor = ThreadUtils.getExecutorService(ThreadUtils.NOT_SPECIFIED);
     try {
@@ -10,6 +10,7 @@ import com.debughelper.tools.r8.ResourceException;
 import com.debughelper.tools.r8.origin.Origin;
 import com.debughelper.tools.r8.origin.PathOrigin;
 import com.debughelper.tools.r8.utils.ArchiveBuilder;
+import com.debughelper.tools.r8.utils.ByteBufferPool;
 import com.debughelper.tools.r8.utils.DirectoryBuilder;
 import com.debughelper.tools.r8.utils.ExceptionDiagnostic;
 import com.debughelper.tools.r8.utils.FileUtils;
@@ -18,6 +19,7 @@ import com.debughelper.tools.r8.utils.ZipUtils;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Closer;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
@@ -36,7 +38,7 @@ import java.util.zip.ZipOutputStream;
  * than a single DEX file. This is the default consumer for DEX programs.
  */
 @KeepForSubclassing
-public interface DexIndexedConsumer extends ProgramConsumer {
+public interface DexIndexedConsumer extends ProgramConsumer, ByteBufferProvider {
 
   /**
    * Callback to receive DEX data for a compilation output.
@@ -57,6 +59,27 @@ public interface DexIndexedConsumer extends ProgramConsumer {
    */
   void accept(int fileIndex, byte[] data, Set<String> descriptors, DiagnosticsHandler handler);
 
+  /**
+   * Callback to receive DEX data for a compilation output without copying it out of the buffer it
+   * was written to, see {@link ByteBufferProvider}.
+   *
+   * <p>The buffer contains exactly the DEX file, from its position to its limit, and is only valid
+   * during the call. The default implementation copies the data and passes it to {@link
+   * #accept(int, byte[], Set, DiagnosticsHandler)}. Consumers that write the data somewhere, e.g.,
+   * to a channel, can override this to avoid the copy.
+   *
+   * @param fileIndex Index of the DEX file for multi-dexing. Files are zero-indexed.
+   * @param data DEX encoded data.
+   * @param descriptors Class descriptors for all classes defined in the DEX data.
+   * @param handler Diagnostics handler for reporting.
+   */
+  default void accept(
+      int fileIndex, ByteBuffer data, Set<String> descriptors, DiagnosticsHandler handler) {
+    byte[] bytes = new byte[data.remaining()];
+    data.get(bytes);
+    accept(fileIndex, bytes, descriptors, handler);
+  }
+
   /** Empty consumer to request the production of the resource but ignore its value. */
   static DexIndexedConsumer emptyConsumer() {
     return ForwardingConsumer.EMPTY_CONSUMER;
@@ -89,6 +112,22 @@ public interface DexIndexedConsumer extends ProgramConsumer {
       return consumer != null ? consumer.getDataResourceConsumer() : null;
     }
 
+    @Override
+    public ByteBuffer acquireByteBuffer(int capacity) {
+      return consumer != null
+          ? consumer.acquireByteBuffer(capacity)
+          : ByteBufferPool.getShared().acquireByteBuffer(capacity);
+    }
+
+    @Override
+    public void releaseByteBuffer(ByteBuffer buffer) {
+      if (consumer != null) {
+        consumer.releaseByteBuffer(buffer);
+      } else {
+        ByteBufferPool.getShared().releaseByteBuffer(buffer);
+      }
+    }
+
     @Override
     public void accept(
         int fileIndex, byte[] data, Set<String> descriptors, DiagnosticsHandler handler) {
@@ -97,6 +136,14 @@ public interface DexIndexedConsumer extends ProgramConsumer {
       }
     }
 
+    /** Passes the buffer on to the consumer forwarded to, if any, without copying it. */
+    protected void forward(
+        int fileIndex, ByteBuffer data, Set<String> descriptors, DiagnosticsHandler handler) {
+      if (consumer != null) {
+        consumer.accept(fileIndex, data, descriptors, handler);
+      }
+    }
+
     @Override
     public void finished(DiagnosticsHandler handler) {
       if (consumer != null) {
@@ -233,6 +280,18 @@ public interface DexIndexedConsumer extends ProgramConsumer {
       outputBuilder.addFile(getDexFileName(fileIndex), data, handler);
     }
 
+    @Override
+    public void accept(
+        int fileIndex, ByteBuffer data, Set<String> descriptors, DiagnosticsHandler handler) {
+      forward(fileIndex, data.duplicate(), descriptors, handler);
+      try {
+        prepareDirectory();
+      } catch (IOException e) {
+        handler.error(new ExceptionDiagnostic(e, new PathOrigin(directory)));
+      }
+      outputBuilder.addFile(getDexFileName(fileIndex), data, handler);
+    }
+
     @Override
     public void accept(DataDirectoryResource directory, DiagnosticsHandler handler) {
       outputBuilder.addDirectory(directory.getName(), handler);
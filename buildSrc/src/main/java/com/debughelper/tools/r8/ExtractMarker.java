@@ -14,16 +14,16 @@ import com.debughelper.tools.r8.dex.VDexParser;
 import com.debughelper.tools.r8.errors.CompilationError;
 import com.debughelper.tools.r8.graph.DexApplication;
 import com.debughelper.tools.r8.origin.Origin;
-import com.debughelper.tools.r8.origin.PathOrigin;
 import com.debughelper.tools.r8.utils.AndroidApiLevel;
+import com.debughelper.tools.r8.utils.AbortException;
 import com.debughelper.tools.r8.utils.AndroidApp;
 import com.debughelper.tools.r8.utils.FileUtils;
 import com.debughelper.tools.r8.utils.InternalOptions;
+import com.debughelper.tools.r8.utils.Reporter;
 import com.debughelper.tools.r8.utils.Timing;
 import com.google.common.io.ByteStreams;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.concurrent.ExecutionException;
 
@@ -45,15 +45,55 @@ public class ExtractMarker {
 
   public static Marker extractMarkerFromDexFile(Path file)
       throws IOException, ExecutionException, com.debughelper.tools.r8.ResourceException {
+    return extractMarkerFromDexFile(file, new Reporter(new DiagnosticsHandler() {}));
+  }
+
+  public static Marker extractMarkerFromDexFile(Path file, Reporter reporter)
+      throws IOException, ExecutionException, com.debughelper.tools.r8.ResourceException {
+    if (FileUtils.isVDexFile(file)) {
+      // Look at one embedded dex file at a time, each is parsed in place in the mapped vdex file.
+      VDexParser vDexParser = new VDexParser(VDexReader.map(file), reporter);
+      try {
+        for (int i = 0; i < vDexParser.getNumberOfDexFiles(); i++) {
+          AndroidApp.Builder appBuilder = AndroidApp.builder();
+          addVDexFile(appBuilder, vDexParser, i);
+          Marker marker = extractMarker(appBuilder.build());
+          if (marker != null) {
+            return marker;
+          }
+        }
+        return null;
+      } finally {
+        // Drop the reference to the mapping, which is unmapped once it is garbage collected.
+        vDexParser.close();
+      }
+    }
     AndroidApp.Builder appBuilder = AndroidApp.builder();
-    addDexResources(appBuilder, file);
+    appBuilder.addProgramFiles(file);
     return extractMarker(appBuilder.build());
   }
 
   public static int extractDexSize(Path file)
       throws IOException, ExecutionException, com.debughelper.tools.r8.ResourceException {
+    return extractDexSize(file, new Reporter(new DiagnosticsHandler() {}));
+  }
+
+  public static int extractDexSize(Path file, Reporter reporter)
+      throws IOException, ExecutionException, com.debughelper.tools.r8.ResourceException {
+    if (FileUtils.isVDexFile(file)) {
+      VDexParser vDexParser = new VDexParser(VDexReader.map(file), reporter);
+      try {
+        int size = 0;
+        for (int i = 0; i < vDexParser.getNumberOfDexFiles(); i++) {
+          size += vDexParser.getDexFile(i).remaining();
+        }
+        return size;
+      } finally {
+        vDexParser.close();
+      }
+    }
     AndroidApp.Builder appBuilder = AndroidApp.builder();
-    addDexResources(appBuilder, file);
+    appBuilder.addProgramFiles(file);
     int size = 0;
     for (ProgramResource resource : appBuilder.build().computeAllProgramResources()) {
       if (resource.getKind() == Kind.DEX) {
@@ -71,22 +111,9 @@ public class ExtractMarker {
     return extractMarker(app);
   }
 
-  private static void addDexResources(AndroidApp.Builder appBuilder, Path file)
-      throws IOException, com.debughelper.tools.r8.ResourceException {
-    if (FileUtils.isVDexFile(file)) {
-      PathOrigin vdexOrigin = new PathOrigin(file);
-      try (InputStream fileInputStream = Files.newInputStream(file)) {
-        VDexReader vdexReader = new VDexReader(vdexOrigin, fileInputStream);
-        VDexParser vDexParser = new VDexParser(vdexReader);
-        int index = 0;
-        for (byte[] bytes : vDexParser.getDexFiles()) {
-          appBuilder.addDexProgramData(bytes, new VdexOrigin(vdexOrigin, index));
-          index++;
-        }
-      }
-    } else {
-      appBuilder.addProgramFiles(file);
-    }
+  private static void addVDexFile(AndroidApp.Builder appBuilder, VDexParser vDexParser, int index) {
+    appBuilder.addDexProgramData(
+        vDexParser.getDexFile(index), new VdexOrigin(vDexParser.getOrigin(), index));
   }
 
   private static Marker extractMarker(AndroidApp app) throws IOException, ExecutionException {
@@ -113,8 +140,16 @@ public class ExtractMarker {
     int r8Count = 0;
     int otherCount = 0;
     for (Path programFile : command.getProgramFiles()) {
+      Reporter reporter =
+          new Reporter(
+              new DiagnosticsHandler() {
+                @Override
+                public void error(Diagnostic error) {
+                  printReadFailure(programFile, error.getDiagnosticMessage());
+                }
+              });
       try {
-        Marker marker = extractMarkerFromDexFile(programFile);
+        Marker marker = extractMarkerFromDexFile(programFile, reporter);
         if (marker == null) {
           otherCount++;
           if (!command.getIncludeOther()) {
@@ -136,19 +171,20 @@ public class ExtractMarker {
             System.out.print("\"" + (marker.isD8() ? "D8Adapter" : "R8") + "\"");
           }
           System.out.print(", ");
-          System.out.print(extractDexSize(programFile));
+          System.out.print(extractDexSize(programFile, reporter));
         } else {
           if (command.getVerbose()) {
             System.out.print(programFile);
             System.out.print(": ");
           }
           System.out.print(marker == null ? "D8Adapter/R8 marker not found" : marker);
-          System.out.print(", " + extractDexSize(programFile) + " bytes");
+          System.out.print(", " + extractDexSize(programFile, reporter) + " bytes");
         }
         System.out.println();
       } catch (CompilationError e) {
-        System.out.println(
-            "Failed to read dex/vdex file `" + programFile +"`: '" + e.getMessage() + "'");
+        printReadFailure(programFile, e.getMessage());
+      } catch (AbortException e) {
+        // The failure was already printed by the reporter.
       }
     }
     if (command.getSummary()) {
@@ -158,4 +194,8 @@ public class ExtractMarker {
       System.out.println("Total: " + (d8Count + r8Count + otherCount));
     }
   }
+
+  private static void printReadFailure(Path programFile, String message) {
+    System.out.println("Failed to read dex/vdex file `" + programFile + "`: '" + message + "'");
+  }
 }
@@ -0,0 +1,148 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8;
+
+import com.debughelper.tools.r8.dex.ApplicationWriter;
+import com.debughelper.tools.r8.dex.IncrementalApplicationReader;
+import com.debughelper.tools.r8.dex.Marker;
+import com.debughelper.tools.r8.graph.AppInfo;
+import com.debughelper.tools.r8.graph.DexApplication;
+import com.debughelper.tools.r8.ir.conversion.IRConverter;
+import com.debughelper.tools.r8.naming.NamingLens;
+import com.debughelper.tools.r8.origin.Origin;
+import com.debughelper.tools.r8.utils.AndroidApp;
+import com.debughelper.tools.r8.utils.ExceptionUtils;
+import com.debughelper.tools.r8.utils.InternalOptions;
+import com.debughelper.tools.r8.utils.ThreadUtils;
+import com.debughelper.tools.r8.utils.Timing;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs D8 repeatedly on an application of which only a few classes change between builds.
+ *
+ * <p>The first build compiles the program inputs of the command. Each later build re-reads and
+ * converts only the changed classes, and writes the full application again, reusing the dex code of
+ * the unchanged classes, their lambda classes and, for unchanged output files, the sorted index
+ * maps. For example:
+ *
+ * <pre>
+ *   IncrementalD8 d8 = new IncrementalD8(D8Command.builder()
+ *       .addProgramFiles(inputPath)
+ *       .addLibraryFiles(androidJar)
+ *       .setOutput(outputPath, OutputMode.DexIndexed)
+ *       .build());
+ *   d8.build();
+ *   ...
+ *   d8.update(
+ *       changedClasses, removedDescriptors, new DexIndexedConsumer.ArchiveConsumer(outputPath));
+ * </pre>
+ *
+ * All builds use the options, the library and the class path of the command. Each build keeps
+ * the classes of the previous one in their dex files, see {@link
+ * D8Command.Builder#setPreviousDexDistribution}. The instance keeps the application and all its
+ * items alive until it is dropped.
+ */
+public class IncrementalD8 {
+
+  private final AndroidApp inputApp;
+  private final InternalOptions options;
+  private final Timing timing = new Timing("IncrementalD8");
+  private final IncrementalApplicationReader reader;
+  // Assignment of classes to dex files recorded by the current build, if any.
+  private String dexDistribution = null;
+
+  public IncrementalD8(D8Command command) {
+    inputApp = command.getInputApp();
+    options = command.getInternalOptions();
+    // Disable global optimizations, as D8 does.
+    options.enableMinification = false;
+    options.enableInlining = false;
+    options.enableClassInlining = false;
+    options.outline.enabled = false;
+    options.dexDistributionConsumer =
+        new StringConsumer.ForwardingConsumer(options.dexDistributionConsumer) {
+          @Override
+          public void accept(String string, DiagnosticsHandler handler) {
+            dexDistribution = string;
+            super.accept(string, handler);
+          }
+        };
+    reader = new IncrementalApplicationReader(options, timing);
+  }
+
+  /** Compiles all program inputs of the command and writes them to its program consumer. */
+  public void build() throws CompilationFailedException {
+    run(executor -> reader.read(inputApp, executor), options.programConsumer);
+  }
+
+  /**
+   * Compiles the changed classes and writes the full application to the given consumer.
+   *
+   * @param changedClasses Class files of all added and modified program classes.
+   * @param removedDescriptors Descriptors of program classes removed since the previous build.
+   * @param consumer Consumer for the output of this build, the consumer of the previous build has
+   *     already been finished.
+   */
+  public void update(
+      ProgramResourceProvider changedClasses,
+      Collection<String> removedDescriptors,
+      ProgramConsumer consumer)
+      throws CompilationFailedException {
+    AndroidApp changedApp = AndroidApp.builder().addProgramResourceProvider(changedClasses).build();
+    run(executor -> reader.update(changedApp, removedDescriptors, executor), consumer);
+  }
+
+  private interface ReadAction {
+    DexApplication read(ExecutorService executor) throws IOException, ExecutionException;
+  }
+
+  private void run(ReadAction readAction, ProgramConsumer consumer)
+      throws CompilationFailedException {
+    assert consumer instanceof DexIndexedConsumer
+        || consumer instanceof DexFilePerClassFileConsumer;
+    options.programConsumer = consumer;
+    dexDistribution = null;
+    ExceptionUtils.withD8CompilationHandler(
+        options.reporter,
+        () -> {
+          ExecutorService executor = ThreadUtils.getExecutorService(options);
+          try {
+            DexApplication app = readAction.read(executor);
+            app =
+                new IRConverter(new AppInfo(app), options, timing, null)
+                    .convertToDex(app, executor, reader::isDirty);
+            reader.setConvertedApplication(app);
+            Marker marker = D8.getMarker(options);
+            new ApplicationWriter(
+                    app,
+                    options,
+                    marker == null ? null : Collections.singletonList(marker),
+                    null,
+                    NamingLens.getIdentityLens(),
+                    null,
+                    null)
+                .write(executor);
+            if (dexDistribution != null) {
+              // Let the next build keep the classes in the files they were written to.
+              options.previousDexDistribution =
+                  StringResource.fromString(dexDistribution, Origin.unknown());
+            }
+            options.printWarnings();
+          } catch (ExecutionException e) {
+            R8.unwrapExecutionException(e);
+            throw new AssertionError(e); // unwrapping method should have thrown
+          } finally {
+            options.signalFinishedToConsumers();
+            executor.shutdown();
+            if (options.printTimes) {
+              timing.report();
+            }
+          }
+        });
+  }
+}
@@ -42,8 +42,10 @@ public class PrintClassList {
     builder.addProgramFiles(ListUtils.map(dexFiles, Paths::get));
 
     ExecutorService executorService = Executors.newCachedThreadPool();
+    InternalOptions options = new InternalOptions();
+    options.readStructureOnly = true;
     DexApplication application =
-        new ApplicationReader(builder.build(), new InternalOptions(), new Timing("PrintClassList"))
+        new ApplicationReader(builder.build(), options, new Timing("PrintClassList"))
             .read(
                 proguardMapFile == null ? null : StringResource.fromFile(proguardMapFile),
                 executorService
@@ -195,7 +195,7 @@ final public class ResourceShrinker {
         // fill-array-data instruction referencing it.
         final List<FillArrayDataPayload> payloads = Lists.newArrayList();
 
-        Instruction[] instructions = implementation.asDexCode().instructions;
+        Instruction[] instructions = implementation.asDexCode().getInstructions();
         int current = 0;
         while (current < instructions.length) {
           Instruction instruction = instructions[current];
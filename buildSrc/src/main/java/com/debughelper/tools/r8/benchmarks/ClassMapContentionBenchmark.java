@@ -0,0 +1,83 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.benchmarks;
+
+import static com.debughelper.tools.r8.benchmarks.BenchmarkUtils.printRuntimeNanoseconds;
+
+import com.debughelper.tools.r8.ArchiveClassFileProvider;
+import com.debughelper.tools.r8.graph.ClassKind;
+import com.debughelper.tools.r8.graph.DexLibraryClass;
+import com.debughelper.tools.r8.graph.DexType;
+import com.debughelper.tools.r8.graph.JarApplicationReader;
+import com.debughelper.tools.r8.utils.ClassProvider;
+import com.debughelper.tools.r8.utils.InternalOptions;
+import com.debughelper.tools.r8.utils.LibraryClassCollection;
+import com.debughelper.tools.r8.utils.ThreadUtils;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Measures on-demand loading of library classes through {@link LibraryClassCollection} when many
+ * threads miss on (mostly different) types at the same time, as during tracing or IR conversion.
+ */
+public class ClassMapContentionBenchmark {
+  private static final int ITERATIONS = 10;
+  private static final int API = 24;
+  private static final Path LIB =
+      Paths.get("third_party", "debughelper_jar", "lib-v" + API, "debughelper.jar");
+
+  private static void lookupAll(
+      Path library, int threads, ExecutorService executor, int iteration)
+      throws IOException, ExecutionException {
+    InternalOptions options = new InternalOptions();
+    try (ArchiveClassFileProvider archive = new ArchiveClassFileProvider(library)) {
+      ClassProvider<DexLibraryClass> provider =
+          ClassProvider.forClassFileResources(
+              ClassKind.LIBRARY, archive, new JarApplicationReader(options));
+      LibraryClassCollection collection = new LibraryClassCollection(provider);
+      List<DexType> types = new ArrayList<>(provider.collectTypes());
+      List<Future<?>> futures = new ArrayList<>();
+      long start = System.nanoTime();
+      for (int i = 0; i < threads; i++) {
+        // Each thread looks up all types in its own order, so most misses hit different types
+        // while some threads race on loading the same type.
+        List<DexType> order = new ArrayList<>(types);
+        Collections.shuffle(order, new Random(iteration * threads + i));
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (DexType type : order) {
+                    collection.get(type);
+                  }
+                }));
+      }
+      ThreadUtils.awaitFutures(futures);
+      printRuntimeNanoseconds(
+          "ClassMapContention" + threads + "Threads", System.nanoTime() - start);
+    }
+  }
+
+  public static void main(String[] args) throws IOException, ExecutionException {
+    Path library = args.length > 0 ? Paths.get(args[0]) : LIB;
+    int maxThreads = Integer.min(Runtime.getRuntime().availableProcessors(), 16);
+    ExecutorService executor = ThreadUtils.getExecutorService(maxThreads);
+    try {
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+          lookupAll(library, threads, executor, iteration);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.benchmarks;
+
+import static com.debughelper.tools.r8.benchmarks.BenchmarkUtils.printRuntimeNanoseconds;
+
+import com.debughelper.tools.r8.dex.ApplicationReader;
+import com.debughelper.tools.r8.graph.AppInfo;
+import com.debughelper.tools.r8.graph.DexApplication;
+import com.debughelper.tools.r8.graph.DexEncodedMethod;
+import com.debughelper.tools.r8.graph.DexProgramClass;
+import com.debughelper.tools.r8.ir.analysis.constant.SparseConditionalConstantPropagation;
+import com.debughelper.tools.r8.ir.analysis.type.TypeAnalysis;
+import com.debughelper.tools.r8.ir.code.IRCode;
+import com.debughelper.tools.r8.origin.Origin;
+import com.debughelper.tools.r8.utils.AndroidApp;
+import com.debughelper.tools.r8.utils.InternalOptions;
+import com.debughelper.tools.r8.utils.Timing;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Measures {@link TypeAnalysis} and {@link SparseConditionalConstantPropagation} on generated
+ * methods with a growing number of diamonds, each of which adds a few phis and constants.
+ */
+public class DenseDataflowBenchmark {
+  private static final int ITERATIONS = 20;
+  private static final int[] DIAMONDS = {100, 200, 400, 800};
+  private static final String CLASS_NAME = "DenseDataflowBenchmarkInput";
+
+  // Generates: static int run(int a, Object o), which for each diamond i does
+  //   if (a > i) { sum += i; x = o; c = 1; } else { x = null; c = 1; }
+  //   sum += c + (x == o ? 1 : 0);
+  private static byte[] generateClass(int diamonds) {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", null);
+    MethodVisitor mv =
+        cw.visitMethod(
+            Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "run", "(ILjava/lang/Object;)I", null, null);
+    mv.visitCode();
+    mv.visitInsn(Opcodes.ICONST_0);
+    mv.visitVarInsn(Opcodes.ISTORE, 2);
+    for (int i = 0; i < diamonds; i++) {
+      Label otherwise = new Label();
+      Label join = new Label();
+      Label notSame = new Label();
+      Label compared = new Label();
+      mv.visitVarInsn(Opcodes.ILOAD, 0);
+      mv.visitLdcInsn(i);
+      mv.visitJumpInsn(Opcodes.IF_ICMPLE, otherwise);
+      mv.visitVarInsn(Opcodes.ILOAD, 2);
+      mv.visitLdcInsn(i);
+      mv.visitInsn(Opcodes.IADD);
+      mv.visitVarInsn(Opcodes.ISTORE, 2);
+      mv.visitVarInsn(Opcodes.ALOAD, 1);
+      mv.visitVarInsn(Opcodes.ASTORE, 3);
+      mv.visitInsn(Opcodes.ICONST_1);
+      mv.visitVarInsn(Opcodes.ISTORE, 4);
+      mv.visitJumpInsn(Opcodes.GOTO, join);
+      mv.visitLabel(otherwise);
+      mv.visitInsn(Opcodes.ACONST_NULL);
+      mv.visitVarInsn(Opcodes.ASTORE, 3);
+      mv.visitInsn(Opcodes.ICONST_1);
+      mv.visitVarInsn(Opcodes.ISTORE, 4);
+      mv.visitLabel(join);
+      mv.visitVarInsn(Opcodes.ILOAD, 2);
+      mv.visitVarInsn(Opcodes.ILOAD, 4);
+      mv.visitInsn(Opcodes.IADD);
+      mv.visitVarInsn(Opcodes.ALOAD, 3);
+      mv.visitVarInsn(Opcodes.ALOAD, 1);
+      mv.visitJumpInsn(Opcodes.IF_ACMPNE, notSame);
+      mv.visitInsn(Opcodes.ICONST_1);
+      mv.visitJumpInsn(Opcodes.GOTO, compared);
+      mv.visitLabel(notSame);
+      mv.visitInsn(Opcodes.ICONST_0);
+      mv.visitLabel(compared);
+      mv.visitInsn(Opcodes.IADD);
+      mv.visitVarInsn(Opcodes.ISTORE, 2);
+    }
+    mv.visitVarInsn(Opcodes.ILOAD, 2);
+    mv.visitInsn(Opcodes.IRETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  private static void analyze(int diamonds, int iteration)
+      throws IOException, ExecutionException {
+    InternalOptions options = new InternalOptions();
+    DexApplication application =
+        new ApplicationReader(
+                AndroidApp.builder()
+                    .addClassProgramData(generateClass(diamonds), Origin.unknown())
+                    .build(),
+                options,
+                new Timing("DenseDataflowBenchmark"))
+            .read();
+    AppInfo appInfo = new AppInfo(application);
+    DexProgramClass clazz = application.classes().get(0);
+    DexEncodedMethod method = clazz.directMethods()[0];
+    long typeAnalysis = 0;
+    long constantPropagation = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      // Constant propagation rewrites the code, so each round analyzes freshly built IR.
+      IRCode code = method.buildIR(appInfo, options, clazz.origin);
+      long start = System.nanoTime();
+      new TypeAnalysis(appInfo, method, code);
+      typeAnalysis += System.nanoTime() - start;
+      start = System.nanoTime();
+      new SparseConditionalConstantPropagation(code).run();
+      constantPropagation += System.nanoTime() - start;
+    }
+    // The first iteration includes class loading and warm-up of the JIT.
+    if (iteration > 0) {
+      printRuntimeNanoseconds("TypeAnalysis" + diamonds, typeAnalysis / ITERATIONS);
+      printRuntimeNanoseconds("ConstantPropagation" + diamonds, constantPropagation / ITERATIONS);
+    }
+  }
+
+  public static void main(String[] args) throws IOException, ExecutionException {
+    for (int iteration = 0; iteration < 2; iteration++) {
+      for (int diamonds : DIAMONDS) {
+        analyze(diamonds, iteration);
+      }
+    }
+  }
+}
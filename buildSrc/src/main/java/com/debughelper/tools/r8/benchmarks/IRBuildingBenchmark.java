@@ -0,0 +1,88 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.benchmarks;
+
+import static com.debughelper.tools.r8.benchmarks.BenchmarkUtils.printRuntimeNanoseconds;
+
+import com.debughelper.tools.r8.dex.ApplicationReader;
+import com.debughelper.tools.r8.graph.AppInfo;
+import com.debughelper.tools.r8.graph.DexApplication;
+import com.debughelper.tools.r8.graph.DexEncodedMethod;
+import com.debughelper.tools.r8.graph.DexProgramClass;
+import com.debughelper.tools.r8.graph.GraphLense;
+import com.debughelper.tools.r8.ir.analysis.type.TypeAnalysis;
+import com.debughelper.tools.r8.ir.code.IRCode;
+import com.debughelper.tools.r8.ir.optimize.CodeRewriter;
+import com.debughelper.tools.r8.ir.optimize.DeadCodeRemover;
+import com.debughelper.tools.r8.utils.AndroidApp;
+import com.debughelper.tools.r8.utils.InternalOptions;
+import com.debughelper.tools.r8.utils.Timing;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Measures building the IR of all methods of a program and running the basic {@link CodeRewriter}
+ * passes on it, reporting the runtime and the bytes allocated by the benchmark thread.
+ */
+public class IRBuildingBenchmark {
+  private static final int ITERATIONS = 10;
+  private static final Path PROGRAM = Paths.get("build/test/examples/arithmetic.jar");
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static void buildAndRewrite(AppInfo appInfo, InternalOptions options, int iteration) {
+    CodeRewriter codeRewriter = new CodeRewriter(appInfo, ImmutableSet.of(), options);
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    for (DexProgramClass clazz : appInfo.classes()) {
+      List<DexEncodedMethod> methods = new ArrayList<>();
+      clazz.forEachMethod(methods::add);
+      for (DexEncodedMethod method : methods) {
+        IRCode code = method.buildIR(appInfo, options, clazz.origin);
+        if (code == null) {
+          continue;
+        }
+        codeRewriter.removeCasts(code, TypeAnalysis.getDefaultTypeEnvironment());
+        codeRewriter.commonSubexpressionElimination(code);
+        codeRewriter.simplifyArrayConstruction(code);
+        codeRewriter.rewriteMoveResult(code);
+        codeRewriter.splitRangeInvokeConstants(code);
+        codeRewriter.rewriteSwitch(code);
+        codeRewriter.simplifyIf(code, TypeAnalysis.getDefaultTypeEnvironment());
+        DeadCodeRemover.removeDeadCode(code, codeRewriter, GraphLense.getIdentityLense(), options);
+        codeRewriter.shortenLiveRanges(code);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    // The first iterations include class loading and warm-up of the JIT.
+    if (iteration >= ITERATIONS / 2) {
+      printRuntimeNanoseconds("IRBuilding", elapsed);
+      System.out.println("IRBuilding(Allocated): " + (allocatedBytes() - allocated) + " bytes");
+    }
+  }
+
+  public static void main(String[] args) throws IOException, ExecutionException {
+    Path program = args.length > 0 ? Paths.get(args[0]) : PROGRAM;
+    for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+      // Read the program for every iteration, so each one includes the lazy parsing of the code.
+      InternalOptions options = new InternalOptions();
+      DexApplication application =
+          new ApplicationReader(
+                  AndroidApp.builder().addProgramFiles(program).build(),
+                  options,
+                  new Timing("IRBuildingBenchmark"))
+              .read();
+      buildAndRewrite(new AppInfo(application), options, iteration);
+    }
+  }
+}
@@ -7,12 +7,14 @@ import static com.debughelper.tools.r8.ir.regalloc.LiveIntervals.NO_REGISTER;
 
 import com.debughelper.tools.r8.ir.regalloc.LinearScanRegisterAllocator;
 import com.debughelper.tools.r8.ir.regalloc.LiveIntervals;
+import com.debughelper.tools.r8.ir.regalloc.LiveIntervalsArena;
 import com.debughelper.tools.r8.ir.regalloc.RegisterAllocator;
 import com.debughelper.tools.r8.utils.InternalOptions;
 import com.debughelper.tools.r8.ir.code.BasicBlock;
 import com.debughelper.tools.r8.ir.code.IRCode;
 import com.debughelper.tools.r8.ir.code.Instruction;
 import com.debughelper.tools.r8.ir.code.InstructionIterator;
+import com.debughelper.tools.r8.ir.code.LiveAtEntrySets;
 import com.debughelper.tools.r8.ir.code.Phi;
 import com.debughelper.tools.r8.ir.code.StackValue;
 import com.debughelper.tools.r8.ir.code.Value;
@@ -22,10 +24,8 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.NavigableSet;
 import java.util.PriorityQueue;
-import java.util.Set;
 import java.util.TreeSet;
 
 /**
@@ -41,7 +41,7 @@ public class CfRegisterAllocator implements RegisterAllocator {
   private final InternalOptions options;
 
   // Mapping from basic blocks to the set of values live at entry to that basic block.
-  private Map<com.debughelper.tools.r8.ir.code.BasicBlock, Set<com.debughelper.tools.r8.ir.code.Value>> liveAtEntrySets;
+  private LiveAtEntrySets liveAtEntrySets;
 
   // List of all top-level live intervals for all SSA values.
   private final List<LiveIntervals> liveIntervals = new ArrayList<>();
@@ -124,7 +124,8 @@ public class CfRegisterAllocator implements RegisterAllocator {
   private ImmutableList<com.debughelper.tools.r8.ir.code.BasicBlock> computeLivenessInformation() {
     ImmutableList<com.debughelper.tools.r8.ir.code.BasicBlock> blocks = code.numberInstructions();
     liveAtEntrySets = code.computeLiveAtEntrySets();
-    LinearScanRegisterAllocator.computeLiveRanges(options, code, liveAtEntrySets, liveIntervals);
+    LinearScanRegisterAllocator.computeLiveRanges(
+        options, code, liveAtEntrySets, liveIntervals, LiveIntervalsArena.NON_RECYCLING);
     return blocks;
   }
 
@@ -252,10 +253,12 @@ public class CfRegisterAllocator implements RegisterAllocator {
   }
 
   public void addToLiveAtEntrySet(com.debughelper.tools.r8.ir.code.BasicBlock block, Collection<Phi> phis) {
-    liveAtEntrySets.get(block).addAll(phis);
+    for (Phi phi : phis) {
+      liveAtEntrySets.add(block, phi);
+    }
   }
 
   public Collection<Value> getLocalsAtBlockEntry(BasicBlock block) {
-    return liveAtEntrySets.get(block);
+    return liveAtEntrySets.getValues(block);
   }
 }
@@ -14,6 +14,7 @@ import com.debughelper.tools.r8.graph.ObjectToOffsetMapping;
 import com.debughelper.tools.r8.naming.ClassNameMapper;
 
 import java.nio.ShortBuffer;
+import java.util.function.BiPredicate;
 
 /** Format45cc for instructions of size 4, with 5 registers and 2 constant pool index. */
 public abstract class Format45cc extends Base4Format {
@@ -88,6 +89,22 @@ public abstract class Format45cc extends Base4Format {
         && o.HHHH.equals(HHHH);
   }
 
+  @Override
+  public boolean equals(Instruction other, BiPredicate<IndexedDexItem, IndexedDexItem> equality) {
+    if (other == null || (this.getClass() != other.getClass())) {
+      return false;
+    }
+    Format45cc o = (Format45cc) other;
+    return o.A == A
+        && o.C == C
+        && o.D == D
+        && o.E == E
+        && o.F == F
+        && o.G == G
+        && equality.test(BBBB, o.BBBB)
+        && equality.test(HHHH, o.HHHH);
+  }
+
   @Override
   public void collectIndexedItems(IndexedItemCollection indexedItems,
                                   com.debughelper.tools.r8.graph.DexMethod method, int instructionOffset) {
@@ -0,0 +1,292 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.code;
+
+import com.debughelper.tools.r8.dex.IndexedItemCollection;
+import com.debughelper.tools.r8.errors.InternalCompilerError;
+import com.debughelper.tools.r8.graph.DexField;
+import com.debughelper.tools.r8.graph.DexMethod;
+import com.debughelper.tools.r8.graph.DexMethodHandle;
+import com.debughelper.tools.r8.graph.DexProto;
+import com.debughelper.tools.r8.graph.DexString;
+import com.debughelper.tools.r8.graph.DexType;
+import com.debughelper.tools.r8.graph.IndexedDexItem;
+import com.debughelper.tools.r8.graph.ObjectToOffsetMapping;
+import com.debughelper.tools.r8.graph.OffsetToObjectMapping;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Instructions of a code item as read from a DEX file, for code that is passed through to the
+ * output without being decoded into {@link Instruction} objects.
+ *
+ * <p>The index operands of the instructions are replaced by indices into the items referenced by
+ * the code, so that the code units no longer depend on the file they were read from. Writing them
+ * copies the code units and only translates these operands to the indices of the output file.
+ */
+public class RawInstructions {
+
+  private static final int PACKED_SWITCH_PAYLOAD = 0x01;
+  private static final int SPARSE_SWITCH_PAYLOAD = 0x02;
+  private static final int FILL_ARRAY_DATA_PAYLOAD = 0x03;
+
+  // Size in code units of the instruction with a given opcode, or 0 if instructions with the
+  // opcode are not kept undecoded.
+  private static final byte[] SIZES = new byte[256];
+  // Number of index operands of the instruction with a given opcode. The first is the code unit
+  // after the opcode and the second, if any, is the fourth code unit.
+  private static final byte[] REFERENCES = new byte[256];
+
+  static {
+    define(0x00, 0x00, 1, 0); // nop and payloads.
+    define(0x01, 0x01, 1, 0); // move.
+    define(0x02, 0x02, 2, 0); // move/from16.
+    define(0x03, 0x03, 3, 0); // move/16.
+    define(0x04, 0x04, 1, 0); // move-wide.
+    define(0x05, 0x05, 2, 0); // move-wide/from16.
+    define(0x06, 0x06, 3, 0); // move-wide/16.
+    define(0x07, 0x07, 1, 0); // move-object.
+    define(0x08, 0x08, 2, 0); // move-object/from16.
+    define(0x09, 0x09, 3, 0); // move-object/16.
+    define(0x0a, 0x12, 1, 0); // move-result*, move-exception, return*, const/4.
+    define(0x13, 0x13, 2, 0); // const/16.
+    define(0x14, 0x14, 3, 0); // const.
+    define(0x15, 0x16, 2, 0); // const/high16, const-wide/16.
+    define(0x17, 0x17, 3, 0); // const-wide/32.
+    define(0x18, 0x18, 5, 0); // const-wide.
+    define(0x19, 0x19, 2, 0); // const-wide/high16.
+    define(0x1a, 0x1a, 2, 1); // const-string.
+    define(0x1b, 0x1b, 3, 1); // const-string/jumbo.
+    define(0x1c, 0x1c, 2, 1); // const-class.
+    define(0x1d, 0x1e, 1, 0); // monitor-enter, monitor-exit.
+    define(0x1f, 0x20, 2, 1); // check-cast, instance-of.
+    define(0x21, 0x21, 1, 0); // array-length.
+    define(0x22, 0x23, 2, 1); // new-instance, new-array.
+    define(0x24, 0x25, 3, 1); // filled-new-array*.
+    define(0x26, 0x26, 3, 0); // fill-array-data.
+    define(0x27, 0x28, 1, 0); // throw, goto.
+    define(0x29, 0x29, 2, 0); // goto/16.
+    define(0x2a, 0x2c, 3, 0); // goto/32, packed-switch, sparse-switch.
+    define(0x2d, 0x3d, 2, 0); // cmp*, if-*.
+    define(0x44, 0x51, 2, 0); // aget*, aput*.
+    define(0x52, 0x6d, 2, 1); // iget*, iput*, sget*, sput*.
+    define(0x6e, 0x72, 3, 1); // invoke-*.
+    define(0x74, 0x78, 3, 1); // invoke-*/range.
+    define(0x7b, 0x8f, 1, 0); // unary operations.
+    define(0x90, 0xaf, 2, 0); // binary operations.
+    define(0xb0, 0xcf, 1, 0); // binary operations/2addr.
+    define(0xd0, 0xe2, 2, 0); // binary operations/lit16, binary operations/lit8.
+    define(0xfa, 0xfb, 4, 2); // invoke-polymorphic*.
+    // Call sites of invoke-custom* are sorted by their position in the output, so they are decoded.
+    define(0xfe, 0xff, 2, 1); // const-method-handle, const-method-type.
+  }
+
+  private static void define(int firstOpcode, int lastOpcode, int size, int references) {
+    for (int opcode = firstOpcode; opcode <= lastOpcode; opcode++) {
+      SIZES[opcode] = (byte) size;
+      REFERENCES[opcode] = (byte) references;
+    }
+  }
+
+  private final short[] units;
+  private final IndexedDexItem[] references;
+  // Positions of the index operands in the code units, with the lowest bit set for 32 bit ones.
+  private final int[] operands;
+
+  private RawInstructions(short[] units, IndexedDexItem[] references, int[] operands) {
+    this.units = units;
+    this.references = references;
+    this.operands = operands;
+  }
+
+  /**
+   * Returns the instructions in the code units, read with the given mapping from indices to items,
+   * or null if they contain instructions that are not kept undecoded.
+   *
+   * <p>NOTE: if the instructions are returned, the index operands in the code units are replaced.
+   */
+  public static RawInstructions read(short[] units, OffsetToObjectMapping mapping) {
+    List<IndexedDexItem> references = new ArrayList<>();
+    Reference2IntMap<IndexedDexItem> referenceIndices = new Reference2IntOpenHashMap<>();
+    referenceIndices.defaultReturnValue(-1);
+    IntArrayList operands = new IntArrayList();
+    IntArrayList operandReferences = new IntArrayList();
+    int position = 0;
+    while (position < units.length) {
+      int opcode = units[position] & 0xff;
+      int size = opcode == 0 ? sizeOfNop(units, position) : SIZES[opcode];
+      if (size == 0 || position + size > units.length) {
+        return null;
+      }
+      for (int i = 0; i < REFERENCES[opcode]; i++) {
+        int operand = position + (i == 0 ? 1 : 3);
+        boolean wide = opcode == ConstStringJumbo.OPCODE;
+        int index = wide
+            ? (units[operand] & 0xffff) | (units[operand + 1] << 16)
+            : units[operand] & 0xffff;
+        IndexedDexItem item = getReference(opcode, i, index, mapping);
+        int referenceIndex = referenceIndices.getInt(item);
+        if (referenceIndex == -1) {
+          referenceIndex = references.size();
+          if (referenceIndex > 0xffff) {
+            return null;
+          }
+          references.add(item);
+          referenceIndices.put(item, referenceIndex);
+        }
+        operands.add(operand << 1 | (wide ? 1 : 0));
+        operandReferences.add(referenceIndex);
+      }
+      position += size;
+    }
+    for (int i = 0; i < operands.size(); i++) {
+      int operand = operands.getInt(i);
+      units[operand >>> 1] = (short) operandReferences.getInt(i);
+      if ((operand & 1) != 0) {
+        units[(operand >>> 1) + 1] = 0;
+      }
+    }
+    return new RawInstructions(
+        units,
+        references.toArray(new IndexedDexItem[references.size()]),
+        operands.toIntArray());
+  }
+
+  private static int sizeOfNop(short[] units, int position) {
+    int remaining = units.length - position;
+    switch ((units[position] >> 8) & 0xff) {
+      case PACKED_SWITCH_PAYLOAD:
+        return remaining < 2 ? 0 : 4 + (units[position + 1] & 0xffff) * 2;
+      case SPARSE_SWITCH_PAYLOAD:
+        return remaining < 2 ? 0 : 2 + (units[position + 1] & 0xffff) * 4;
+      case FILL_ARRAY_DATA_PAYLOAD:
+        if (remaining < 4) {
+          return 0;
+        }
+        long elementWidth = units[position + 1] & 0xffff;
+        long size = (units[position + 2] & 0xffff) | ((units[position + 3] & 0xffffL) << 16);
+        long payloadSize = 4 + (elementWidth * size + 1) / 2;
+        return payloadSize > remaining ? 0 : (int) payloadSize;
+      default:
+        return 1;
+    }
+  }
+
+  private static IndexedDexItem getReference(
+      int opcode, int operand, int index, OffsetToObjectMapping mapping) {
+    switch (opcode) {
+      case ConstString.OPCODE:
+      case ConstStringJumbo.OPCODE:
+        return mapping.getString(index);
+      case ConstMethodHandle.OPCODE:
+        return mapping.getMethodHandle(index);
+      case ConstMethodType.OPCODE:
+        return mapping.getProto(index);
+      case InvokePolymorphic.OPCODE:
+      case InvokePolymorphicRange.OPCODE:
+        return operand == 0 ? mapping.getMethod(index) : mapping.getProto(index);
+      default:
+        if (opcode >= Iget.OPCODE && opcode <= SputShort.OPCODE) {
+          return mapping.getField(index);
+        }
+        if (opcode >= InvokeVirtual.OPCODE && opcode <= InvokeInterfaceRange.OPCODE) {
+          return mapping.getMethod(index);
+        }
+        return mapping.getType(index);
+    }
+  }
+
+  /** Returns the size of the instructions in code units. */
+  public int size() {
+    return units.length;
+  }
+
+  /** Returns the highest sorting string referenced by a const-string instruction, if any. */
+  public DexString getHighestSortingString() {
+    DexString highestSortingString = null;
+    for (IndexedDexItem reference : references) {
+      if (reference instanceof DexString) {
+        DexString string = (DexString) reference;
+        if (highestSortingString == null || highestSortingString.slowCompareTo(string) < 0) {
+          highestSortingString = string;
+        }
+      }
+    }
+    return highestSortingString;
+  }
+
+  public Instruction[] decode() {
+    OffsetToObjectMapping mapping = new OffsetToObjectMapping();
+    mapping.initializeStrings(references.length);
+    mapping.initializeTypes(references.length);
+    mapping.initializeFields(references.length);
+    mapping.initializeMethods(references.length);
+    mapping.initializeProtos(references.length);
+    mapping.initializeMethodHandles(references.length);
+    for (int i = 0; i < references.length; i++) {
+      IndexedDexItem reference = references[i];
+      if (reference instanceof DexString) {
+        mapping.setString(i, (DexString) reference);
+      } else if (reference instanceof DexType) {
+        mapping.setType(i, (DexType) reference);
+      } else if (reference instanceof DexField) {
+        mapping.setField(i, (DexField) reference);
+      } else if (reference instanceof DexMethod) {
+        mapping.setMethod(i, (DexMethod) reference);
+      } else if (reference instanceof DexProto) {
+        mapping.setProto(i, (DexProto) reference);
+      } else {
+        mapping.setMethodHandle(i, (DexMethodHandle) reference);
+      }
+    }
+    return new InstructionFactory()
+        .readSequenceFrom(ShortBuffer.wrap(units), 0, units.length, mapping);
+  }
+
+  public void collectIndexedItems(IndexedItemCollection indexedItems, DexMethod method) {
+    for (IndexedDexItem reference : references) {
+      reference.collectIndexedItems(indexedItems, method, -1);
+    }
+  }
+
+  public void write(ShortBuffer dest, ObjectToOffsetMapping mapping) {
+    int start = dest.position();
+    dest.put(units);
+    for (int operand : operands) {
+      int position = operand >>> 1;
+      int index = references[units[position] & 0xffff].getOffset(mapping);
+      if ((operand & 1) != 0) {
+        dest.put(start + position, (short) index);
+        dest.put(start + position + 1, (short) (index >>> 16));
+      } else {
+        if (index != (index & 0xffff)) {
+          throw new InternalCompilerError("Index overflow.");
+        }
+        dest.put(start + position, (short) index);
+      }
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(units) * 7 + Arrays.hashCode(references);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (other instanceof RawInstructions) {
+      RawInstructions o = (RawInstructions) other;
+      return Arrays.equals(units, o.units) && Arrays.equals(references, o.references);
+    }
+    return false;
+  }
+}
@@ -200,9 +200,20 @@ public class ApplicationReader {
         List<com.debughelper.tools.r8.dex.DexParser> dexParsers = new ArrayList<>(dexSources.size());
         int computedMinApiLevel = options.minApiLevel;
         for (com.debughelper.tools.r8.ProgramResource input : dexSources) {
-          DexReader dexReader = new DexReader(input);
+          // Dex files embedded in a vdex file are parsed in place, see ExtractMarker.
+          DexReader dexReader =
+              input instanceof ByteBufferResource
+                  ? new DexReader(input.getOrigin(), ((ByteBufferResource) input).getBuffer())
+                  : new DexReader(input);
           computedMinApiLevel = verifyOrComputeMinApiLevel(computedMinApiLevel, dexReader);
-          dexParsers.add(new com.debughelper.tools.r8.dex.DexParser(dexReader, classKind, itemFactory, options.reporter));
+          dexParsers.add(
+              new DexParser(
+                  dexReader,
+                  classKind,
+                  itemFactory,
+                  options.reporter,
+                  options.readStructureOnly,
+                  options.keepRawDexInstructions));
         }
         options.minApiLevel = computedMinApiLevel;
         for (com.debughelper.tools.r8.dex.DexParser dexParser : dexParsers) {
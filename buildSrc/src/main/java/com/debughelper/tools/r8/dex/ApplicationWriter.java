@@ -33,11 +33,13 @@ import com.debughelper.tools.r8.graph.ObjectToOffsetMapping;
 import com.debughelper.tools.r8.graph.ParameterAnnotationsList;
 import com.debughelper.tools.r8.naming.NamingLens;
 import com.debughelper.tools.r8.naming.ProguardMapSupplier;
+import com.debughelper.tools.r8.utils.ByteBufferPool;
 import com.debughelper.tools.r8.utils.DescriptorUtils;
 import com.debughelper.tools.r8.utils.ExceptionUtils;
 import com.debughelper.tools.r8.utils.InternalOptions;
 import com.debughelper.tools.r8.utils.ThreadUtils;
 import com.google.common.collect.ObjectArrays;
+import com.google.common.util.concurrent.Futures;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -60,6 +62,8 @@ public class ApplicationWriter {
   public List<DexString> markerStrings;
   public com.debughelper.tools.r8.DexIndexedConsumer programConsumer;
   public final com.debughelper.tools.r8.naming.ProguardMapSupplier proguardMapSupplier;
+  // Shared by the files written when generating a dex file per class.
+  private final CodeItemCache codeItemCache;
 
   private static class SortAnnotations extends MixedSectionCollection {
 
@@ -161,6 +165,7 @@ public class ApplicationWriter {
     this.proguardSeedsData = proguardSeedsData;
     this.proguardMapSupplier = proguardMapSupplier;
     this.programConsumer = consumer;
+    this.codeItemCache = options.isGeneratingDexFilePerClassFile() ? new CodeItemCache() : null;
   }
 
   private Iterable<com.debughelper.tools.r8.dex.VirtualFile> distribute(ExecutorService executorService)
@@ -174,17 +179,33 @@ public class ApplicationWriter {
         && application.mainDexList.isEmpty()
         && options.enableMainDexListCheck) {
       distributor = new com.debughelper.tools.r8.dex.VirtualFile.MonoDexDistributor(this, options);
+    } else if (options.previousDexDistribution != null) {
+      distributor =
+          new VirtualFile.StickyFilesDistributor(
+              this,
+              options,
+              executorService,
+              DexDistribution.parse(
+                  options.previousDexDistribution, application.dexItemFactory));
     } else {
       distributor = new com.debughelper.tools.r8.dex.VirtualFile.FillFilesDistributor(this, options, executorService);
     }
 
-    return distributor.run();
+    Collection<VirtualFile> files = distributor.run();
+    if (options.dexDistributionConsumer != null && !options.isGeneratingDexFilePerClassFile()) {
+      ExceptionUtils.withConsumeResourceHandler(
+          options.reporter, options.dexDistributionConsumer, DexDistribution.toString(files));
+    }
+    return files;
   }
 
   public void write(ExecutorService executorService) throws IOException, ExecutionException {
     application.timing.begin("DexApplication.write");
     try {
       insertAttributeAnnotations();
+      if (options.offsetMappingCache != null) {
+        options.offsetMappingCache.startBuild();
+      }
 
       application.dexItemFactory.sort(namingLens);
       assert this.markerStrings == null
@@ -199,14 +220,24 @@ public class ApplicationWriter {
       // item that is valid for all dex files.
       // Use a linked hash map as the order matters when addDexProgramData is called below.
       Map<com.debughelper.tools.r8.dex.VirtualFile, Future<com.debughelper.tools.r8.graph.ObjectToOffsetMapping>> offsetMappingFutures = new LinkedHashMap<>();
+      List<VirtualFile> newFiles = new ArrayList<>();
       for (com.debughelper.tools.r8.dex.VirtualFile newFile : distribute(executorService)) {
-        if (!newFile.isEmpty()) {
-          offsetMappingFutures
-              .put(newFile, executorService.submit(() -> {
-                com.debughelper.tools.r8.graph.ObjectToOffsetMapping mapping = newFile.computeMapping(application);
-                rewriteCodeWithJumboStrings(mapping, newFile.classes(), application);
-                return mapping;
-              }));
+        newFiles.add(newFile);
+      }
+      // Drop the empty files at the end. An empty file before a non-empty one is still written, so
+      // that the files after it keep their names, see VirtualFile.StickyFilesDistributor.
+      while (!newFiles.isEmpty() && newFiles.get(newFiles.size() - 1).isEmpty()) {
+        newFiles.remove(newFiles.size() - 1);
+      }
+      if (newFiles.size() == 1) {
+        // Sort the items of a single file in parallel instead.
+        VirtualFile newFile = newFiles.get(0);
+        offsetMappingFutures.put(
+            newFile, Futures.immediateFuture(computeMapping(newFile, executorService)));
+      } else {
+        for (VirtualFile newFile : newFiles) {
+          offsetMappingFutures.put(
+              newFile, executorService.submit(() -> computeMapping(newFile, null)));
         }
       }
 
@@ -216,38 +247,22 @@ public class ApplicationWriter {
       // Generate the dex file contents.
       List<Future<Boolean>> dexDataFutures = new ArrayList<>();
       try {
-        for (VirtualFile virtualFile : offsetMappingFutures.keySet()) {
-          assert !virtualFile.isEmpty();
-          final com.debughelper.tools.r8.graph.ObjectToOffsetMapping mapping = offsetMappingFutures.get(virtualFile).get();
-          dexDataFutures.add(
-              executorService.submit(
-                  () -> {
-                    byte[] result = writeDexFile(mapping);
-                    if (programConsumer != null) {
-                      programConsumer.accept(
-                          virtualFile.getId(),
-                          result,
-                          virtualFile.getClassDescriptors(),
-                          options.reporter);
-                    } else if (virtualFile.getPrimaryClassDescriptor() != null) {
-                      options
-                          .getDexFilePerClassFileConsumer()
-                          .accept(
-                              virtualFile.getPrimaryClassDescriptor(),
-                              result,
-                              virtualFile.getClassDescriptors(),
-                              options.reporter);
-                    } else {
-                      options
-                          .getDexIndexedConsumer()
-                          .accept(
-                              virtualFile.getId(),
-                              result,
-                              virtualFile.getClassDescriptors(),
-                              options.reporter);
-                    }
-                    return true;
-                  }));
+        if (offsetMappingFutures.size() == 1) {
+          // With a single file there is no parallelism across files, so write it on this thread
+          // and let it use the executor for its own sections instead.
+          VirtualFile virtualFile = offsetMappingFutures.keySet().iterator().next();
+          ObjectToOffsetMapping mapping = offsetMappingFutures.get(virtualFile).get();
+          writeVirtualFile(virtualFile, mapping, executorService);
+        } else {
+          for (VirtualFile virtualFile : offsetMappingFutures.keySet()) {
+            final ObjectToOffsetMapping mapping = offsetMappingFutures.get(virtualFile).get();
+            dexDataFutures.add(
+                executorService.submit(
+                    () -> {
+                      writeVirtualFile(virtualFile, mapping, null);
+                      return true;
+                    }));
+          }
         }
       } catch (InterruptedException e) {
         throw new RuntimeException("Interrupted while waiting for future.", e);
@@ -428,14 +443,76 @@ public class ApplicationWriter {
     }
   }
 
+  // Items of the file are sorted in parallel on the executor, if not null.
+  private ObjectToOffsetMapping computeMapping(
+      VirtualFile virtualFile, ExecutorService executorService) throws ExecutionException {
+    ObjectToOffsetMapping.Cache cache = options.offsetMappingCache;
+    // Files of the previous build are matched by name, which is the primary class for file per
+    // class output.
+    Object fileKey =
+        virtualFile.getPrimaryClassDescriptor() != null
+            ? virtualFile.getPrimaryClassDescriptor()
+            : virtualFile.getId();
+    ObjectToOffsetMapping mapping =
+        virtualFile.computeMapping(
+            application, cache == null ? null : cache.get(fileKey), executorService);
+    if (cache != null) {
+      cache.put(fileKey, mapping);
+    }
+    rewriteCodeWithJumboStrings(mapping, virtualFile.classes(), application);
+    return mapping;
+  }
+
+  // Sections of the file are written in parallel on the executor, if not null.
+  private void writeVirtualFile(
+      VirtualFile virtualFile, ObjectToOffsetMapping mapping, ExecutorService executorService)
+      throws ExecutionException {
+    if (programConsumer != null) {
+      writeDexFile(mapping, virtualFile, programConsumer, executorService);
+    } else if (virtualFile.getPrimaryClassDescriptor() != null) {
+      byte[] result = writeDexFile(mapping);
+      options
+          .getDexFilePerClassFileConsumer()
+          .accept(
+              virtualFile.getPrimaryClassDescriptor(),
+              result,
+              virtualFile.getClassDescriptors(),
+              options.reporter);
+    } else {
+      writeDexFile(mapping, virtualFile, options.getDexIndexedConsumer(), executorService);
+    }
+  }
+
   private byte[] writeDexFile(ObjectToOffsetMapping mapping) {
-    FileWriter fileWriter = new FileWriter(mapping, application, options, namingLens);
+    FileWriter fileWriter =
+        new FileWriter(
+            mapping, application, options, namingLens, ByteBufferPool.getShared(), codeItemCache);
     // Collect the non-fixed sections.
     fileWriter.collect();
     // Generate and write the bytes.
     return fileWriter.generate();
   }
 
+  private void writeDexFile(
+      ObjectToOffsetMapping mapping,
+      VirtualFile virtualFile,
+      DexIndexedConsumer consumer,
+      ExecutorService executorService)
+      throws ExecutionException {
+    // Lay out the file in a buffer from the consumer and hand it over without copying it.
+    FileWriter fileWriter = new FileWriter(mapping, application, options, namingLens, consumer);
+    try {
+      fileWriter.collect();
+      consumer.accept(
+          virtualFile.getId(),
+          fileWriter.generateBuffer(executorService),
+          virtualFile.getClassDescriptors(),
+          options.reporter);
+    } finally {
+      fileWriter.release();
+    }
+  }
+
   private static String mapMainDexListName(com.debughelper.tools.r8.graph.DexType type, com.debughelper.tools.r8.naming.NamingLens namingLens) {
     return DescriptorUtils.descriptorToJavaType(namingLens.lookupDescriptor(type).toString())
         .replace('.', '/') + ".class";
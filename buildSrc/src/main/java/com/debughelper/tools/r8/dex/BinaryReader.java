@@ -30,6 +30,13 @@ public abstract class BinaryReader {
     buffer = ByteBuffer.wrap(bytes);
   }
 
+  protected BinaryReader(com.debughelper.tools.r8.origin.Origin origin, ByteBuffer buffer) {
+    assert origin != null;
+    assert buffer.position() == 0;
+    this.origin = origin;
+    this.buffer = buffer;
+  }
+
   public Origin getOrigin() {
     return origin;
   }
@@ -42,6 +49,14 @@ public abstract class BinaryReader {
     return result;
   }
 
+  // Returns a view of size bytes starting at offset, sharing the content of this reader.
+  ByteBuffer slice(int offset, int size) {
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset);
+    view.limit(offset + size);
+    return view.slice().asReadOnlyBuffer();
+  }
+
   int getUleb128() {
     return com.debughelper.tools.r8.utils.LebUtils.parseUleb128(this);
   }
@@ -80,6 +95,10 @@ public abstract class BinaryReader {
     return buffer.getInt();
   }
 
+  int getInt(int offset) {
+    return buffer.getInt(offset);
+  }
+
   int position() {
     return buffer.position();
   }
@@ -106,6 +125,6 @@ public abstract class BinaryReader {
   }
 
   int end() {
-    return buffer.capacity();
+    return buffer.limit();
   }
 }
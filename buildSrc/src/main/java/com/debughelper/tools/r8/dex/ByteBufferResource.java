@@ -0,0 +1,61 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.dex;
+
+import com.debughelper.tools.r8.ProgramResource;
+import com.debughelper.tools.r8.origin.Origin;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * Program resource backed by a buffer, e.g., a view of a dex file embedded in a memory-mapped
+ * vdex file. {@link ApplicationReader} parses the buffer directly, other consumers of the resource
+ * get a copy through {@link #getByteStream}.
+ */
+public class ByteBufferResource implements ProgramResource {
+
+  private final Origin origin;
+  private final Kind kind;
+  private final ByteBuffer buffer;
+  private final Set<String> classDescriptors;
+
+  public ByteBufferResource(
+      Origin origin, Kind kind, ByteBuffer buffer, Set<String> classDescriptors) {
+    assert buffer.position() == 0;
+    this.origin = origin;
+    this.kind = kind;
+    this.buffer = buffer;
+    this.classDescriptors = classDescriptors;
+  }
+
+  /** Returns a view of the content, starting at position 0. */
+  public ByteBuffer getBuffer() {
+    return buffer.duplicate();
+  }
+
+  @Override
+  public Origin getOrigin() {
+    return origin;
+  }
+
+  @Override
+  public Kind getKind() {
+    return kind;
+  }
+
+  @Override
+  public InputStream getByteStream() {
+    ByteBuffer content = getBuffer();
+    byte[] bytes = new byte[content.remaining()];
+    content.get(bytes);
+    return new ByteArrayInputStream(bytes);
+  }
+
+  @Override
+  public Set<String> getClassDescriptors() {
+    return classDescriptors;
+  }
+}
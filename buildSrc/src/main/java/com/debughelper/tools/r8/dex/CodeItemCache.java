@@ -0,0 +1,198 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.dex;
+
+import com.debughelper.tools.r8.code.Instruction;
+import com.debughelper.tools.r8.graph.DexCallSite;
+import com.debughelper.tools.r8.graph.DexCode;
+import com.debughelper.tools.r8.graph.DexCode.TryHandler;
+import com.debughelper.tools.r8.graph.DexCode.TryHandler.TypeAddrPair;
+import com.debughelper.tools.r8.graph.DexDebugInfo;
+import com.debughelper.tools.r8.graph.DexField;
+import com.debughelper.tools.r8.graph.DexMethod;
+import com.debughelper.tools.r8.graph.DexMethodHandle;
+import com.debughelper.tools.r8.graph.DexProgramClass;
+import com.debughelper.tools.r8.graph.DexProto;
+import com.debughelper.tools.r8.graph.DexString;
+import com.debughelper.tools.r8.graph.DexType;
+import com.debughelper.tools.r8.graph.IndexedDexItem;
+import com.debughelper.tools.r8.graph.ObjectToOffsetMapping;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the encoding of code items and debug info items across the dex files of a run.
+ *
+ * <p>When writing a dex file per class, the same bridge, accessor and lambda bodies occur in many
+ * files. Items are looked up by content, i.e., by {@link DexCode#computeHashCode} and {@link
+ * DexCode#computeEquals}. As the encoding refers to other items by their index in the file, it is
+ * kept per assignment of indices to the referenced items, and is reused for all files that assign
+ * the same indices.
+ *
+ * <p>Only encodings of items that occur more than once are kept, and only up to a fixed number per
+ * item and a fixed number of bytes overall, so that the cache does not hold the encoding of every
+ * code item of the application.
+ *
+ * <p>NOTE: thread-safe.
+ */
+public class CodeItemCache {
+
+  // Upper bound on the encodings kept per item, for items that get new indices in every file.
+  private static final int MAX_ENCODINGS_PER_ITEM = 16;
+  // Upper bound on the size of all encodings kept.
+  private static final long MAX_ENCODED_BYTES = 32L << 20;
+
+  private final AtomicLong encodedBytes = new AtomicLong();
+
+  private final Map<DexCode, Entry> codes = new ConcurrentHashMap<>();
+  private final Map<DexDebugInfo, Entry> debugInfos = new ConcurrentHashMap<>();
+
+  /** Encoding of an item for the indices of one file. */
+  public static class Key {
+
+    private final Entry entry;
+    private final IntArrayList indices;
+
+    private Key(Entry entry, IntArrayList indices) {
+      this.entry = entry;
+      this.indices = indices;
+    }
+  }
+
+  private static class Entry {
+
+    private final IndexedDexItem[] references;
+    private final Map<IntArrayList, byte[]> encodings = new ConcurrentHashMap<>();
+    private final AtomicInteger occurrences = new AtomicInteger();
+
+    private Entry(List<IndexedDexItem> references) {
+      this.references = references.toArray(new IndexedDexItem[references.size()]);
+    }
+
+    private Key getKey(ObjectToOffsetMapping mapping) {
+      occurrences.incrementAndGet();
+      int[] indices = new int[references.length];
+      for (int i = 0; i < references.length; i++) {
+        indices[i] = references[i].getOffset(mapping);
+      }
+      return new Key(this, IntArrayList.wrap(indices));
+    }
+  }
+
+  /**
+   * Returns the key of the encoding of the code, excluding its fixed size header, in the file with
+   * the given mapping.
+   */
+  public Key getKey(DexCode code, ObjectToOffsetMapping mapping) {
+    return codes.computeIfAbsent(code, CodeItemCache::createCodeEntry).getKey(mapping);
+  }
+
+  /** Returns the key of the encoding of the debug info in the file with the given mapping. */
+  public Key getKey(DexDebugInfo debugInfo, ObjectToOffsetMapping mapping) {
+    return debugInfos.computeIfAbsent(debugInfo, CodeItemCache::createDebugInfoEntry)
+        .getKey(mapping);
+  }
+
+  /** Returns the encoding for the key, or null if it has not been put yet. */
+  public byte[] get(Key key) {
+    return key.entry.encodings.get(key.indices);
+  }
+
+  /**
+   * Keeps the encoding for the key, if the item has been looked up before and the cache is not
+   * full.
+   */
+  public void put(Key key, byte[] encoding) {
+    Entry entry = key.entry;
+    if (entry.occurrences.get() < 2 || entry.encodings.size() >= MAX_ENCODINGS_PER_ITEM) {
+      return;
+    }
+    if (encodedBytes.addAndGet(encoding.length) > MAX_ENCODED_BYTES) {
+      encodedBytes.addAndGet(-encoding.length);
+      return;
+    }
+    if (entry.encodings.putIfAbsent(key.indices, encoding) != null) {
+      encodedBytes.addAndGet(-encoding.length);
+    }
+  }
+
+  private static Entry createCodeEntry(DexCode code) {
+    List<IndexedDexItem> references = new ArrayList<>();
+    for (Instruction instruction : code.getInstructions()) {
+      // Comparing an instruction to itself visits the items it refers to in the order written.
+      instruction.equals(instruction, (item, other) -> references.add(item));
+    }
+    if (code.handlers != null) {
+      for (TryHandler handler : code.handlers) {
+        for (TypeAddrPair pair : handler.pairs) {
+          references.add(pair.type);
+        }
+      }
+    }
+    return new Entry(references);
+  }
+
+  private static Entry createDebugInfoEntry(DexDebugInfo debugInfo) {
+    ReferenceCollector references = new ReferenceCollector();
+    debugInfo.collectIndexedItems(references);
+    return new Entry(references.items);
+  }
+
+  // Records the items referenced directly. As no item is reported as new, their components are
+  // not visited.
+  private static class ReferenceCollector implements IndexedItemCollection {
+
+    private final List<IndexedDexItem> items = new ArrayList<>();
+
+    private boolean add(IndexedDexItem item) {
+      items.add(item);
+      return false;
+    }
+
+    @Override
+    public boolean addClass(DexProgramClass dexProgramClass) {
+      throw new AssertionError();
+    }
+
+    @Override
+    public boolean addField(DexField field) {
+      return add(field);
+    }
+
+    @Override
+    public boolean addMethod(DexMethod method) {
+      return add(method);
+    }
+
+    @Override
+    public boolean addString(DexString string) {
+      return add(string);
+    }
+
+    @Override
+    public boolean addProto(DexProto proto) {
+      return add(proto);
+    }
+
+    @Override
+    public boolean addType(DexType type) {
+      return add(type);
+    }
+
+    @Override
+    public boolean addCallSite(DexCallSite callSite) {
+      return add(callSite);
+    }
+
+    @Override
+    public boolean addMethodHandle(DexMethodHandle methodHandle) {
+      return add(methodHandle);
+    }
+  }
+}
@@ -0,0 +1,222 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.dex;
+
+import com.debughelper.tools.r8.errors.Unreachable;
+import com.debughelper.tools.r8.utils.ThreadUtils;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+
+/**
+ * Computes the SHA-1 signature and the Adler-32 checksum in the header of a DEX file.
+ *
+ * <p>Both are fed from the same pass over the file, block by block. The checksum covers the
+ * signature, which is accounted for by combining the Adler-32 of the signature with that of the
+ * rest of the file. For large files and a given executor the checksum is instead computed in
+ * chunks on the executor while the signature is computed on the calling thread.
+ *
+ * <p>The signature covers the file from the end of the signature field to the end of the file, as
+ * specified by the DEX format. {@link FileWriter} alone signs a range that stops {@link
+ * #LEGACY_UNSIGNED_TAIL_SIZE} bytes short of the end of the file, as it always has, so that its
+ * output stays identical, see {@link #stampLegacy}.
+ */
+public class DexChecksums {
+
+  public static final int SIGNATURE_SIZE = Constants.FILE_SIZE_OFFSET - Constants.SIGNATURE_OFFSET;
+
+  // Size of the blocks fed to both digests, small enough to stay in the cache in between.
+  private static final int BLOCK_SIZE = 64 * 1024;
+  // Size of the chunks checksummed in parallel, and the smallest file for which this is done.
+  private static final int CHUNK_SIZE = 1024 * 1024;
+  private static final int MIN_SIZE_FOR_PARALLEL_CHECKSUM = 4 * CHUNK_SIZE;
+
+  private static final int ADLER_BASE = 65521;
+
+  // Number of bytes at the end of the file that the legacy signature of FileWriter leaves out.
+  static final int LEGACY_UNSIGNED_TAIL_SIZE =
+      Constants.FIELD_IDS_OFF_OFFSET - Constants.FILE_SIZE_OFFSET;
+
+  private DexChecksums() {}
+
+  /** Recomputes the signature and checksum of the DEX file in the buffer, e.g., after an edit. */
+  public static void stamp(ByteBuffer dex) {
+    stamp(dex, getFileSize(dex));
+  }
+
+  /**
+   * Computes the signature and checksum of the DEX file in the first {@code fileSize} bytes of the
+   * buffer and writes them into its header.
+   */
+  public static void stamp(ByteBuffer dex, int fileSize) {
+    try {
+      stamp(dex, fileSize, null);
+    } catch (ExecutionException e) {
+      throw new AssertionError(e); // Not thrown when computing on the current thread only.
+    }
+  }
+
+  /** Like {@link #stamp(ByteBuffer, int)}, but uses the executor for large files, if not null. */
+  public static void stamp(ByteBuffer dex, int fileSize, ExecutorService executorService)
+      throws ExecutionException {
+    stamp(dex, fileSize, fileSize, executorService);
+  }
+
+  /**
+   * Like {@link #stamp(ByteBuffer, int, ExecutorService)}, but with the signature over the legacy
+   * range of {@link FileWriter}. Not for other writers, the result does not verify on a device.
+   */
+  static void stampLegacy(ByteBuffer dex, int fileSize, ExecutorService executorService)
+      throws ExecutionException {
+    stamp(dex, fileSize, fileSize - LEGACY_UNSIGNED_TAIL_SIZE, executorService);
+  }
+
+  private static void stamp(
+      ByteBuffer dex, int fileSize, int signedEnd, ExecutorService executorService)
+      throws ExecutionException {
+    byte[] signature = new byte[SIGNATURE_SIZE];
+    int checksum = compute(dex, fileSize, signedEnd, signature, executorService);
+    ByteBuffer header = dex.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    header.position(Constants.SIGNATURE_OFFSET);
+    header.put(signature);
+    header.putInt(Constants.CHECKSUM_OFFSET, checksum);
+  }
+
+  /** Returns true if the signature and checksum in the header match the content of the file. */
+  public static boolean hasValidChecksums(ByteBuffer dex) {
+    int fileSize = getFileSize(dex);
+    if (fileSize < Constants.TYPE_HEADER_ITEM_SIZE || fileSize > dex.limit()) {
+      return false;
+    }
+    byte[] signature = new byte[SIGNATURE_SIZE];
+    int checksum;
+    try {
+      checksum = compute(dex, fileSize, fileSize, signature, null);
+    } catch (ExecutionException e) {
+      throw new AssertionError(e);
+    }
+    ByteBuffer header = dex.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < SIGNATURE_SIZE; i++) {
+      if (header.get(Constants.SIGNATURE_OFFSET + i) != signature[i]) {
+        return false;
+      }
+    }
+    return header.getInt(Constants.CHECKSUM_OFFSET) == checksum;
+  }
+
+  private static int getFileSize(ByteBuffer dex) {
+    return dex.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(Constants.FILE_SIZE_OFFSET);
+  }
+
+  // Computes the signature of the bytes from the end of the signature field to signedEnd into the
+  // given array and returns the checksum of the file with that signature.
+  private static int compute(
+      ByteBuffer dex,
+      int fileSize,
+      int signedEnd,
+      byte[] signature,
+      ExecutorService executorService)
+      throws ExecutionException {
+    assert fileSize >= Constants.TYPE_HEADER_ITEM_SIZE && fileSize <= dex.limit();
+    assert signedEnd <= fileSize;
+    MessageDigest md = newSha1Digest();
+    int tailSize = fileSize - Constants.FILE_SIZE_OFFSET;
+    int tailChecksum;
+    if (executorService != null && fileSize >= MIN_SIZE_FOR_PARALLEL_CHECKSUM) {
+      List<Future<Integer>> chunks = new ArrayList<>();
+      for (int offset = Constants.FILE_SIZE_OFFSET; offset < fileSize; offset += CHUNK_SIZE) {
+        ByteBuffer chunk = range(dex, offset, Math.min(offset + CHUNK_SIZE, fileSize));
+        chunks.add(executorService.submit(() -> adler32(chunk)));
+      }
+      try {
+        md.update(range(dex, Constants.FILE_SIZE_OFFSET, signedEnd));
+      } finally {
+        ThreadUtils.awaitFutures(chunks);
+      }
+      tailChecksum = 1;
+      int remaining = tailSize;
+      for (Future<Integer> chunk : chunks) {
+        int chunkSize = Math.min(CHUNK_SIZE, remaining);
+        try {
+          tailChecksum = combineAdler32(tailChecksum, chunk.get(), chunkSize);
+        } catch (InterruptedException e) {
+          throw new RuntimeException("Interrupted while waiting for future.", e);
+        }
+        remaining -= chunkSize;
+      }
+    } else {
+      Adler32 adler = new Adler32();
+      for (int offset = Constants.FILE_SIZE_OFFSET; offset < fileSize; offset += BLOCK_SIZE) {
+        int end = Math.min(offset + BLOCK_SIZE, fileSize);
+        if (offset < signedEnd) {
+          md.update(range(dex, offset, Math.min(end, signedEnd)));
+        }
+        adler.update(range(dex, offset, end));
+      }
+      tailChecksum = (int) adler.getValue();
+    }
+    try {
+      md.digest(signature, 0, SIGNATURE_SIZE);
+    } catch (DigestException e) {
+      throw new Unreachable("Cannot compute SHA-1 digest");
+    }
+    Adler32 adler = new Adler32();
+    adler.update(signature);
+    return combineAdler32((int) adler.getValue(), tailChecksum, tailSize);
+  }
+
+  /**
+   * Returns the Adler-32 of the concatenation of two byte sequences, given the Adler-32 of each
+   * and the length of the second.
+   */
+  public static int combineAdler32(int first, int second, long secondLength) {
+    long remainder = secondLength % ADLER_BASE;
+    long sum1 = first & 0xffff;
+    long sum2 = (remainder * sum1) % ADLER_BASE;
+    sum1 += (second & 0xffff) + ADLER_BASE - 1;
+    sum2 += ((first >>> 16) & 0xffff) + ((second >>> 16) & 0xffff) + ADLER_BASE - remainder;
+    if (sum1 >= ADLER_BASE) {
+      sum1 -= ADLER_BASE;
+    }
+    if (sum1 >= ADLER_BASE) {
+      sum1 -= ADLER_BASE;
+    }
+    if (sum2 >= ((long) ADLER_BASE << 1)) {
+      sum2 -= ((long) ADLER_BASE << 1);
+    }
+    if (sum2 >= ADLER_BASE) {
+      sum2 -= ADLER_BASE;
+    }
+    return (int) (sum1 | (sum2 << 16));
+  }
+
+  private static int adler32(ByteBuffer bytes) {
+    Adler32 adler = new Adler32();
+    adler.update(bytes);
+    return (int) adler.getValue();
+  }
+
+  private static ByteBuffer range(ByteBuffer dex, int start, int end) {
+    ByteBuffer range = dex.duplicate();
+    range.limit(end);
+    range.position(start);
+    return range;
+  }
+
+  private static MessageDigest newSha1Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new Unreachable("Cannot get SHA-1 message digest");
+    }
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.dex;
+
+import com.debughelper.tools.r8.ResourceException;
+import com.debughelper.tools.r8.StringResource;
+import com.debughelper.tools.r8.errors.CompilationError;
+import com.debughelper.tools.r8.graph.DexItemFactory;
+import com.debughelper.tools.r8.graph.DexProgramClass;
+import com.debughelper.tools.r8.graph.DexType;
+import com.debughelper.tools.r8.position.TextPosition;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Assignment of program classes to the dex files of a build.
+ *
+ * <p>The assignment is persisted as text, with one line per class holding the index of its dex
+ * file and its descriptor, separated by a space. It is read back by the next build, see {@link
+ * VirtualFile.StickyFilesDistributor}.
+ */
+public class DexDistribution {
+
+  private static final int NOT_ASSIGNED = -1;
+
+  private final Reference2IntMap<DexType> fileIndices;
+
+  private DexDistribution(Reference2IntMap<DexType> fileIndices) {
+    this.fileIndices = fileIndices;
+    fileIndices.defaultReturnValue(NOT_ASSIGNED);
+  }
+
+  /** Returns the index of the dex file of the class, or -1 if it was not in the previous build. */
+  public int getFileIndex(DexType type) {
+    return fileIndices.getInt(type);
+  }
+
+  public boolean isEmpty() {
+    return fileIndices.isEmpty();
+  }
+
+  public static DexDistribution parse(StringResource resource, DexItemFactory itemFactory) {
+    String lines;
+    try {
+      lines = resource.getString();
+    } catch (ResourceException e) {
+      throw new CompilationError(
+          "Failed to read dex distribution resource", e, resource.getOrigin());
+    }
+    Reference2IntMap<DexType> fileIndices = new Reference2IntOpenHashMap<>();
+    int lineNumber = 0;
+    for (int offset = 0; offset < lines.length(); ) {
+      ++lineNumber;
+      int newLineIndex = lines.indexOf('\n', offset);
+      int lineEnd = newLineIndex == -1 ? lines.length() : newLineIndex;
+      String line = lines.substring(offset, lineEnd).trim();
+      if (!line.isEmpty()) {
+        int separator = line.indexOf(' ');
+        int index = NOT_ASSIGNED;
+        if (separator > 0) {
+          try {
+            index = Integer.parseInt(line.substring(0, separator));
+          } catch (NumberFormatException e) {
+            // Reported below.
+          }
+        }
+        String descriptor = separator > 0 ? line.substring(separator + 1) : "";
+        if (index < 0 || !descriptor.startsWith("L") || !descriptor.endsWith(";")) {
+          throw new CompilationError(
+              "Illegal dex distribution entry '" + line + "'.",
+              null,
+              resource.getOrigin(),
+              new TextPosition(offset, lineNumber, TextPosition.UNKNOWN_COLUMN));
+        }
+        // The items are already sorted for writing, so only types of the application are looked up.
+        // A class that is not in the application has no type and is irrelevant.
+        DexType type = itemFactory.lookupType(descriptor);
+        if (type != null) {
+          fileIndices.put(type, index);
+        }
+      }
+      offset = lineEnd + 1;
+    }
+    return new DexDistribution(fileIndices);
+  }
+
+  /** Returns the assignment of the classes in the given files in the persisted format. */
+  public static String toString(Collection<VirtualFile> files) {
+    StringBuilder builder = new StringBuilder();
+    for (VirtualFile file : files) {
+      List<String> descriptors = new ArrayList<>(file.classes().size());
+      for (DexProgramClass clazz : file.classes()) {
+        descriptors.add(clazz.type.toDescriptorString());
+      }
+      descriptors.sort(String::compareTo);
+      for (String descriptor : descriptors) {
+        builder.append(file.getId()).append(' ').append(descriptor).append('\n');
+      }
+    }
+    return builder.toString();
+  }
+}
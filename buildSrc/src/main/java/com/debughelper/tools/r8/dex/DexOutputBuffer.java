@@ -3,8 +3,11 @@
 // BSD-style license that can be found in the LICENSE file.
 package com.debughelper.tools.r8.dex;
 
+import com.debughelper.tools.r8.ByteBufferProvider;
 import com.debughelper.tools.r8.code.Instruction;
+import com.debughelper.tools.r8.code.RawInstructions;
 import com.debughelper.tools.r8.graph.ObjectToOffsetMapping;
+import com.debughelper.tools.r8.utils.ByteBufferPool;
 import com.debughelper.tools.r8.utils.EncodedValueUtils;
 import com.debughelper.tools.r8.utils.LebUtils;
 
@@ -19,24 +22,38 @@ import java.nio.ShortBuffer;
 public class DexOutputBuffer {
   private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
 
+  private final ByteBufferProvider byteBufferProvider;
   private ByteBuffer byteBuffer;
 
   public DexOutputBuffer() {
-    byteBuffer = allocate(DEFAULT_BUFFER_SIZE);
+    this(ByteBufferPool.getShared(), DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param byteBufferProvider provider of the underlying buffers
+   * @param initialSize expected size of the output, the buffer only grows if it is exceeded
+   */
+  public DexOutputBuffer(ByteBufferProvider byteBufferProvider, int initialSize) {
+    this.byteBufferProvider = byteBufferProvider;
+    byteBuffer = allocate(initialSize);
   }
 
   private void ensureSpaceFor(int bytes) {
     if (byteBuffer.remaining() < bytes) {
       int newSize = byteBuffer.capacity() + Math.max(byteBuffer.capacity(), bytes * 2);
       ByteBuffer newBuffer = allocate(newSize);
-      System.arraycopy(byteBuffer.array(), 0, newBuffer.array(), 0, byteBuffer.position());
-      newBuffer.position(byteBuffer.position());
+      ByteBuffer content = byteBuffer.duplicate();
+      content.flip();
+      newBuffer.put(content);
+      byteBufferProvider.releaseByteBuffer(byteBuffer);
       byteBuffer = newBuffer;
     }
   }
 
   private ByteBuffer allocate(int size) {
-    ByteBuffer buffer = ByteBuffer.allocate(size);
+    ByteBuffer buffer = byteBufferProvider.acquireByteBuffer(size);
+    assert buffer.capacity() >= size;
+    buffer.clear();
     buffer.order(ByteOrder.LITTLE_ENDIAN);
     return buffer;
   }
@@ -71,6 +88,14 @@ public class DexOutputBuffer {
     byteBuffer.position(byteBuffer.position() + shortBuffer.position() * Short.BYTES);
   }
 
+  public void putInstructions(RawInstructions insns, ObjectToOffsetMapping mapping) {
+    ensureSpaceFor(insns.size() * Short.BYTES);
+    assert byteBuffer.position() % 2 == 0;
+    ShortBuffer shortBuffer = byteBuffer.asShortBuffer();
+    insns.write(shortBuffer, mapping);
+    byteBuffer.position(byteBuffer.position() + shortBuffer.position() * Short.BYTES);
+  }
+
   public void putByte(byte aByte) {
     ensureSpaceFor(Byte.BYTES);
     byteBuffer.put(aByte);
@@ -81,6 +106,11 @@ public class DexOutputBuffer {
     byteBuffer.put(bytes);
   }
 
+  public void putBytes(ByteBuffer bytes) {
+    ensureSpaceFor(bytes.remaining());
+    byteBuffer.put(bytes);
+  }
+
   public void putShort(short aShort) {
     ensureSpaceFor(Short.BYTES);
     byteBuffer.putShort(aShort);
@@ -128,7 +158,22 @@ public class DexOutputBuffer {
     return position() % bytes == 0;
   }
 
-  public byte[] asArray() {
-    return byteBuffer.array();
+  /**
+   * Returns a view of the bytes in [offset; offset + length[, which shares the content of this
+   * buffer. The view is only valid until this buffer is written to or released.
+   */
+  public ByteBuffer view(int offset, int length) {
+    ByteBuffer view = byteBuffer.duplicate();
+    view.limit(offset + length);
+    view.position(offset);
+    return view.slice();
+  }
+
+  /** Returns the underlying buffer to the provider it was acquired from. */
+  public void release() {
+    if (byteBuffer != null) {
+      byteBufferProvider.releaseByteBuffer(byteBuffer);
+      byteBuffer = null;
+    }
   }
 }
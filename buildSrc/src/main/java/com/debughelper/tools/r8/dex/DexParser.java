@@ -28,6 +28,7 @@ import com.debughelper.tools.r8.DiagnosticsHandler;
 import com.debughelper.tools.r8.ProgramResource;
 import com.debughelper.tools.r8.code.Instruction;
 import com.debughelper.tools.r8.code.InstructionFactory;
+import com.debughelper.tools.r8.code.RawInstructions;
 import com.debughelper.tools.r8.errors.CompilationError;
 import com.debughelper.tools.r8.graph.ClassAccessFlags;
 import com.debughelper.tools.r8.graph.ClassKind;
@@ -89,6 +90,8 @@ public class DexParser {
   private int[] stringIDs;
   private final com.debughelper.tools.r8.graph.ClassKind classKind;
   private final com.debughelper.tools.r8.DiagnosticsHandler reporter;
+  private final boolean skipCodes;
+  private final boolean keepRawInstructions;
 
   public static DexSection[] parseMapFrom(Path file) throws IOException {
     return parseMapFrom(Files.newInputStream(file), new PathOrigin(file));
@@ -127,6 +130,33 @@ public class DexParser {
 
   public DexParser(DexReader dexReader,
                    com.debughelper.tools.r8.graph.ClassKind classKind, com.debughelper.tools.r8.graph.DexItemFactory dexItemFactory, DiagnosticsHandler reporter) {
+    this(dexReader, classKind, dexItemFactory, reporter, false);
+  }
+
+  /**
+   * @param skipCodes if true, no code items are parsed and all methods are read without code
+   */
+  public DexParser(
+      DexReader dexReader,
+      ClassKind classKind,
+      DexItemFactory dexItemFactory,
+      DiagnosticsHandler reporter,
+      boolean skipCodes) {
+    this(dexReader, classKind, dexItemFactory, reporter, skipCodes, false);
+  }
+
+  /**
+   * @param skipCodes if true, no code items are parsed and all methods are read without code
+   * @param keepRawInstructions if true, the instructions of code items are not decoded until they
+   *     are requested, see {@link RawInstructions}
+   */
+  public DexParser(
+      DexReader dexReader,
+      ClassKind classKind,
+      DexItemFactory dexItemFactory,
+      DiagnosticsHandler reporter,
+      boolean skipCodes,
+      boolean keepRawInstructions) {
     assert dexReader.getOrigin() != null;
     this.origin = dexReader.getOrigin();
     this.dexReader = dexReader;
@@ -136,6 +166,8 @@ public class DexParser {
     parseStringIDs();
     this.classKind = classKind;
     this.reporter = reporter;
+    this.skipCodes = skipCodes;
+    this.keepRawInstructions = keepRawInstructions;
   }
 
   private void ensureCodesInited() {
@@ -143,8 +175,8 @@ public class DexParser {
       codes = new Int2ObjectOpenHashMap<>();
     }
 
-    if (classKind == com.debughelper.tools.r8.graph.ClassKind.LIBRARY) {
-      // Ignore contents of library files.
+    if (classKind == com.debughelper.tools.r8.graph.ClassKind.LIBRARY || skipCodes) {
+      // Ignore contents of library files, and all code when skipping codes.
       return;
     }
     DexSection dexSection = lookupSection(Constants.TYPE_CODE_ITEM);
@@ -678,13 +710,13 @@ public class DexParser {
                 directMethodsSize,
                 annotationsDirectory.methods,
                 annotationsDirectory.parameters,
-                classKind != com.debughelper.tools.r8.graph.ClassKind.PROGRAM);
+                classKind != com.debughelper.tools.r8.graph.ClassKind.PROGRAM || skipCodes);
         virtualMethods =
             readMethods(
                 virtualMethodsSize,
                 annotationsDirectory.methods,
                 annotationsDirectory.parameters,
-                classKind != ClassKind.PROGRAM);
+                classKind != ClassKind.PROGRAM || skipCodes);
       }
 
       AttributesAndAnnotations attrs =
@@ -824,6 +856,13 @@ public class DexParser {
     int saved = dexReader.position();
     DexDebugInfo debugInfo = debugInfoAt(debugInfoOff);
     dexReader.position(saved);
+    if (keepRawInstructions) {
+      RawInstructions rawInstructions = RawInstructions.read(code, indexedItems);
+      if (rawInstructions != null) {
+        return new com.debughelper.tools.r8.graph.DexCode(
+            registerSize, insSize, outsSize, rawInstructions, tries, handlers, debugInfo);
+      }
+    }
     com.debughelper.tools.r8.code.InstructionFactory factory = new InstructionFactory();
     Instruction[] instructions =
         factory.readSequenceFrom(ShortBuffer.wrap(code), 0, code.length, indexedItems);
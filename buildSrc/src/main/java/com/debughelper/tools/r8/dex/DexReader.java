@@ -38,6 +38,16 @@ public class DexReader extends BinaryReader {
     version = parseMagic(buffer);
   }
 
+  /**
+   * Reads dex content from a buffer without copying it, e.g., a dex file embedded in a vdex file.
+   *
+   * @param buffer contents of the dex file, starting at position 0
+   */
+  public DexReader(Origin origin, ByteBuffer buffer) {
+    super(origin, buffer);
+    version = parseMagic(buffer);
+  }
+
   // Parse the magic header and determine the dex file version.
   private int parseMagic(ByteBuffer buffer) {
     try {
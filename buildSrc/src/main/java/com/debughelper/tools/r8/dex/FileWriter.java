@@ -19,7 +19,9 @@ import com.debughelper.tools.r8.naming.MemberNaming.MethodSignature;
 import com.debughelper.tools.r8.naming.MemberNaming.Signature;
 import com.debughelper.tools.r8.utils.LebUtils;
 import com.debughelper.tools.r8.ApiLevelException;
+import com.debughelper.tools.r8.ByteBufferProvider;
 import com.debughelper.tools.r8.code.Instruction;
+import com.debughelper.tools.r8.code.RawInstructions;
 import com.debughelper.tools.r8.errors.CompilationError;
 import com.debughelper.tools.r8.graph.Descriptor;
 import com.debughelper.tools.r8.graph.DexAnnotation;
@@ -54,14 +56,16 @@ import com.debughelper.tools.r8.naming.ClassNameMapper;
 import com.debughelper.tools.r8.naming.MemberNaming;
 import com.debughelper.tools.r8.naming.NamingLens;
 import com.debughelper.tools.r8.utils.AndroidApiLevel;
+import com.debughelper.tools.r8.utils.ByteBufferPool;
 import com.debughelper.tools.r8.utils.DexVersion;
 import com.debughelper.tools.r8.utils.InternalOptions;
+import com.debughelper.tools.r8.utils.ThreadUtils;
 import com.google.common.collect.Sets;
 import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Reference2IntLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Reference2IntMap;
-import java.security.MessageDigest;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -71,17 +75,27 @@ import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.ToIntFunction;
-import java.util.zip.Adler32;
 
 public class FileWriter {
 
+  // Below this number of code items, writing sections in parallel does not pay off.
+  private static final int MIN_CODES_FOR_PARALLEL_WRITE = 1000;
+
   private final com.debughelper.tools.r8.graph.ObjectToOffsetMapping mapping;
   private final com.debughelper.tools.r8.graph.DexApplication application;
   private final com.debughelper.tools.r8.utils.InternalOptions options;
   private final com.debughelper.tools.r8.naming.NamingLens namingLens;
-  private final com.debughelper.tools.r8.dex.DexOutputBuffer dest = new com.debughelper.tools.r8.dex.DexOutputBuffer();
+  private final ByteBufferProvider byteBufferProvider;
+  // Encodings of code and debug info items shared with the other files of the run, if any.
+  private final CodeItemCache codeItemCache;
+  // Allocated once the size of the output can be estimated.
+  private DexOutputBuffer dest;
   private final MixedSectionOffsets mixedSectionOffsets;
 
   public FileWriter(
@@ -89,6 +103,27 @@ public class FileWriter {
       com.debughelper.tools.r8.graph.DexApplication application,
       com.debughelper.tools.r8.utils.InternalOptions options,
       NamingLens namingLens) {
+    this(mapping, application, options, namingLens, ByteBufferPool.getShared());
+  }
+
+  public FileWriter(
+      ObjectToOffsetMapping mapping,
+      DexApplication application,
+      InternalOptions options,
+      NamingLens namingLens,
+      ByteBufferProvider byteBufferProvider) {
+    this(mapping, application, options, namingLens, byteBufferProvider, null);
+  }
+
+  public FileWriter(
+      ObjectToOffsetMapping mapping,
+      DexApplication application,
+      InternalOptions options,
+      NamingLens namingLens,
+      ByteBufferProvider byteBufferProvider,
+      CodeItemCache codeItemCache) {
+    this.byteBufferProvider = byteBufferProvider;
+    this.codeItemCache = codeItemCache;
     this.mapping = mapping;
     this.application = application;
     this.options = options;
@@ -140,6 +175,31 @@ public class FileWriter {
   }
 
   public byte[] generate() {
+    ByteBuffer result = generateBuffer();
+    byte[] bytes = new byte[result.remaining()];
+    result.get(bytes);
+    release();
+    return bytes;
+  }
+
+  /**
+   * Generates the dex file into a buffer from the {@link ByteBufferProvider} of this writer.
+   *
+   * <p>The returned buffer contains exactly the dex file and is valid until {@link #release}.
+   */
+  public ByteBuffer generateBuffer() {
+    try {
+      return generateBuffer(null);
+    } catch (ExecutionException e) {
+      throw new AssertionError(e); // Not thrown when writing on the current thread only.
+    }
+  }
+
+  /**
+   * Like {@link #generateBuffer()}, but writes independent sections of large files in parallel
+   * using the given executor, if not null. Must not be called from a task on the same executor.
+   */
+  public ByteBuffer generateBuffer(ExecutorService executorService) throws ExecutionException {
     // Check restrictions on interface methods.
     checkInterfaceMethods();
 
@@ -149,8 +209,109 @@ public class FileWriter {
     // Sort the codes first, as their order might impact size due to alignment constraints.
     List<com.debughelper.tools.r8.graph.DexCode> codes = sortDexCodesByClassName(mixedSectionOffsets.getCodes(), application);
 
+    int codesSize = sizeOfCodeItems(codes);
+    dest =
+        new DexOutputBuffer(
+            byteBufferProvider, estimateFileSize(layout.dataSectionOffset + codesSize));
+
+    if (executorService != null && codes.size() >= MIN_CODES_FOR_PARALLEL_WRITE) {
+      writeMixedSectionsInParallel(layout, codes, codesSize, executorService);
+    } else {
+      writeMixedSections(layout, codes, codesSize);
+    }
+
+    // Add the map at the end
+    layout.setMapOffset(dest.align(4));
+    writeMap(layout);
+    layout.setEndOfFile(dest.position());
+
+    // Now that we have all mixedSectionOffsets, lets write the indexed items.
+    dest.moveTo(com.debughelper.tools.r8.dex.Constants.TYPE_HEADER_ITEM_SIZE);
+    writeFixedSectionItems(mapping.getStrings(), layout.stringIdsOffset, this::writeStringItem);
+    writeFixedSectionItems(mapping.getTypes(), layout.typeIdsOffset, this::writeTypeItem);
+    writeFixedSectionItems(mapping.getProtos(), layout.protoIdsOffset, this::writeProtoItem);
+    writeFixedSectionItems(mapping.getFields(), layout.fieldIdsOffset, this::writeFieldItem);
+    writeFixedSectionItems(mapping.getMethods(), layout.methodIdsOffset, this::writeMethodItem);
+    writeFixedSectionItems(mapping.getClasses(), layout.classDefsOffset, this::writeClassDefItem);
+    writeFixedSectionItems(mapping.getCallSites(), layout.callSiteIdsOffset, this::writeCallSite);
+    writeFixedSectionItems(
+        mapping.getMethodHandles(), layout.methodHandleIdsOffset, this::writeMethodHandle);
+
+    // Fill in the header information.
+    writeHeader(layout);
+    DexChecksums.stampLegacy(
+        dest.view(0, layout.getEndOfFile()), layout.getEndOfFile(), executorService);
+
+    return dest.view(0, layout.getEndOfFile());
+  }
+
+  private void writeMixedSections(Layout layout, List<DexCode> codes, int codesSize) {
+    writeDebugInfosAndCodes(layout, codes, codesSize);
+
+    // Now the type lists and rest.
+    writeItems(mixedSectionOffsets.getTypeLists(), layout::alreadySetOffset,
+        list -> writeTypeList(dest, list));
+    writeItems(mixedSectionOffsets.getStringData(), layout::setStringDataOffsets,
+        string -> writeStringData(dest, string));
+    writeItems(mixedSectionOffsets.getAnnotations(), layout::setAnnotationsOffset,
+        annotation -> writeAnnotation(dest, annotation));
+    writeItems(mixedSectionOffsets.getClassesWithData(), layout::setClassDataOffset,
+        this::writeClassData);
+    writeItems(mixedSectionOffsets.getEncodedArrays(), layout::setEncodedArrarysOffset,
+        array -> writeEncodedArray(dest, array));
+    writeRemainingMixedSections(layout);
+  }
+
+  private void writeMixedSectionsInParallel(
+      Layout layout, List<DexCode> codes, int codesSize, ExecutorService executorService)
+      throws ExecutionException {
+    // The content of these sections does not refer to offsets of other items, so they can be
+    // written to separate buffers while this thread writes the debug infos and code items. Once
+    // the size of the preceding sections is known they are copied into place and the offsets of
+    // their items are relocated.
+    Future<DexOutputBuffer> typeLists =
+        executorService.submit(
+            () -> writeSection(mixedSectionOffsets.getTypeLists(), this::writeTypeList));
+    Future<DexOutputBuffer> stringData =
+        executorService.submit(
+            () -> writeSection(mixedSectionOffsets.getStringData(), this::writeStringData));
+    Future<DexOutputBuffer> annotations =
+        executorService.submit(
+            () -> writeSection(mixedSectionOffsets.getAnnotations(), this::writeAnnotation));
+    Future<DexOutputBuffer> encodedArrays =
+        executorService.submit(
+            () -> writeSection(mixedSectionOffsets.getEncodedArrays(), this::writeEncodedArray));
+    List<Future<DexOutputBuffer>> sections =
+        Arrays.asList(typeLists, stringData, annotations, encodedArrays);
+    try {
+      writeDebugInfosAndCodes(layout, codes, codesSize);
+    } finally {
+      ThreadUtils.awaitFutures(sections);
+    }
+
+    // Type lists are 4-byte aligned, and so is the start of their section.
+    assert dest.isAligned(4);
+    mixedSectionOffsets.relocateTypeLists(
+        appendSection(typeLists, mixedSectionOffsets.getTypeLists(), layout::alreadySetOffset));
+    mixedSectionOffsets.relocateStringData(
+        appendSection(
+            stringData, mixedSectionOffsets.getStringData(), layout::setStringDataOffsets));
+    mixedSectionOffsets.relocateAnnotations(
+        appendSection(
+            annotations, mixedSectionOffsets.getAnnotations(), layout::setAnnotationsOffset));
+    writeItems(mixedSectionOffsets.getClassesWithData(), layout::setClassDataOffset,
+        this::writeClassData);
+    mixedSectionOffsets.relocateEncodedArrays(
+        appendSection(
+            encodedArrays,
+            mixedSectionOffsets.getEncodedArrays(),
+            layout::setEncodedArrarysOffset));
+    writeRemainingMixedSections(layout);
+  }
+
+  private void writeDebugInfosAndCodes(Layout layout, List<DexCode> codes, int codesSize) {
     // Output the debug_info_items first, as they have no dependencies.
-    dest.moveTo(layout.getCodesOffset() + sizeOfCodeItems(codes));
+    dest.moveTo(layout.getCodesOffset() + codesSize);
     writeItems(mixedSectionOffsets.getDebugInfos(), layout::setDebugInfosOffset,
         this::writeDebugItem);
 
@@ -163,48 +324,87 @@ public class FileWriter {
     writeItems(codes, layout::alreadySetOffset, this::writeCodeItem, 4);
     assert layout.getDebugInfosOffset() == 0 || dest.position() == layout.getDebugInfosOffset();
 
-    // Now the type lists and rest.
     dest.moveTo(layout.getTypeListsOffset());
-    writeItems(mixedSectionOffsets.getTypeLists(), layout::alreadySetOffset, this::writeTypeList);
-    writeItems(mixedSectionOffsets.getStringData(), layout::setStringDataOffsets,
-        this::writeStringData);
-    writeItems(mixedSectionOffsets.getAnnotations(), layout::setAnnotationsOffset,
-        this::writeAnnotation);
-    writeItems(mixedSectionOffsets.getClassesWithData(), layout::setClassDataOffset,
-        this::writeClassData);
-    writeItems(mixedSectionOffsets.getEncodedArrays(), layout::setEncodedArrarysOffset,
-        this::writeEncodedArray);
+  }
+
+  private void writeRemainingMixedSections(Layout layout) {
     writeItems(mixedSectionOffsets.getAnnotationSets(), layout::setAnnotationSetsOffset,
         this::writeAnnotationSet, 4);
     writeItems(mixedSectionOffsets.getAnnotationSetRefLists(),
         layout::setAnnotationSetRefListsOffset, this::writeAnnotationSetRefList, 4);
     writeItems(mixedSectionOffsets.getAnnotationDirectories(),
         layout::setAnnotationDirectoriesOffset, this::writeAnnotationDirectory, 4);
+  }
 
-    // Add the map at the end
-    layout.setMapOffset(dest.align(4));
-    writeMap(layout);
-    layout.setEndOfFile(dest.position());
+  // Writes the items to a new buffer, offsets of the items are relative to the start of it.
+  private <T> DexOutputBuffer writeSection(
+      Collection<T> items, BiConsumer<DexOutputBuffer, T> writer) {
+    DexOutputBuffer section = new DexOutputBuffer();
+    for (T item : items) {
+      writer.accept(section, item);
+    }
+    return section;
+  }
 
-    // Now that we have all mixedSectionOffsets, lets write the indexed items.
-    dest.moveTo(com.debughelper.tools.r8.dex.Constants.TYPE_HEADER_ITEM_SIZE);
-    writeFixedSectionItems(mapping.getStrings(), layout.stringIdsOffset, this::writeStringItem);
-    writeFixedSectionItems(mapping.getTypes(), layout.typeIdsOffset, this::writeTypeItem);
-    writeFixedSectionItems(mapping.getProtos(), layout.protoIdsOffset, this::writeProtoItem);
-    writeFixedSectionItems(mapping.getFields(), layout.fieldIdsOffset, this::writeFieldItem);
-    writeFixedSectionItems(mapping.getMethods(), layout.methodIdsOffset, this::writeMethodItem);
-    writeFixedSectionItems(mapping.getClasses(), layout.classDefsOffset, this::writeClassDefItem);
-    writeFixedSectionItems(mapping.getCallSites(), layout.callSiteIdsOffset, this::writeCallSite);
-    writeFixedSectionItems(
-        mapping.getMethodHandles(), layout.methodHandleIdsOffset, this::writeMethodHandle);
+  // Appends a section written by writeSection at the current position and returns its offset.
+  private int appendSection(
+      Future<DexOutputBuffer> future, Collection<?> items, Consumer<Integer> offsetSetter) {
+    DexOutputBuffer section;
+    try {
+      section = future.get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException("Section should have been written.", e);
+    }
+    int offset = dest.position();
+    offsetSetter.accept(items.isEmpty() ? 0 : offset);
+    dest.putBytes(section.view(0, section.position()));
+    section.release();
+    return offset;
+  }
 
-    // Fill in the header information.
-    writeHeader(layout);
-    writeSignature(layout);
-    writeChecksum(layout);
+  /** Returns the buffer used by {@link #generateBuffer} to its provider. */
+  public void release() {
+    if (dest != null) {
+      dest.release();
+    }
+  }
 
-    // Turn into an array
-    return Arrays.copyOf(dest.asArray(), layout.getEndOfFile());
+  // Estimates the size of the dex file given the exact size of the id sections and code items.
+  // The size of string data and type lists is exact as well, the remaining sections are estimated
+  // generously from their item counts.
+  private int estimateFileSize(int fixedSectionsAndCodesSize) {
+    long size = fixedSectionsAndCodesSize;
+    for (DexString string : mixedSectionOffsets.getStringData()) {
+      size += LebUtils.sizeAsUleb128(string.size) + string.content.length;
+    }
+    for (DexTypeList list : mixedSectionOffsets.getTypeLists()) {
+      size += alignSize(4, 4 + list.values.length * 2);
+    }
+    for (DexDebugInfo debugInfo : mixedSectionOffsets.getDebugInfos()) {
+      size += 8 + debugInfo.parameters.length * 3 + debugInfo.events.length * 2;
+    }
+    for (DexProgramClass clazz : mixedSectionOffsets.getClassesWithData()) {
+      size += 16 + (clazz.staticFields().length + clazz.instanceFields().length) * 6
+          + (clazz.directMethods().length + clazz.virtualMethods().length) * 10;
+    }
+    for (DexEncodedArray array : mixedSectionOffsets.getEncodedArrays()) {
+      size += 4 + array.values.length * 6;
+    }
+    for (DexAnnotationSet set : mixedSectionOffsets.getAnnotationSets()) {
+      size += 4 + set.annotations.length * 4;
+    }
+    for (ParameterAnnotationsList list : mixedSectionOffsets.getAnnotationSetRefLists()) {
+      size += 4 + list.size() * 4;
+    }
+    for (DexAnnotationDirectory directory : mixedSectionOffsets.getAnnotationDirectories()) {
+      size += 16 + (directory.getFieldAnnotations().size()
+          + directory.getMethodAnnotations().size()
+          + directory.getParameterAnnotations().size()) * 8;
+    }
+    size += mixedSectionOffsets.getAnnotations().size() * 24;
+    // The map has at most one entry per item type.
+    size += 4 + 20 * Constants.TYPE_MAP_LIST_ITEM_SIZE;
+    return (int) Math.min(size, Integer.MAX_VALUE);
   }
 
   private void checkInterfaceMethods() {
@@ -342,8 +542,13 @@ public class FileWriter {
   private int sizeOfCodeItem(com.debughelper.tools.r8.graph.DexCode code) {
     int result = 16;
     int insnSize = 0;
-    for (Instruction insn : code.instructions) {
-      insnSize += insn.getSize();
+    RawInstructions rawInstructions = code.getRawInstructions();
+    if (rawInstructions != null) {
+      insnSize = rawInstructions.size();
+    } else {
+      for (Instruction insn : code.getInstructions()) {
+        insnSize += insn.getSize();
+      }
     }
     result += insnSize * 2;
     result += code.tries.length * 8;
@@ -422,7 +627,17 @@ public class FileWriter {
 
   private void writeDebugItem(com.debughelper.tools.r8.graph.DexDebugInfo debugInfo) {
     mixedSectionOffsets.setOffsetFor(debugInfo, dest.position());
-    dest.putBytes(new DebugBytecodeWriter(debugInfo, mapping).generate());
+    if (codeItemCache == null) {
+      dest.putBytes(new DebugBytecodeWriter(debugInfo, mapping).generate());
+      return;
+    }
+    CodeItemCache.Key key = codeItemCache.getKey(debugInfo, mapping);
+    byte[] encoding = codeItemCache.get(key);
+    if (encoding == null) {
+      encoding = new DebugBytecodeWriter(debugInfo, mapping).generate();
+      codeItemCache.put(key, encoding);
+    }
+    dest.putBytes(encoding);
   }
 
   private void writeCodeItem(com.debughelper.tools.r8.graph.DexCode code) {
@@ -433,11 +648,36 @@ public class FileWriter {
     dest.putShort((short) code.outgoingRegisterSize);
     dest.putShort((short) code.tries.length);
     dest.putInt(mixedSectionOffsets.getOffsetFor(code.getDebugInfo()));
+    if (codeItemCache == null) {
+      writeCodeItemBody(code);
+      return;
+    }
+    // The rest of the item does not depend on its position, as the item is aligned.
+    CodeItemCache.Key key = codeItemCache.getKey(code, mapping);
+    byte[] encoding = codeItemCache.get(key);
+    if (encoding != null) {
+      dest.putBytes(encoding);
+    } else {
+      int start = dest.position();
+      writeCodeItemBody(code);
+      ByteBuffer body = dest.view(start, dest.position() - start);
+      encoding = new byte[body.remaining()];
+      body.get(encoding);
+      codeItemCache.put(key, encoding);
+    }
+  }
+
+  private void writeCodeItemBody(com.debughelper.tools.r8.graph.DexCode code) {
     // Jump over the size.
     int insnSizeOffset = dest.position();
     dest.forward(4);
     // Write instruction stream.
-    dest.putInstructions(code.instructions, mapping);
+    RawInstructions rawInstructions = code.getRawInstructions();
+    if (rawInstructions != null) {
+      dest.putInstructions(rawInstructions, mapping);
+    } else {
+      dest.putInstructions(code.getInstructions(), mapping);
+    }
     // Compute size and do the backward/forward dance to write the size at the beginning.
     int insnSize = dest.position() - insnSizeOffset - 4;
     dest.rewind(insnSize + 4);
@@ -477,9 +717,11 @@ public class FileWriter {
     }
   }
 
-  private void writeTypeList(com.debughelper.tools.r8.graph.DexTypeList list) {
+  private void writeTypeList(DexOutputBuffer dest, DexTypeList list) {
     assert !list.isEmpty();
-    mixedSectionOffsets.setOffsetFor(list, dest.align(4));
+    int offset = dest.align(4);
+    assert offset != 0 || dest != this.dest;
+    mixedSectionOffsets.setOffsetFor(list, offset);
     com.debughelper.tools.r8.graph.DexType[] values = list.values;
     dest.putInt(values.length);
     for (com.debughelper.tools.r8.graph.DexType type : values) {
@@ -487,13 +729,13 @@ public class FileWriter {
     }
   }
 
-  private void writeStringData(com.debughelper.tools.r8.graph.DexString string) {
+  private void writeStringData(DexOutputBuffer dest, DexString string) {
     mixedSectionOffsets.setOffsetFor(string, dest.position());
     dest.putUleb128(string.size);
     dest.putBytes(string.content);
   }
 
-  private void writeAnnotation(com.debughelper.tools.r8.graph.DexAnnotation annotation) {
+  private void writeAnnotation(DexOutputBuffer dest, DexAnnotation annotation) {
     mixedSectionOffsets.setOffsetFor(annotation, dest.position());
     if (com.debughelper.tools.r8.logging.Log.ENABLED) {
       com.debughelper.tools.r8.logging.Log.verbose(getClass(), "Writing Annotation @ 0x%08x.", dest.position());
@@ -599,8 +841,9 @@ public class FileWriter {
     writeEncodedFields(clazz.instanceFields());
 
     boolean isSharedSynthetic = clazz.getSynthesizedFrom().size() > 1;
-    writeEncodedMethods(clazz.directMethods(), !isSharedSynthetic);
-    writeEncodedMethods(clazz.virtualMethods(), !isSharedSynthetic);
+    boolean clearBodies = !isSharedSynthetic && !options.retainCodeAfterWriting;
+    writeEncodedMethods(clazz.directMethods(), clearBodies);
+    writeEncodedMethods(clazz.virtualMethods(), clearBodies);
   }
 
   private void addStaticFieldValues(com.debughelper.tools.r8.graph.DexProgramClass clazz) {
@@ -646,7 +889,7 @@ public class FileWriter {
     dest.putInt(mixedSectionOffsets.getOffsetFor(callSite.getEncodedArray()));
   }
 
-  private void writeEncodedArray(com.debughelper.tools.r8.graph.DexEncodedArray array) {
+  private void writeEncodedArray(DexOutputBuffer dest, DexEncodedArray array) {
     mixedSectionOffsets.setOffsetFor(array, dest.position());
     if (com.debughelper.tools.r8.logging.Log.ENABLED) {
       com.debughelper.tools.r8.logging.Log.verbose(getClass(), "Writing EncodedArray @ 0x%08x [%s].", dest.position(), array);
@@ -759,25 +1002,6 @@ public class FileWriter {
     assert dest.position() == layout.stringIdsOffset;
   }
 
-  private void writeSignature(Layout layout) {
-    try {
-      MessageDigest md = MessageDigest.getInstance("SHA-1");
-      md.update(dest.asArray(), com.debughelper.tools.r8.dex.Constants.FILE_SIZE_OFFSET,
-          layout.getEndOfFile() - com.debughelper.tools.r8.dex.Constants.FIELD_IDS_OFF_OFFSET);
-      md.digest(dest.asArray(), com.debughelper.tools.r8.dex.Constants.SIGNATURE_OFFSET, 20);
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
-  }
-
-  private void writeChecksum(Layout layout) {
-    Adler32 adler = new Adler32();
-    adler.update(dest.asArray(), com.debughelper.tools.r8.dex.Constants.SIGNATURE_OFFSET,
-        layout.getEndOfFile() - com.debughelper.tools.r8.dex.Constants.SIGNATURE_OFFSET);
-    dest.moveTo(com.debughelper.tools.r8.dex.Constants.CHECKSUM_OFFSET);
-    dest.putInt((int) adler.getValue());
-  }
-
   private int alignSize(int bytes, int value) {
     int mask = bytes - 1;
     return (value + mask) & ~mask;
@@ -1145,6 +1369,31 @@ public class FileWriter {
       return encodedArrays.keySet();
     }
 
+    void relocateTypeLists(int base) {
+      assert base != 0;
+      relocate(typeLists, base);
+    }
+
+    void relocateStringData(int base) {
+      for (Reference2IntMap.Entry<DexString> entry : stringData.reference2IntEntrySet()) {
+        entry.setValue(entry.getIntValue() + base);
+      }
+    }
+
+    void relocateAnnotations(int base) {
+      relocate(annotations, base);
+    }
+
+    void relocateEncodedArrays(int base) {
+      relocate(encodedArrays, base);
+    }
+
+    private <T> void relocate(Object2IntMap<T> table, int base) {
+      for (Object2IntMap.Entry<T> entry : table.object2IntEntrySet()) {
+        entry.setValue(entry.getIntValue() + base);
+      }
+    }
+
     private <T> int lookup(T item, Object2IntMap<T> table) {
       if (item == null) {
         return com.debughelper.tools.r8.dex.Constants.NO_OFFSET;
@@ -1239,7 +1488,10 @@ public class FileWriter {
     }
 
     void setOffsetFor(DexTypeList typeList, int offset) {
-      assert offset != 0 && !typeLists.isEmpty();
+      // The offset is relative to the section, and 0 for the first type list, when the type lists
+      // are written in parallel. The final offsets are non-zero, see writeTypeList and
+      // relocateTypeLists.
+      assert !typeLists.isEmpty();
       setOffsetFor(typeList, offset, typeLists);
     }
 
@@ -0,0 +1,213 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.dex;
+
+import com.debughelper.tools.r8.graph.DexApplication;
+import com.debughelper.tools.r8.graph.DexItemFactory;
+import com.debughelper.tools.r8.graph.DexProgramClass;
+import com.debughelper.tools.r8.graph.DexType;
+import com.debughelper.tools.r8.graph.ObjectToOffsetMapping;
+import com.debughelper.tools.r8.ir.desugar.DesugaringCache;
+import com.debughelper.tools.r8.utils.AndroidApp;
+import com.debughelper.tools.r8.utils.InternalOptions;
+import com.debughelper.tools.r8.utils.StringDiagnostic;
+import com.debughelper.tools.r8.utils.Timing;
+import com.google.common.collect.Sets;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Keeps a {@link DexApplication} and its {@link DexItemFactory} alive between builds and updates
+ * it by re-reading only the program classes that changed.
+ *
+ * <p>Used by {@link com.debughelper.tools.r8.IncrementalD8}. A build cycle looks as follows:
+ *
+ * <pre>
+ *   DexApplication app = reader.read(inputApp, executor);           // or reader.update(...)
+ *   app = converter.convertToDex(app, executor, reader::isDirty);
+ *   reader.setConvertedApplication(app);
+ * </pre>
+ *
+ * All builds must use the same {@link InternalOptions}, and thus the same item factory. Classes
+ * synthesized from a changed or removed class (lambda classes, interface companion classes) are
+ * dropped and regenerated when the changed class is converted again. The caller is responsible for
+ * also passing the classes whose desugaring depends on a changed class: a class and the interfaces
+ * it implements that have default or static methods moved to a companion class must be passed
+ * together, which {@link #update} checks.
+ */
+public class IncrementalApplicationReader {
+
+  private final InternalOptions options;
+  private final DexItemFactory itemFactory;
+  private final Timing timing;
+
+  private DexApplication application = null;
+  private final Set<DexType> dirtyTypes = Sets.newIdentityHashSet();
+
+  public IncrementalApplicationReader(InternalOptions options, Timing timing) {
+    this.options = options;
+    this.itemFactory = options.itemFactory;
+    this.timing = timing;
+    // Unchanged classes are written again by later builds.
+    options.retainCodeAfterWriting = true;
+    options.offsetMappingCache = new ObjectToOffsetMapping.Cache();
+    // Lambda classes synthesized from changed classes are mostly the same as before.
+    options.desugaringCache = new DesugaringCache();
+  }
+
+  /** Reads the full application, all program classes are dirty. */
+  public DexApplication read(AndroidApp inputApp, ExecutorService executor)
+      throws IOException, ExecutionException {
+    application = new ApplicationReader(inputApp, options, timing).read(executor);
+    dirtyTypes.clear();
+    for (DexProgramClass clazz : application.classes()) {
+      dirtyTypes.add(clazz.type);
+    }
+    return application;
+  }
+
+  /**
+   * Updates the previous application.
+   *
+   * @param changedClasses Program inputs for all added and modified classes.
+   * @param removedDescriptors Descriptors of program classes no longer present in the input.
+   * @return The previous application with the changed classes swapped in. Only these classes are
+   *     dirty.
+   */
+  public DexApplication update(
+      AndroidApp changedClasses, Collection<String> removedDescriptors, ExecutorService executor)
+      throws IOException, ExecutionException {
+    assert application != null : "update() requires a previous read()";
+    timing.begin("DexApplication.update");
+    try {
+      // Writing the previous build has sorted the item factory, which must be undone before new
+      // items can be created.
+      itemFactory.resetSortedIndices();
+      DexApplication changed =
+          new ApplicationReader(changedClasses, options, timing).read(executor);
+      List<DexProgramClass> changedProgramClasses = changed.classes();
+
+      Set<DexType> replaced = Sets.newIdentityHashSet();
+      for (String descriptor : removedDescriptors) {
+        replaced.add(itemFactory.createType(descriptor));
+      }
+      for (DexProgramClass clazz : changedProgramClasses) {
+        replaced.add(clazz.type);
+      }
+
+      List<DexProgramClass> programClasses = new ArrayList<>();
+      for (DexProgramClass clazz : application.classes()) {
+        if (!replaced.contains(clazz.type) && !isSynthesizedFromAny(clazz, replaced)) {
+          programClasses.add(clazz);
+        }
+      }
+      programClasses.addAll(changedProgramClasses);
+      checkDesugaredInterfacesReplacedWithImplementations(programClasses, replaced);
+
+      dirtyTypes.clear();
+      for (DexProgramClass clazz : changedProgramClasses) {
+        dirtyTypes.add(clazz.type);
+      }
+      application = application.builder().replaceProgramClasses(programClasses).build();
+      return application;
+    } finally {
+      timing.end();
+    }
+  }
+
+  /**
+   * Records the application after conversion, which is the base of the next {@link #update}.
+   */
+  public void setConvertedApplication(DexApplication application) {
+    assert application.dexItemFactory == itemFactory;
+    this.application = application;
+    dirtyTypes.clear();
+  }
+
+  public boolean isDirty(DexProgramClass clazz) {
+    return dirtyTypes.contains(clazz.type);
+  }
+
+  public Set<DexType> getDirtyTypes() {
+    return Collections.unmodifiableSet(dirtyTypes);
+  }
+
+  // Forwarding methods for default interface methods are added to the implementing classes when
+  // the interface is desugared, which is only done for dirty interfaces. Thus a class and the
+  // desugared interfaces it implements must be dirty together.
+  private void checkDesugaredInterfacesReplacedWithImplementations(
+      List<DexProgramClass> programClasses, Set<DexType> replaced) {
+    Set<DexType> desugaredInterfaces = Sets.newIdentityHashSet();
+    for (DexProgramClass clazz : application.classes()) {
+      for (DexProgramClass origin : clazz.getSynthesizedFrom()) {
+        if (origin.isInterface()) {
+          desugaredInterfaces.add(origin.type);
+        }
+      }
+    }
+    if (desugaredInterfaces.isEmpty()) {
+      return;
+    }
+    Map<DexType, DexProgramClass> definitions = new IdentityHashMap<>();
+    for (DexProgramClass clazz : programClasses) {
+      definitions.put(clazz.type, clazz);
+    }
+    for (DexProgramClass clazz : programClasses) {
+      boolean isReplaced = replaced.contains(clazz.type);
+      for (DexType type : collectProgramSupertypes(clazz, definitions)) {
+        if (desugaredInterfaces.contains(type) && replaced.contains(type) != isReplaced) {
+          DexType changed = isReplaced ? clazz.type : type;
+          DexType unchanged = isReplaced ? type : clazz.type;
+          throw options.reporter.fatalError(
+              new StringDiagnostic(
+                  "Class " + unchanged.toSourceString() + " must be updated together with "
+                      + changed.toSourceString() + ", as the default or static interface methods "
+                      + "of one are desugared into the other."));
+        }
+      }
+    }
+  }
+
+  private static Set<DexType> collectProgramSupertypes(
+      DexProgramClass clazz, Map<DexType, DexProgramClass> definitions) {
+    Set<DexType> result = Sets.newIdentityHashSet();
+    Deque<DexProgramClass> worklist = new ArrayDeque<>();
+    worklist.add(clazz);
+    while (!worklist.isEmpty()) {
+      DexProgramClass current = worklist.removeFirst();
+      if (current.superType != null) {
+        DexProgramClass superClass = definitions.get(current.superType);
+        if (superClass != null && result.add(superClass.type)) {
+          worklist.addLast(superClass);
+        }
+      }
+      for (DexType type : current.interfaces.values) {
+        DexProgramClass superInterface = definitions.get(type);
+        if (superInterface != null && result.add(type)) {
+          worklist.addLast(superInterface);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static boolean isSynthesizedFromAny(DexProgramClass clazz, Set<DexType> types) {
+    for (DexProgramClass origin : clazz.getSynthesizedFrom()) {
+      if (types.contains(origin.type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -41,17 +41,15 @@ import com.debughelper.tools.r8.graph.DexItemFactory;
 import com.debughelper.tools.r8.graph.DexString;
 import com.debughelper.tools.r8.ir.code.If;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import it.unimi.dsi.fastutil.ints.Int2ReferenceMap;
 import it.unimi.dsi.fastutil.ints.Int2ReferenceOpenHashMap;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
 
 public class JumboStringRewriter {
 
@@ -68,15 +66,6 @@ public class JumboStringRewriter {
       this.endsAfterLastInstruction = endsAfterLastInstruction;
     }
 
-    void replaceTarget(com.debughelper.tools.r8.code.Instruction target, com.debughelper.tools.r8.code.Instruction newTarget) {
-      if (start == target) {
-        start = newTarget;
-      }
-      if (end == target) {
-        end = newTarget;
-      }
-    }
-
     int getStartOffset() {
       return start.getOffset();
     }
@@ -97,9 +86,10 @@ public class JumboStringRewriter {
       = new Int2ReferenceOpenHashMap<>();
   private final Map<com.debughelper.tools.r8.code.Instruction, com.debughelper.tools.r8.code.Instruction> payloadToSwitch = new IdentityHashMap<>();
   private final Map<com.debughelper.tools.r8.graph.DexCode.Try, TryTargets> tryTargets = new IdentityHashMap<>();
-  private final Int2ReferenceMap<com.debughelper.tools.r8.code.Instruction> tryRangeStartAndEndTargets
-      = new Int2ReferenceOpenHashMap<>();
+  // Payloads at the start or end of a try range, or at the address of a debug event.
+  private final Set<Instruction> debugOrTryTargetedPayloads = Sets.newIdentityHashSet();
   private final Map<com.debughelper.tools.r8.graph.DexCode.TryHandler, List<com.debughelper.tools.r8.code.Instruction>> handlerTargets = new IdentityHashMap<>();
+  private final Map<Instruction, Instruction> replacements = new IdentityHashMap<>();
 
   public JumboStringRewriter(
           DexEncodedMethod method, DexString firstJumboString, DexItemFactory factory) {
@@ -270,32 +260,34 @@ public class JumboStringRewriter {
     events.add(factory.createDefault(specialOpcode));
   }
 
-  private List<com.debughelper.tools.r8.code.Instruction> expandCode() {
-    LinkedList<com.debughelper.tools.r8.code.Instruction> instructions = new LinkedList<>();
-    Collections.addAll(instructions, method.getCode().asDexCode().instructions);
-    int offsetDelta;
+  private List<Instruction> expandCode() {
+    Instruction[] original = method.getCode().asDexCode().getInstructions();
+    List<Instruction> instructions = new ArrayList<>(original.length);
+    for (Instruction instruction : original) {
+      if (instruction instanceof ConstString
+          && ((ConstString) instruction).getString().compareTo(firstJumboString) >= 0) {
+        ConstString string = (ConstString) instruction;
+        ConstStringJumbo jumboString = new ConstStringJumbo(string.AA, string.getString());
+        replaceTarget(string, jumboString);
+        instructions.add(jumboString);
+      } else {
+        instructions.add(instruction);
+      }
+    }
+    // Widening a branch only makes the code larger, so widen branches until all offsets fit. Each
+    // round lays out all instructions in one pass over their sizes, which are final for the round.
+    boolean changed;
     do {
-      ListIterator<com.debughelper.tools.r8.code.Instruction> it = instructions.listIterator();
-      offsetDelta = 0;
-      while (it.hasNext()) {
-        com.debughelper.tools.r8.code.Instruction instruction = it.next();
-        int orignalOffset = instruction.getOffset();
-        instruction.setOffset(orignalOffset + offsetDelta);
-        if (instruction instanceof com.debughelper.tools.r8.code.ConstString) {
-          com.debughelper.tools.r8.code.ConstString string = (ConstString) instruction;
-          if (string.getString().compareTo(firstJumboString) >= 0) {
-            com.debughelper.tools.r8.code.ConstStringJumbo jumboString = new ConstStringJumbo(string.AA, string.getString());
-            jumboString.setOffset(string.getOffset());
-            offsetDelta++;
-            it.set(jumboString);
-            replaceTarget(instruction, jumboString);
-          }
-        } else if (instruction instanceof com.debughelper.tools.r8.code.Format22t) {  // IfEq, IfGe, IfGt, IfLe, IfLt, IfNe
-          com.debughelper.tools.r8.code.Format22t condition = (com.debughelper.tools.r8.code.Format22t) instruction;
-          int offset =
-              instructionTargets.get(condition).get(0).getOffset() - instruction.getOffset();
+      instructions = layoutInstructions(instructions);
+      changed = false;
+      List<Instruction> expanded = new ArrayList<>(instructions.size());
+      for (int i = 0; i < instructions.size(); i++) {
+        Instruction instruction = instructions.get(i);
+        if (instruction instanceof Format22t) {  // IfEq, IfGe, IfGt, IfLe, IfLt, IfNe
+          Format22t condition = (Format22t) instruction;
+          int offset = getTargetOffset(condition) - instruction.getOffset();
           if (Short.MIN_VALUE > offset || offset > Short.MAX_VALUE) {
-            com.debughelper.tools.r8.code.Format22t newCondition = null;
+            Format22t newCondition = null;
             switch (condition.getType().inverted()) {
               case EQ:
                 newCondition = new IfEq(condition.A, condition.B, 0);
@@ -316,12 +308,13 @@ public class JumboStringRewriter {
                 newCondition = new IfNe(condition.A, condition.B, 0);
                 break;
             }
-            offsetDelta = rewriteIfToIfAndGoto(offsetDelta, it, condition, newCondition);
+            rewriteIfToIfAndGoto(expanded, condition, newCondition, instructions.get(i + 1));
+            changed = true;
+            continue;
           }
         } else if (instruction instanceof Format21t) {  // IfEqz, IfGez, IfGtz, IfLez, IfLtz, IfNez
           Format21t condition = (Format21t) instruction;
-          int offset =
-              instructionTargets.get(condition).get(0).getOffset() - instruction.getOffset();
+          int offset = getTargetOffset(condition) - instruction.getOffset();
           if (Short.MIN_VALUE > offset || offset > Short.MAX_VALUE) {
             Format21t newCondition = null;
             switch (condition.getType().inverted()) {
@@ -344,115 +337,136 @@ public class JumboStringRewriter {
                 newCondition = new IfNez(condition.AA, 0);
                 break;
             }
-            offsetDelta = rewriteIfToIfAndGoto(offsetDelta, it, condition, newCondition);
+            rewriteIfToIfAndGoto(expanded, condition, newCondition, instructions.get(i + 1));
+            changed = true;
+            continue;
           }
-        } else if (instruction instanceof com.debughelper.tools.r8.code.Goto) {
-          com.debughelper.tools.r8.code.Goto jump = (com.debughelper.tools.r8.code.Goto) instruction;
-          int offset =
-              instructionTargets.get(jump).get(0).getOffset() - instruction.getOffset();
+        } else if (instruction instanceof Goto) {
+          Goto jump = (Goto) instruction;
+          int offset = getTargetOffset(jump) - instruction.getOffset();
           if (Byte.MIN_VALUE > offset || offset > Byte.MAX_VALUE) {
-            com.debughelper.tools.r8.code.Instruction newJump;
+            Instruction newJump;
             if (Short.MIN_VALUE > offset || offset > Short.MAX_VALUE) {
-              newJump = new com.debughelper.tools.r8.code.Goto32(offset);
+              newJump = new Goto32(offset);
             } else {
-              newJump = new com.debughelper.tools.r8.code.Goto16(offset);
+              newJump = new Goto16(offset);
             }
-            newJump.setOffset(jump.getOffset());
-            it.set(newJump);
-            offsetDelta += (newJump.getSize() - jump.getSize());
-            replaceTarget(jump, newJump);
-            List<com.debughelper.tools.r8.code.Instruction> targets = instructionTargets.remove(jump);
-            instructionTargets.put(newJump, targets);
+            replaceJump(expanded, jump, newJump);
+            changed = true;
+            continue;
           }
-        } else if (instruction instanceof com.debughelper.tools.r8.code.Goto16) {
-          com.debughelper.tools.r8.code.Goto16 jump = (com.debughelper.tools.r8.code.Goto16) instruction;
-          int offset =
-              instructionTargets.get(jump).get(0).getOffset() - instruction.getOffset();
+        } else if (instruction instanceof Goto16) {
+          Goto16 jump = (Goto16) instruction;
+          int offset = getTargetOffset(jump) - instruction.getOffset();
           if (Short.MIN_VALUE > offset || offset > Short.MAX_VALUE) {
-            com.debughelper.tools.r8.code.Instruction newJump = new com.debughelper.tools.r8.code.Goto32(offset);
-            newJump.setOffset(jump.getOffset());
-            it.set(newJump);
-            offsetDelta += (newJump.getSize() - jump.getSize());
-            replaceTarget(jump, newJump);
-            List<com.debughelper.tools.r8.code.Instruction> targets = instructionTargets.remove(jump);
-            instructionTargets.put(newJump, targets);
+            replaceJump(expanded, jump, new Goto32(offset));
+            changed = true;
+            continue;
           }
-        } else if (instruction instanceof com.debughelper.tools.r8.code.Goto32) {
-          // Instruction big enough for any offset.
-        } else if (instruction.hasPayload()) {  // FillArrayData, SparseSwitch, PackedSwitch
-          // Instruction big enough for any offset.
-        } else if (instruction.isPayload()) {
-          // Payload instructions must be 4 byte aligned (instructions are 2 bytes).
-          if (instruction.getOffset() % 2 != 0) {
-            it.previous();
-            // Check if the previous instruction was a simple nop. If that is the case, remove it
-            // to make the alignment instead of adding another one. Only allow removal if this
-            // instruction is not targeted by anything. See b/78072750.
-            com.debughelper.tools.r8.code.Instruction instructionBeforePayload = it.hasPrevious() ? it.previous() : null;
-            if (instructionBeforePayload != null
-                && instructionBeforePayload.isSimpleNop()
-                && debugEventTargets.get(orignalOffset) == null
-                && tryRangeStartAndEndTargets.get(orignalOffset) == null) {
-              it.remove();
-              offsetDelta--;
-            } else {
-              if (instructionBeforePayload != null) {
-                it.next();
-              }
-              com.debughelper.tools.r8.code.Nop nop = new Nop();
-              nop.setOffset(instruction.getOffset());
-              it.add(nop);
-              offsetDelta++;
-            }
-            instruction.setOffset(orignalOffset + offsetDelta);
-            it.next();
-          }
-          // Instruction big enough for any offset.
         }
+        // Goto32 and payload users are big enough for any offset.
+        expanded.add(instruction);
       }
-    } while (offsetDelta > 0);
+      instructions = expanded;
+    } while (changed);
+    resolveTargets();
     return instructions;
   }
 
-  private int rewriteIfToIfAndGoto(
-      int offsetDelta,
-      ListIterator<com.debughelper.tools.r8.code.Instruction> it,
-      com.debughelper.tools.r8.code.Instruction condition,
-      com.debughelper.tools.r8.code.Instruction newCondition) {
-    int jumpOffset = condition.getOffset() + condition.getSize();
-    com.debughelper.tools.r8.code.Goto32 jump = new com.debughelper.tools.r8.code.Goto32(0);
-    jump.setOffset(jumpOffset);
+  // Assigns the offsets of the instructions in one pass, and adds or removes nops before payload
+  // instructions to keep them 4 byte aligned (instructions are 2 bytes).
+  private List<Instruction> layoutInstructions(List<Instruction> instructions) {
+    List<Instruction> result = new ArrayList<>(instructions.size() + 1);
+    int offset = 0;
+    for (Instruction instruction : instructions) {
+      if (instruction.isPayload() && offset % 2 != 0) {
+        // Check if the previous instruction was a simple nop. If that is the case, remove it
+        // to make the alignment instead of adding another one. Only allow removal if this
+        // instruction is not targeted by anything. See b/78072750.
+        Instruction instructionBeforePayload =
+            result.isEmpty() ? null : result.get(result.size() - 1);
+        if (instructionBeforePayload != null
+            && instructionBeforePayload.isSimpleNop()
+            && !debugOrTryTargetedPayloads.contains(instruction)) {
+          result.remove(result.size() - 1);
+          offset -= instructionBeforePayload.getSize();
+        } else {
+          Nop nop = new Nop();
+          nop.setOffset(offset);
+          result.add(nop);
+          offset += nop.getSize();
+        }
+      }
+      instruction.setOffset(offset);
+      result.add(instruction);
+      offset += instruction.getSize();
+    }
+    return result;
+  }
+
+  private int getTargetOffset(Instruction instruction) {
+    return resolve(instructionTargets.get(instruction).get(0)).getOffset();
+  }
+
+  private void replaceJump(List<Instruction> expanded, Instruction jump, Instruction newJump) {
+    newJump.setOffset(jump.getOffset());
+    expanded.add(newJump);
+    replaceTarget(jump, newJump);
+    instructionTargets.put(newJump, instructionTargets.remove(jump));
+  }
+
+  private void rewriteIfToIfAndGoto(
+      List<Instruction> expanded,
+      Instruction condition,
+      Instruction newCondition,
+      Instruction fallthroughInstruction) {
+    Goto32 jump = new Goto32(0);
+    jump.setOffset(condition.getOffset() + condition.getSize());
     newCondition.setOffset(condition.getOffset());
-    it.set(newCondition);
+    expanded.add(newCondition);
+    expanded.add(jump);
     replaceTarget(condition, newCondition);
-    it.add(jump);
-    offsetDelta += jump.getSize();
     instructionTargets.put(jump, instructionTargets.remove(condition));
-    com.debughelper.tools.r8.code.Instruction fallthroughInstruction = it.next();
     instructionTargets.put(newCondition, Lists.newArrayList(fallthroughInstruction));
-    it.previous();
-    return offsetDelta;
   }
 
-  private void replaceTarget(com.debughelper.tools.r8.code.Instruction target, com.debughelper.tools.r8.code.Instruction newTarget) {
-    for (List<com.debughelper.tools.r8.code.Instruction> instructions : instructionTargets.values()) {
-      instructions.replaceAll((i) -> i == target ? newTarget : i);
+  // Replaced instructions are only recorded here while expanding, and the targets referring to
+  // them are updated once by resolveTargets.
+  private void replaceTarget(Instruction target, Instruction newTarget) {
+    replacements.put(target, newTarget);
+  }
+
+  private Instruction resolve(Instruction target) {
+    Instruction replacement = replacements.get(target);
+    while (replacement != null) {
+      target = replacement;
+      replacement = replacements.get(target);
     }
-    for (Int2ReferenceMap.Entry<com.debughelper.tools.r8.code.Instruction> entry : debugEventTargets.int2ReferenceEntrySet()) {
-      if (entry.getValue() == target) {
-        entry.setValue(newTarget);
-      }
+    return target;
+  }
+
+  private void resolveTargets() {
+    if (replacements.isEmpty()) {
+      return;
+    }
+    for (List<Instruction> instructions : instructionTargets.values()) {
+      instructions.replaceAll(this::resolve);
+    }
+    for (Int2ReferenceMap.Entry<Instruction> entry : debugEventTargets.int2ReferenceEntrySet()) {
+      entry.setValue(resolve(entry.getValue()));
     }
-    for (Entry<com.debughelper.tools.r8.graph.DexCode.Try, TryTargets> entry : tryTargets.entrySet()) {
-      entry.getValue().replaceTarget(target, newTarget);
+    for (TryTargets targets : tryTargets.values()) {
+      targets.start = resolve(targets.start);
+      targets.end = resolve(targets.end);
     }
-    for (List<com.debughelper.tools.r8.code.Instruction> instructions : handlerTargets.values()) {
-      instructions.replaceAll((i) -> i == target ? newTarget : i);
+    for (List<Instruction> instructions : handlerTargets.values()) {
+      instructions.replaceAll(this::resolve);
     }
   }
 
   private void recordInstructionTargets(Int2ReferenceMap<com.debughelper.tools.r8.code.Instruction> offsetToInstruction) {
-    com.debughelper.tools.r8.code.Instruction[] instructions = method.getCode().asDexCode().instructions;
+    com.debughelper.tools.r8.code.Instruction[] instructions =
+        method.getCode().asDexCode().getInstructions();
     for (com.debughelper.tools.r8.code.Instruction instruction : instructions) {
       if (instruction instanceof com.debughelper.tools.r8.code.Format22t) {  // IfEq, IfGe, IfGt, IfLe, IfLt, IfNe
         com.debughelper.tools.r8.code.Format22t condition = (Format22t) instruction;
@@ -511,12 +525,18 @@ public class JumboStringRewriter {
           com.debughelper.tools.r8.code.Instruction target = offsetToInstruction.get(address);
           assert target != null;
           debugEventTargets.put(address, target);
+          if (target.isPayload()) {
+            debugOrTryTargetedPayloads.add(target);
+          }
         } else if (event instanceof com.debughelper.tools.r8.graph.DexDebugEvent.Default) {
           com.debughelper.tools.r8.graph.DexDebugEvent.Default defaultEvent = (com.debughelper.tools.r8.graph.DexDebugEvent.Default) event;
           address += defaultEvent.getPCDelta();
           com.debughelper.tools.r8.code.Instruction target = offsetToInstruction.get(address);
           assert target != null;
           debugEventTargets.put(address, target);
+          if (target.isPayload()) {
+            debugOrTryTargetedPayloads.add(target);
+          }
         }
       }
     }
@@ -541,8 +561,12 @@ public class JumboStringRewriter {
       assert theTry.startAddress == targets.getStartOffset();
       assert theTry.instructionCount == targets.getStartToEndDelta();
       tryTargets.put(theTry, targets);
-      tryRangeStartAndEndTargets.put(start.getOffset(), start);
-      tryRangeStartAndEndTargets.put(end.getOffset(), end);
+      if (start.isPayload()) {
+        debugOrTryTargetedPayloads.add(start);
+      }
+      if (end.isPayload()) {
+        debugOrTryTargetedPayloads.add(end);
+      }
     }
     if (code.handlers != null) {
       for (com.debughelper.tools.r8.graph.DexCode.TryHandler handler : code.handlers) {
@@ -564,7 +588,8 @@ public class JumboStringRewriter {
 
   private void recordTargets() {
     Int2ReferenceMap<com.debughelper.tools.r8.code.Instruction> offsetToInstruction = new Int2ReferenceOpenHashMap<>();
-    com.debughelper.tools.r8.code.Instruction[] instructions = method.getCode().asDexCode().instructions;
+    com.debughelper.tools.r8.code.Instruction[] instructions =
+        method.getCode().asDexCode().getInstructions();
     boolean containsPayloads = false;
     for (com.debughelper.tools.r8.code.Instruction instruction : instructions) {
       offsetToInstruction.put(instruction.getOffset(), instruction);
@@ -3,55 +3,104 @@
 // BSD-style license that can be found in the LICENSE file.
 package com.debughelper.tools.r8.dex;
 
-import static com.debughelper.tools.r8.dex.Constants.VDEX_NUMBER_OF_DEX_FILES_OFFSET;
-
-import com.debughelper.tools.r8.dex.VDexReader;
 import com.debughelper.tools.r8.errors.CompilationError;
-import com.google.common.collect.ImmutableList;
-import java.util.ArrayList;
-import java.util.List;
+import com.debughelper.tools.r8.origin.Origin;
+import com.debughelper.tools.r8.utils.Reporter;
+import java.nio.ByteBuffer;
 
 /**
  * Parse a VDEX and isolate the different dex files it contains.
+ *
+ * <p>Only the location of the dex files is determined up front. Their content is handed out as
+ * views of the vdex buffer, see {@link #getDexFile}, so consumers can process one dex file at a
+ * time without copying the container. The section sizes in the header are validated against the
+ * size of the vdex file before any view is created, and a malformed file is reported as a
+ * compilation error through the {@link Reporter}.
  */
 public class VDexParser {
 
-  private com.debughelper.tools.r8.dex.VDexReader vDexReader;
-  private List<byte[]> dexFiles = new ArrayList<>();
+  private VDexReader vDexReader;
+  private final Reporter reporter;
+  private int[] dexOffsets;
+  private int[] dexSizes;
 
   public void close() {
     vDexReader = null;
-    dexFiles = ImmutableList.of();
+    dexOffsets = new int[0];
+    dexSizes = new int[0];
   }
 
-  public VDexParser(com.debughelper.tools.r8.dex.VDexReader vDexReader) {
+  public VDexParser(VDexReader vDexReader, Reporter reporter) {
     this.vDexReader = vDexReader;
-    vDexReader.setByteOrder();
-    parseDexFiles();
+    this.reporter = reporter;
+    if (vDexReader.end() < Constants.VDEX_HEADER_SIZE) {
+      throw invalid("Truncated header");
+    }
+    try {
+      vDexReader.setByteOrder();
+    } catch (CompilationError e) {
+      throw reporter.fatalError(e);
+    }
+    locateDexFiles();
   }
 
-  public List<byte[]> getDexFiles() {
-    return dexFiles;
+  public Origin getOrigin() {
+    return vDexReader.getOrigin();
   }
 
-  private void parseDexFiles() {
+  public int getNumberOfDexFiles() {
+    return dexOffsets.length;
+  }
+
+  /** Returns a read-only view of the content of the dex file at the given index. */
+  public ByteBuffer getDexFile(int index) {
+    return vDexReader.slice(dexOffsets[index], dexSizes[index]);
+  }
+
+  private void locateDexFiles() {
     vDexReader.position(Constants.VDEX_NUMBER_OF_DEX_FILES_OFFSET);
-    int numberOfDexFiles = vDexReader.getUint();
-    int dexSize = vDexReader.getUint();
-    int verifierDepsSize = vDexReader.getUint();
-    int quickeningInfoSize = vDexReader.getUint();
+    int numberOfDexFiles = vDexReader.getInt();
+    int dexSize = vDexReader.getInt();
+    int verifierDepsSize = vDexReader.getInt();
+    int quickeningInfoSize = vDexReader.getInt();
+    if (numberOfDexFiles < 0
+        || dexSize < 0
+        || verifierDepsSize < 0
+        || quickeningInfoSize < 0) {
+      throw invalid("Negative section size");
+    }
+    long firstDexOffset =
+        Constants.VDEX_CHECKSUM_SECTION_OFFSET
+            + (long) numberOfDexFiles * Constants.VDEX_DEX_CHECKSUM_SIZE;
+    if (firstDexOffset + dexSize + verifierDepsSize + quickeningInfoSize > vDexReader.end()) {
+      throw invalid("Sections exceed the file size");
+    }
 
-    int offset = VDexReader.firstDexOffset(numberOfDexFiles);
+    dexOffsets = new int[numberOfDexFiles];
+    dexSizes = new int[numberOfDexFiles];
+    int offset = (int) firstDexOffset;
+    int dexSectionEnd = offset + dexSize;
     int totalDexSize = 0;
     for (int i = 0; i < numberOfDexFiles; i++) {
-      int size = vDexReader.getUint(offset + Constants.FILE_SIZE_OFFSET);
-      vDexReader.position(offset);
-      dexFiles.add(vDexReader.getByteArray(size));
+      if (Constants.FILE_SIZE_OFFSET + 4 > dexSectionEnd - offset) {
+        throw invalid("Truncated dex file");
+      }
+      int size = vDexReader.getInt(offset + Constants.FILE_SIZE_OFFSET);
+      if (size < 0 || size > dexSectionEnd - offset) {
+        throw invalid("Truncated dex file");
+      }
+      dexOffsets[i] = offset;
+      dexSizes[i] = size;
       totalDexSize += size;
       offset += size;
     }
     if (totalDexSize != dexSize) {
-      throw new CompilationError("Invalid vdex file. Mismatch in total dex files size");
+      throw invalid("Mismatch in total dex files size");
     }
   }
+
+  private RuntimeException invalid(String reason) {
+    return reporter.fatalError(
+        new CompilationError("Invalid vdex file. " + reason, vDexReader.getOrigin()));
+  }
 }
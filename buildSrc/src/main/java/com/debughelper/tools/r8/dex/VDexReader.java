@@ -11,11 +11,16 @@ import static com.debughelper.tools.r8.dex.Constants.VDEX_NUMBER_OF_DEX_FILES_OF
 
 import com.debughelper.tools.r8.errors.CompilationError;
 import com.debughelper.tools.r8.origin.Origin;
+import com.debughelper.tools.r8.origin.PathOrigin;
 import com.google.common.io.ByteStreams;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * See runtime/vdex_file.h and runtime/vdex_file.cc in the Art code for the vdex file format.
@@ -32,12 +37,39 @@ public class VDexReader extends BinaryReader {
     }
   }
 
+  /**
+   * Reads vdex content from a buffer without copying it.
+   *
+   * @param buffer contents of the vdex file, starting at position 0
+   */
+  public VDexReader(Origin origin, ByteBuffer buffer) {
+    super(origin, buffer);
+    version = parseMagic(buffer);
+    if (!supportedVersion(version)) {
+      throw new CompilationError("Unsupported vdex file version " + version, origin);
+    }
+  }
+
+  /**
+   * Maps the vdex file into memory. Dex files extracted from the returned reader are views of the
+   * mapping, so only the pages of the dex files actually parsed are read.
+   */
+  public static VDexReader map(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return new VDexReader(
+          new PathOrigin(file), channel.map(MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
   private static boolean supportedVersion(int versionNumber) {
     return Constants.MIN_VDEX_VERSION <= versionNumber && versionNumber <= Constants.MAX_VDEX_VERSION;
   }
 
   // Parse the magic header and determine the dex file version.
   private int parseMagic(ByteBuffer buffer) {
+    if (buffer.limit() < Constants.VDEX_MAGIC_SIZE) {
+      throw new CompilationError("Truncated VDex file - unable to read header", origin);
+    }
     int index = 0;
     for (byte prefixByte : Constants.VDEX_FILE_MAGIC_PREFIX) {
       if (buffer.get(index++) != prefixByte) {
@@ -83,7 +115,14 @@ public class VDexReader extends BinaryReader {
     }
 
     // Make sure we did set the right endian for reading.
-    int endian = buffer.getInt(firstDexOffset(dexFiles) + Constants.ENDIAN_TAG_OFFSET);
+    long endianOffset =
+        Constants.VDEX_CHECKSUM_SECTION_OFFSET
+            + (long) dexFiles * Constants.VDEX_DEX_CHECKSUM_SIZE
+            + Constants.ENDIAN_TAG_OFFSET;
+    if (dexFiles < 0 || endianOffset + 4 > buffer.limit()) {
+      throw new CompilationError("Truncated vdex file.", origin);
+    }
+    int endian = buffer.getInt((int) endianOffset);
     if (endian != Constants.ENDIAN_CONSTANT) {
       throw new CompilationError("Unable to determine endianess for reading vdex file.");
     }
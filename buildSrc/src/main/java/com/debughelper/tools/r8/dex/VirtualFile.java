@@ -39,6 +39,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -151,9 +152,18 @@ public class VirtualFile {
     return prefix;
   }
 
-  public com.debughelper.tools.r8.graph.ObjectToOffsetMapping computeMapping(com.debughelper.tools.r8.graph.DexApplication application) {
+  /**
+   * Computes the mapping of the items of this file. The items are sorted on the executor, if not
+   * null, and the sorted items of the previous mapping of this file are reused, if not null and
+   * unchanged.
+   */
+  public ObjectToOffsetMapping computeMapping(
+      DexApplication application,
+      ObjectToOffsetMapping previous,
+      ExecutorService executorService)
+      throws ExecutionException {
     assert transaction.isEmpty();
-    return new ObjectToOffsetMapping(
+    return ObjectToOffsetMapping.create(
         application,
         indexedItems.classes,
         indexedItems.protos,
@@ -162,7 +172,9 @@ public class VirtualFile {
         indexedItems.fields,
         indexedItems.strings,
         indexedItems.callSites,
-        indexedItems.methodHandles);
+        indexedItems.methodHandles,
+        previous,
+        executorService);
   }
 
   void addClass(com.debughelper.tools.r8.graph.DexProgramClass clazz) {
@@ -385,6 +397,14 @@ public class VirtualFile {
         fileIndexOffset = 1;
       }
 
+      distributeRemaining(filesForDistribution, fileIndexOffset, multidexLegacy);
+      assert totalClassNumber == virtualFiles.stream().mapToInt(dex -> dex.classes().size()).sum();
+      return virtualFiles;
+    }
+
+    protected void distributeRemaining(
+        List<VirtualFile> filesForDistribution, int fileIndexOffset, boolean multidexLegacy)
+        throws IOException {
       if (multidexLegacy && options.enableInheritanceClassInDexDistributor) {
         new InheritanceClassInDexDistributor(mainDexFile, filesForDistribution, classes,
             originalNames, fileIndexOffset, writer.namingLens, writer.application, executorService)
@@ -398,8 +418,89 @@ public class VirtualFile {
             fillStrategy, fileIndexOffset, writer.namingLens)
             .call();
       }
-      assert totalClassNumber == virtualFiles.stream().mapToInt(dex -> dex.classes().size()).sum();
-      return virtualFiles;
+    }
+  }
+
+  /**
+   * Keeps classes in the dex file they were assigned to by the previous build, so that adding or
+   * removing a class does not shift other classes to different files. Only the files with changed
+   * classes then change.
+   *
+   * <p>Previous files keep their index, so that a file emptied since the previous build does not
+   * renumber the files after it. Classes that are new, or no longer fit into their previous file,
+   * are added to the first file with enough space, which may be an emptied one, or a new file at the
+   * end. An emptied file that is not refilled is written without classes, only emptied files at the
+   * end are dropped, see {@link ApplicationWriter#write}.
+   */
+  public static class StickyFilesDistributor extends FillFilesDistributor {
+    private final DexDistribution previousDistribution;
+
+    StickyFilesDistributor(ApplicationWriter writer, InternalOptions options,
+        ExecutorService executorService, DexDistribution previousDistribution) {
+      super(writer, options, executorService);
+      this.previousDistribution = previousDistribution;
+    }
+
+    @Override
+    protected void distributeRemaining(
+        List<VirtualFile> filesForDistribution, int fileIndexOffset, boolean multidexLegacy)
+        throws IOException {
+      if (previousDistribution.isEmpty()
+          || (multidexLegacy && options.enableInheritanceClassInDexDistributor)) {
+        // The inheritance based distribution places classes to satisfy DexOpt constraints, which
+        // keeping classes in their previous file could violate.
+        super.distributeRemaining(filesForDistribution, fileIndexOffset, multidexLegacy);
+        return;
+      }
+      // Group the classes by their previous file. The classes are visited in package order, so the
+      // placement of new classes does not depend on hashing.
+      TreeMap<Integer, List<DexProgramClass>> previousFiles = new TreeMap<>();
+      List<DexProgramClass> newClasses = new ArrayList<>();
+      for (DexProgramClass clazz : sortClassesByPackage(classes, originalNames)) {
+        int index = previousDistribution.getFileIndex(clazz.type);
+        if (index < fileIndexOffset) {
+          // Not in the previous build, or in a main dex file which is kept minimal.
+          newClasses.add(clazz);
+        } else {
+          previousFiles.computeIfAbsent(index, key -> new ArrayList<>()).add(clazz);
+        }
+      }
+
+      for (Map.Entry<Integer, List<DexProgramClass>> previousFile : previousFiles.entrySet()) {
+        VirtualFile file =
+            getOrAddFile(
+                filesForDistribution, previousFile.getKey() - fileIndexOffset, fileIndexOffset);
+        for (DexProgramClass clazz : previousFile.getValue()) {
+          file.addClass(clazz);
+          if (file.isFull()) {
+            file.abortTransaction();
+            newClasses.add(clazz);
+          } else {
+            file.commitTransaction();
+          }
+        }
+      }
+
+      for (DexProgramClass clazz : newClasses) {
+        for (int position = 0; ; position++) {
+          VirtualFile file = getOrAddFile(filesForDistribution, position, fileIndexOffset);
+          file.addClass(clazz);
+          // A class too big for any file is left in an empty one, which fails when written.
+          if (!file.isFull() || file.isEmpty()) {
+            file.commitTransaction();
+            break;
+          }
+          file.abortTransaction();
+        }
+      }
+    }
+
+    // Returns the file at the given position, adding the files up to it if needed.
+    private VirtualFile getOrAddFile(List<VirtualFile> files, int position, int fileIndexOffset) {
+      while (position >= files.size()) {
+        files.add(new VirtualFile(fileIndexOffset + files.size(), writer.namingLens));
+      }
+      return files.get(position);
     }
   }
 
@@ -64,6 +64,14 @@ public abstract class Code extends CachedHashValueDexItem {
     return Integer.MAX_VALUE;
   }
 
+  /**
+   * Estimate of the work to convert this code, relative to other code. Unlike
+   * estimatedSizeForInlining() this does not trigger parsing of code that is parsed lazily.
+   */
+  public int estimatedConversionCost() {
+    return estimatedSizeForInlining();
+  }
+
   /** Compute estimatedSizeForInlining() <= threshold. */
   public boolean estimatedSizeForInliningAtMost(int threshold) {
     return estimatedSizeForInlining() <= threshold;
@@ -4,6 +4,7 @@
 package com.debughelper.tools.r8.graph;
 
 import com.debughelper.tools.r8.code.Instruction;
+import com.debughelper.tools.r8.code.RawInstructions;
 import com.debughelper.tools.r8.code.ReturnVoid;
 import com.debughelper.tools.r8.code.SwitchPayload;
 import com.debughelper.tools.r8.dex.IndexedItemCollection;
@@ -39,7 +40,9 @@ public class DexCode extends Code {
   public final int outgoingRegisterSize;
   public final Try[] tries;
   public final TryHandler[] handlers;
-  public final Instruction[] instructions;
+  // The instructions, which for code passed through undecoded are only decoded when requested.
+  private volatile Instruction[] instructions;
+  private final RawInstructions rawInstructions;
 
   public final DexString highestSortingString;
   private DexDebugInfo debugInfo;
@@ -57,6 +60,7 @@ public class DexCode extends Code {
     this.registerSize = registerSize;
     this.outgoingRegisterSize = outsSize;
     this.instructions = instructions;
+    this.rawInstructions = null;
     this.tries = tries;
     this.handlers = handlers;
     this.debugInfo = debugInfo;
@@ -64,6 +68,44 @@ public class DexCode extends Code {
     hashCode();  // Cache the hash code eagerly.
   }
 
+  public DexCode(
+      int registerSize,
+      int insSize,
+      int outsSize,
+      RawInstructions rawInstructions,
+      Try[] tries,
+      TryHandler[] handlers,
+      DexDebugInfo debugInfo) {
+    this.incomingRegisterSize = insSize;
+    this.registerSize = registerSize;
+    this.outgoingRegisterSize = outsSize;
+    this.instructions = null;
+    this.rawInstructions = rawInstructions;
+    this.tries = tries;
+    this.handlers = handlers;
+    this.debugInfo = debugInfo;
+    this.highestSortingString = rawInstructions.getHighestSortingString();
+    hashCode();  // Cache the hash code eagerly.
+  }
+
+  public Instruction[] getInstructions() {
+    Instruction[] result = instructions;
+    if (result == null) {
+      // Decoding is deterministic, so concurrent requests can each decode.
+      result = rawInstructions.decode();
+      instructions = result;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the instructions as read, if the code has been passed through without its instructions
+   * being requested, and null otherwise.
+   */
+  public RawInstructions getRawInstructions() {
+    return instructions == null ? rawInstructions : null;
+  }
+
   @Override
   public boolean isDexCode() {
     return true;
@@ -71,7 +113,13 @@ public class DexCode extends Code {
 
   @Override
   public int estimatedSizeForInlining() {
-    return instructions.length;
+    return getInstructions().length;
+  }
+
+  @Override
+  public int estimatedConversionCost() {
+    RawInstructions raw = getRawInstructions();
+    return raw != null ? raw.size() : getInstructions().length;
   }
 
   @Override
@@ -110,16 +158,26 @@ public class DexCode extends Code {
   }
 
   public int codeSizeInBytes() {
+    RawInstructions raw = getRawInstructions();
+    if (raw != null) {
+      return raw.size();
+    }
+    Instruction[] instructions = getInstructions();
     Instruction last = instructions[instructions.length - 1];
     return last.getOffset() + last.getSize();
   }
 
+  // Code passed through undecoded is hashed and compared by its raw instructions, other code by its
+  // instructions. Code of one form is never equal to code of the other form, even if it has the
+  // same instructions, so that the hash code does not depend on the instructions being decoded.
   @Override
   public int computeHashCode() {
     return incomingRegisterSize * 2
         + registerSize * 3
         + outgoingRegisterSize * 5
-        + Arrays.hashCode(instructions) * 7
+        + (rawInstructions != null
+                ? rawInstructions.hashCode()
+                : Arrays.hashCode(instructions)) * 7
         + ((debugInfo == null) ? 0 : debugInfo.hashCode()) * 11
         + Arrays.hashCode(tries) * 13
         + Arrays.hashCode(handlers) * 17;
@@ -129,6 +187,9 @@ public class DexCode extends Code {
   public boolean computeEquals(Object other) {
     if (other instanceof DexCode) {
       DexCode o = (DexCode) other;
+      if ((rawInstructions == null) != (o.rawInstructions == null)) {
+        return false;
+      }
       if (incomingRegisterSize != o.incomingRegisterSize) {
         return false;
       }
@@ -154,6 +215,9 @@ public class DexCode extends Code {
         return false;
       }
       // Save the most expensive operation to last.
+      if (rawInstructions != null) {
+        return rawInstructions.equals(o.rawInstructions);
+      }
       return Arrays.equals(instructions, o.instructions);
     }
     return false;
@@ -161,6 +225,7 @@ public class DexCode extends Code {
 
   @Override
   public boolean isEmptyVoidMethod() {
+    Instruction[] instructions = getInstructions();
     return instructions.length == 1 && instructions[0] instanceof ReturnVoid;
   }
 
@@ -195,7 +260,7 @@ public class DexCode extends Code {
 
   @Override
   public void registerCodeReferences(UseRegistry registry) {
-    for (Instruction insn : instructions) {
+    for (Instruction insn : getInstructions()) {
       insn.registerUse(registry);
     }
     if (handlers != null) {
@@ -227,7 +292,7 @@ public class DexCode extends Code {
 
     // Collect payload users.
     Map<Integer, Instruction> payloadUsers = new HashMap<>();
-    for (Instruction dex : instructions) {
+    for (Instruction dex : getInstructions()) {
       if (dex.hasPayload()) {
         payloadUsers.put(dex.getOffset() + dex.getPayloadOffset(), dex);
       }
@@ -240,7 +305,7 @@ public class DexCode extends Code {
       debugInfo = debugInfoIterator.hasNext() ? debugInfoIterator.next() : null;
     }
     int instructionNumber = 0;
-    for (Instruction insn : instructions) {
+    for (Instruction insn : getInstructions()) {
       while (debugInfo != null && debugInfo.address == insn.getOffset()) {
         builder.append("         ").append(debugInfo.toString(false)).append("\n");
         debugInfo = debugInfoIterator.hasNext() ? debugInfoIterator.next() : null;
@@ -284,7 +349,7 @@ public class DexCode extends Code {
     Map<Integer, Instruction> payloadUsers = new HashMap<>();
     Set<Integer> labledTargets = new HashSet<>();
     // Collect payload users and labeled targets for non-payload instructions.
-    for (Instruction dex : instructions) {
+    for (Instruction dex : getInstructions()) {
       int[] targets = dex.getTargets();
       if (targets != Instruction.NO_TARGETS && targets != Instruction.EXIT_TARGET) {
         assert targets.length <= 2;
@@ -296,7 +361,7 @@ public class DexCode extends Code {
       }
     }
     // Collect labeled targets for payload instructions.
-    for (Instruction dex : instructions) {
+    for (Instruction dex : getInstructions()) {
       if (dex.isSwitchPayload()) {
         Instruction payloadUser = payloadUsers.get(dex.getOffset());
         if (dex instanceof SwitchPayload) {
@@ -308,7 +373,7 @@ public class DexCode extends Code {
       }
     }
     // Generate smali for all instructions.
-    for (Instruction dex : instructions) {
+    for (Instruction dex : getInstructions()) {
       if (labledTargets.contains(dex.getOffset())) {
         builder.append("  :label_");
         builder.append(dex.getOffset());
@@ -343,8 +408,13 @@ public class DexCode extends Code {
   public void collectIndexedItems(
       IndexedItemCollection indexedItems, DexMethod method, int instructionOffset) {
     assert instructionOffset == -1;
-    for (Instruction insn : instructions) {
-      insn.collectIndexedItems(indexedItems, method, insn.getOffset());
+    RawInstructions raw = getRawInstructions();
+    if (raw != null) {
+      raw.collectIndexedItems(indexedItems, method);
+    } else {
+      for (Instruction insn : getInstructions()) {
+        insn.collectIndexedItems(indexedItems, method, insn.getOffset());
+      }
     }
     if (debugInfo != null) {
       debugInfo.collectIndexedItems(indexedItems);
@@ -96,6 +96,11 @@ public class DexEncodedField extends KeyedDexItem<DexField> {
     return null;
   }
 
+  /** Returns a copy of this field with its own access flags. */
+  public DexEncodedField copy() {
+    return new DexEncodedField(field, accessFlags.copy(), annotations, staticValue);
+  }
+
   public DexEncodedField toRenamedField(DexString name, DexItemFactory dexItemFactory) {
     return new DexEncodedField(dexItemFactory.createField(field.clazz, field.type, name),
         accessFlags, annotations, staticValue);
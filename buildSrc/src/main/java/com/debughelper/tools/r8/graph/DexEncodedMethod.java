@@ -405,6 +405,11 @@ public class DexEncodedMethod extends KeyedDexItem<DexMethod> implements AppInfo
         outRegisters, instructions, new com.debughelper.tools.r8.graph.DexCode.Try[0], new com.debughelper.tools.r8.graph.DexCode.TryHandler[0], null, null);
   }
 
+  /** Returns a copy of this method with its own access flags and state, sharing its code. */
+  public DexEncodedMethod copy() {
+    return builder(this).build();
+  }
+
   public DexEncodedMethod toEmptyThrowingMethodDex() {
     assert !accessFlags.isAbstract() && !accessFlags.isNative();
     Builder builder = builder(this);
@@ -638,6 +638,11 @@ public class DexItemFactory {
     return types.get(descriptor);
   }
 
+  /** Returns the type with the given descriptor, or null if no such type was created. */
+  synchronized public DexType lookupType(String descriptor) {
+    return types.get(new DexString(descriptor));
+  }
+
   public DexType createArrayType(int nesting, DexType baseType) {
     assert nesting > 0;
     return createType(Strings.repeat("[", nesting) + baseType.toDescriptorString());
@@ -117,8 +117,11 @@ public class JarClassFileReader {
     input.reset();
 
     ClassReader reader = new ClassReader(input);
+    // When only reading the structure no code is created, so nothing refers to the class file
+    // contents once the class has been read.
+    byte[] classCache = application.options.readStructureOnly ? null : reader.b;
     reader.accept(
-        new CreateDexClassVisitor(origin, classKind, reader.b, application, classConsumer),
+        new CreateDexClassVisitor(origin, classKind, classCache, application, classConsumer),
         SKIP_FRAMES | SKIP_CODE);
   }
 
@@ -594,7 +597,10 @@ public class JarClassFileReader {
 
     @Override
     public void visitEnd() {
-      if (!flags.isAbstract() && !flags.isNative() && parent.classKind == ClassKind.PROGRAM) {
+      if (!flags.isAbstract()
+          && !flags.isNative()
+          && parent.classKind == ClassKind.PROGRAM
+          && !parent.application.options.readStructureOnly) {
         if (parent.application.options.enableCfFrontend) {
           code = new LazyCfCode(method, parent.origin, parent.context, parent.application);
         } else {
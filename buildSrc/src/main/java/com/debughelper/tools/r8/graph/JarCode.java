@@ -95,6 +95,16 @@ public class JarCode extends Code {
     return false;
   }
 
+  @Override
+  public int estimatedConversionCost() {
+    JarClassFileReader.ReparseContext context = this.context;
+    if (context != null) {
+      // Not parsed yet, use this method's share of the class file.
+      return context.classCache.length / context.codeList.size();
+    }
+    return node.instructions.size();
+  }
+
   @Override
   public boolean isEmptyVoidMethod() {
     for (Iterator<AbstractInsnNode> it = getNode().instructions.iterator(); it.hasNext(); ) {
@@ -180,6 +180,16 @@ public class LazyCfCode extends Code {
     return asCfCode().estimatedSizeForInlining();
   }
 
+  @Override
+  public int estimatedConversionCost() {
+    JarClassFileReader.ReparseContext context = this.context;
+    if (context != null) {
+      // Not parsed yet, use this method's share of the class file.
+      return context.classCache.length / context.codeList.size();
+    }
+    return code.estimatedSizeForInlining();
+  }
+
   @Override
   public boolean estimatedSizeForInliningAtMost(int threshold) {
     return asCfCode().estimatedSizeForInliningAtMost(threshold);
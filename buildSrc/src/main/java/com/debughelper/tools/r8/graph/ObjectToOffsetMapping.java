@@ -6,16 +6,25 @@ package com.debughelper.tools.r8.graph;
 import com.debughelper.tools.r8.dex.Constants;
 import com.debughelper.tools.r8.graph.DexProto;
 import com.debughelper.tools.r8.errors.CompilationError;
+import com.debughelper.tools.r8.errors.Unreachable;
+import com.debughelper.tools.r8.utils.ThreadUtils;
 
 import it.unimi.dsi.fastutil.objects.Reference2IntLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Reference2IntMap;
 import it.unimi.dsi.fastutil.objects.Reference2IntMap.Entry;
 import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Consumer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.stream.Collectors;
 
 public class ObjectToOffsetMapping {
@@ -31,18 +40,49 @@ public class ObjectToOffsetMapping {
   private final Reference2IntMap<DexString> strings;
   private final Reference2IntMap<DexCallSite> callSites;
   private final Reference2IntMap<DexMethodHandle> methodHandles;
-  private DexString firstJumboString;
+  private final DexString firstJumboString;
+
+  // Below this number of indexed items, sorting them in parallel does not pay off.
+  private static final int MIN_ITEMS_FOR_PARALLEL_SORT = 20000;
+
+  private ObjectToOffsetMapping(
+      DexProgramClass[] classes,
+      Reference2IntMap<DexProto> protos,
+      Reference2IntMap<DexType> types,
+      Reference2IntMap<DexMethod> methods,
+      Reference2IntMap<DexField> fields,
+      Reference2IntMap<DexString> strings,
+      Reference2IntMap<DexCallSite> callSites,
+      Reference2IntMap<DexMethodHandle> methodHandles) {
+    this.classes = classes;
+    this.protos = protos;
+    this.types = types;
+    this.methods = methods;
+    this.fields = fields;
+    this.strings = strings;
+    this.callSites = callSites;
+    this.methodHandles = methodHandles;
+    this.firstJumboString = findFirstJumboString(strings);
+  }
 
-  public ObjectToOffsetMapping(
+  /**
+   * Creates the mapping of the given items. The item collections are sorted as independent tasks
+   * on the executor, if not null, and the index maps of the previous mapping for the same file are
+   * taken over for collections that did not change since.
+   */
+  public static ObjectToOffsetMapping create(
       DexApplication application,
       Collection<DexProgramClass> classes,
-      Collection<com.debughelper.tools.r8.graph.DexProto> protos,
+      Collection<DexProto> protos,
       Collection<DexType> types,
       Collection<DexMethod> methods,
       Collection<DexField> fields,
       Collection<DexString> strings,
       Collection<DexCallSite> callSites,
-      Collection<DexMethodHandle> methodHandles) {
+      Collection<DexMethodHandle> methodHandles,
+      ObjectToOffsetMapping previous,
+      ExecutorService executorService)
+      throws ExecutionException {
     assert application != null;
     assert classes != null;
     assert protos != null;
@@ -52,28 +92,119 @@ public class ObjectToOffsetMapping {
     assert strings != null;
     assert callSites != null;
     assert methodHandles != null;
+    if (executorService != null
+        && strings.size() + types.size() + protos.size() + fields.size() + methods.size()
+            < MIN_ITEMS_FOR_PARALLEL_SORT) {
+      executorService = null;
+    }
+    List<Future<?>> futures = new ArrayList<>();
+    Future<DexProgramClass[]> sortedClasses =
+        submit(executorService, futures, () -> sortClasses(application, classes));
+    Future<Reference2IntMap<DexProto>> protoMap =
+        submit(executorService, futures,
+            () -> createPresortedMap(protos, previous == null ? null : previous.protos, false));
+    Future<Reference2IntMap<DexType>> typeMap =
+        submit(executorService, futures,
+            () -> createPresortedMap(types, previous == null ? null : previous.types, false));
+    Future<Reference2IntMap<DexMethod>> methodMap =
+        submit(executorService, futures,
+            () -> createPresortedMap(methods, previous == null ? null : previous.methods, false));
+    Future<Reference2IntMap<DexField>> fieldMap =
+        submit(executorService, futures,
+            () -> createPresortedMap(fields, previous == null ? null : previous.fields, false));
+    Future<Reference2IntMap<DexString>> stringMap =
+        submit(executorService, futures,
+            () -> createPresortedMap(strings, previous == null ? null : previous.strings, true));
+    ThreadUtils.awaitFutures(futures);
+    try {
+      return new ObjectToOffsetMapping(
+          sortedClasses.get(),
+          protoMap.get(),
+          typeMap.get(),
+          methodMap.get(),
+          fieldMap.get(),
+          stringMap.get(),
+          createMap(callSites),
+          createMap(methodHandles));
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted while waiting for future.", e);
+    }
+  }
 
-    this.classes = sortClasses(application, classes);
-    this.protos = createMap(protos, this::failOnOverflow);
-    this.types = createMap(types, this::failOnOverflow);
-    this.methods = createMap(methods, this::failOnOverflow);
-    this.fields = createMap(fields, this::failOnOverflow);
-    this.strings = createMap(strings, this::setFirstJumboString);
-    this.callSites = createMap(callSites, this::failOnOverflow);
-    this.methodHandles = createMap(methodHandles, this::failOnOverflow);
+  // Runs the task on the executor, or right away if there is none.
+  private static <T> Future<T> submit(
+      ExecutorService executorService, List<Future<?>> futures, Callable<T> task) {
+    Future<T> future;
+    if (executorService == null) {
+      FutureTask<T> futureTask = new FutureTask<>(task);
+      futureTask.run();
+      future = futureTask;
+    } else {
+      future = executorService.submit(task);
+    }
+    futures.add(future);
+    return future;
   }
 
-  private void setFirstJumboString(DexString string) {
-    assert firstJumboString == null;
-    firstJumboString = string;
+  private static DexString findFirstJumboString(Reference2IntMap<DexString> strings) {
+    if (strings == null || strings.size() <= Constants.U16BIT_MAX + 1) {
+      return null;
+    }
+    for (Entry<DexString> entry : strings.reference2IntEntrySet()) {
+      if (entry.getIntValue() == Constants.U16BIT_MAX + 1) {
+        return entry.getKey();
+      }
+    }
+    throw new Unreachable();
   }
 
-  private void failOnOverflow(DexItem item) {
+  private static void failOnOverflow(DexItem item) {
     throw new CompilationError("Index overflow for " + item.getClass());
   }
 
-  private <T extends IndexedDexItem> Reference2IntMap<T> createMap(Collection<T> items,
-      Consumer<T> onUInt16Overflow) {
+  // Items of these kinds are sorted by their global sorted index, so sort the indices directly.
+  // If the items are the same as in the given previous map, it is still valid and reused. Only
+  // strings can have indices beyond 16 bits, for which jumbo instructions are used.
+  private static <T extends IndexedDexItem & PresortedComparable<T>>
+      Reference2IntMap<T> createPresortedMap(
+          Collection<T> items, Reference2IntMap<T> previous, boolean allowJumboIndices) {
+    if (items.isEmpty()) {
+      return null;
+    }
+    if (previous != null && previous.size() == items.size() && containsAll(previous, items)) {
+      return previous;
+    }
+    Object[] unsorted = items.toArray();
+    long[] keys = new long[unsorted.length];
+    for (int i = 0; i < unsorted.length; i++) {
+      int sortedIndex = ((IndexedDexItem) unsorted[i]).getSortedIndex();
+      assert sortedIndex >= 0;
+      keys[i] = ((long) sortedIndex << 32) | i;
+    }
+    Arrays.sort(keys);
+    Reference2IntMap<T> map = new Reference2IntLinkedOpenHashMap<>(unsorted.length);
+    map.defaultReturnValue(NOT_FOUND);
+    for (int index = 0; index < keys.length; index++) {
+      @SuppressWarnings("unchecked")
+      T item = (T) unsorted[(int) keys[index]];
+      if (index == Constants.U16BIT_MAX + 1 && !allowJumboIndices) {
+        failOnOverflow(item);
+      }
+      map.put(item, index);
+    }
+    return map;
+  }
+
+  private static <T> boolean containsAll(Reference2IntMap<T> map, Collection<T> items) {
+    for (T item : items) {
+      if (!map.containsKey(item)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static <T extends IndexedDexItem> Reference2IntMap<T> createMap(Collection<T> items) {
     if (items.isEmpty()) {
       return null;
     }
@@ -83,7 +214,7 @@ public class ObjectToOffsetMapping {
     int index = 0;
     for (T item : sorted) {
       if (index == Constants.U16BIT_MAX + 1) {
-        onUInt16Overflow.accept(item);
+        failOnOverflow(item);
       }
       map.put(item, index++);
     }
@@ -240,4 +371,33 @@ public class ObjectToOffsetMapping {
   public int getOffsetFor(DexMethodHandle methodHandle) {
     return getOffsetFor(methodHandle, methodHandles);
   }
+
+  /**
+   * Mappings of the previous build, so that {@link #create} can reuse the index maps of dex files
+   * whose items did not change.
+   *
+   * <p>Only the mappings of the files of the last build are kept: {@link #startBuild} drops the
+   * mappings of the build before, including those of files that are no longer written.
+   *
+   * <p>NOTE: get and put are thread-safe, startBuild must be called before either is used.
+   */
+  public static class Cache {
+    private Map<Object, ObjectToOffsetMapping> previous = Collections.emptyMap();
+    private Map<Object, ObjectToOffsetMapping> current = new ConcurrentHashMap<>();
+
+    /** Makes the mappings stored since the last call the ones returned by {@link #get}. */
+    public void startBuild() {
+      previous = current;
+      current = new ConcurrentHashMap<>();
+    }
+
+    /** Returns the mapping stored for the given dex file key by the previous build, or null. */
+    public ObjectToOffsetMapping get(Object fileKey) {
+      return previous.get(fileKey);
+    }
+
+    public void put(Object fileKey, ObjectToOffsetMapping mapping) {
+      current.put(fileKey, mapping);
+    }
+  }
 }
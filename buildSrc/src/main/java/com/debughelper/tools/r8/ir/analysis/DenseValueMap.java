@@ -0,0 +1,70 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.ir.analysis;
+
+import com.debughelper.tools.r8.ir.code.IRCode;
+import com.debughelper.tools.r8.ir.code.Value;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Map from the values of one method to lattice elements, stored in an array indexed by value
+ * number.
+ *
+ * <p>All values of an {@link IRCode} are numbered by its {@link
+ * com.debughelper.tools.r8.ir.code.ValueNumberGenerator}, so the numbers are dense. Values created
+ * while the map is in use, e.g., by inlining, get higher numbers and the array grows to hold them.
+ */
+public class DenseValueMap<E> {
+
+  private final E defaultElement;
+  private Value[] values;
+  private Object[] elements;
+
+  public DenseValueMap(IRCode code, E defaultElement) {
+    this.defaultElement = defaultElement;
+    int capacity = Math.max(code.valueNumberGenerator.getNumberOfValues(), 16);
+    values = new Value[capacity];
+    elements = new Object[capacity];
+  }
+
+  /** Returns the element of the value, or the default element if it has none. */
+  @SuppressWarnings("unchecked")
+  public E get(Value value) {
+    int number = value.getNumber();
+    assert number >= 0;
+    if (number < elements.length) {
+      Object element = elements[number];
+      if (element != null) {
+        assert values[number] == value;
+        return (E) element;
+      }
+    }
+    return defaultElement;
+  }
+
+  public void put(Value value, E element) {
+    assert element != null;
+    int number = value.getNumber();
+    assert number >= 0;
+    if (number >= elements.length) {
+      int capacity = Math.max(number + 1, elements.length * 2);
+      values = Arrays.copyOf(values, capacity);
+      elements = Arrays.copyOf(elements, capacity);
+    }
+    assert values[number] == null || values[number] == value;
+    values[number] = value;
+    elements[number] = element;
+  }
+
+  /** Applies the consumer to the values that have an element, in the order of their numbers. */
+  @SuppressWarnings("unchecked")
+  public void forEach(BiConsumer<Value, E> consumer) {
+    for (int i = 0; i < elements.length; i++) {
+      if (elements[i] != null) {
+        consumer.accept(values[i], (E) elements[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.ir.analysis;
+
+import com.debughelper.tools.r8.ir.code.IRCode;
+import com.debughelper.tools.r8.ir.code.Value;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * First-in first-out worklist of values of one method that holds each value at most once.
+ *
+ * <p>The queue is a circular array of value numbers and membership is a bit set over the value
+ * numbers, see {@link DenseValueMap} for the numbering.
+ */
+public class DenseValueWorklist {
+
+  private final BitSet members = new BitSet();
+  private Value[] values;
+  private int[] queue;
+  private int head = 0;
+  private int size = 0;
+
+  public DenseValueWorklist(IRCode code) {
+    int capacity = Math.max(code.valueNumberGenerator.getNumberOfValues(), 16);
+    values = new Value[capacity];
+    queue = new int[Integer.highestOneBit(capacity - 1) << 1];
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean contains(Value value) {
+    return members.get(value.getNumber());
+  }
+
+  /** Adds the value at the end, unless it is already in the worklist. */
+  public void add(Value value) {
+    int number = value.getNumber();
+    assert number >= 0;
+    if (members.get(number)) {
+      return;
+    }
+    members.set(number);
+    if (number >= values.length) {
+      values = Arrays.copyOf(values, Math.max(number + 1, values.length * 2));
+    }
+    values[number] = value;
+    if (size == queue.length) {
+      // Unwrap the queue into an array of twice the size.
+      int[] newQueue = new int[queue.length * 2];
+      System.arraycopy(queue, head, newQueue, 0, queue.length - head);
+      System.arraycopy(queue, 0, newQueue, queue.length - head, head);
+      queue = newQueue;
+      head = 0;
+    }
+    queue[(head + size) & (queue.length - 1)] = number;
+    size++;
+  }
+
+  /** Removes and returns the first value. */
+  public Value poll() {
+    assert !isEmpty();
+    int number = queue[head];
+    head = (head + 1) & (queue.length - 1);
+    size--;
+    members.clear(number);
+    return values[number];
+  }
+}
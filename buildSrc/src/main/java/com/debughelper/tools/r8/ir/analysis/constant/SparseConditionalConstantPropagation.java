@@ -16,13 +16,13 @@ import com.debughelper.tools.r8.ir.code.Phi;
 import com.debughelper.tools.r8.ir.code.Switch;
 import com.debughelper.tools.r8.ir.code.Value;
 
+import com.debughelper.tools.r8.ir.analysis.DenseValueMap;
+import com.debughelper.tools.r8.ir.analysis.DenseValueWorklist;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Deque;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Implementation of Sparse Conditional Constant Propagation from the paper of Wegman and Zadeck
@@ -32,15 +32,17 @@ import java.util.Map;
 public class SparseConditionalConstantPropagation {
 
   private final com.debughelper.tools.r8.ir.code.IRCode code;
-  private final Map<com.debughelper.tools.r8.ir.code.Value, com.debughelper.tools.r8.ir.analysis.constant.LatticeElement> mapping = new HashMap<>();
-  private final Deque<com.debughelper.tools.r8.ir.code.Value> ssaEdges = new LinkedList<>();
-  private final Deque<com.debughelper.tools.r8.ir.code.BasicBlock> flowEdges = new LinkedList<>();
+  private final DenseValueMap<LatticeElement> mapping;
+  private final DenseValueWorklist ssaEdges;
+  private final Deque<com.debughelper.tools.r8.ir.code.BasicBlock> flowEdges = new ArrayDeque<>();
   private final int nextBlockNumber;
   private final BitSet[] executableFlowEdges;
   private final BitSet visitedBlocks;
 
   public SparseConditionalConstantPropagation(IRCode code) {
     this.code = code;
+    mapping = new DenseValueMap<>(code, Top.getInstance());
+    ssaEdges = new DenseValueWorklist(code);
     nextBlockNumber = code.getHighestBlockNumber() + 1;
     executableFlowEdges = new BitSet[nextBlockNumber];
     visitedBlocks = new BitSet(nextBlockNumber);
@@ -81,37 +83,37 @@ public class SparseConditionalConstantPropagation {
   private void rewriteCode() {
     List<com.debughelper.tools.r8.ir.code.BasicBlock> blockToAnalyze = new ArrayList<>();
 
-    mapping.entrySet().stream()
-        .filter((entry) -> entry.getValue().isConst())
-        .forEach((entry) -> {
-          com.debughelper.tools.r8.ir.code.Value value = entry.getKey();
-          com.debughelper.tools.r8.ir.code.ConstNumber evaluatedConst = entry.getValue().asConst().getConstNumber();
-          if (value.definition != evaluatedConst) {
-            if (value.isPhi()) {
-              // D8Adapter relies on dead code removal to get rid of the dead phi itself.
-              if (value.numberOfAllUsers() != 0) {
-                com.debughelper.tools.r8.ir.code.BasicBlock block = value.asPhi().getBlock();
-                blockToAnalyze.add(block);
-                // Create a new constant, because it can be an existing constant that flow directly
-                // into the phi.
-                com.debughelper.tools.r8.ir.code.ConstNumber newConst = com.debughelper.tools.r8.ir.code.ConstNumber.copyOf(code, evaluatedConst);
-                com.debughelper.tools.r8.ir.code.InstructionListIterator iterator = block.listIterator();
-                com.debughelper.tools.r8.ir.code.Instruction inst = iterator.nextUntil((i) -> !i.isMoveException());
-                newConst.setPosition(inst.getPosition());
-                if (!inst.isDebugPosition()) {
-                  iterator.previous();
-                }
-                iterator.add(newConst);
-                value.replaceUsers(newConst.outValue());
-              }
-            } else {
-              com.debughelper.tools.r8.ir.code.BasicBlock block = value.definition.getBlock();
-              InstructionListIterator iterator = block.listIterator();
-              com.debughelper.tools.r8.ir.code.Instruction toReplace = iterator.nextUntil((i) -> i == value.definition);
-              iterator.replaceCurrentInstruction(evaluatedConst);
+    mapping.forEach((value, element) -> {
+      if (!element.isConst()) {
+        return;
+      }
+      com.debughelper.tools.r8.ir.code.ConstNumber evaluatedConst = element.asConst().getConstNumber();
+      if (value.definition != evaluatedConst) {
+        if (value.isPhi()) {
+          // D8Adapter relies on dead code removal to get rid of the dead phi itself.
+          if (value.numberOfAllUsers() != 0) {
+            com.debughelper.tools.r8.ir.code.BasicBlock block = value.asPhi().getBlock();
+            blockToAnalyze.add(block);
+            // Create a new constant, because it can be an existing constant that flow directly
+            // into the phi.
+            com.debughelper.tools.r8.ir.code.ConstNumber newConst = com.debughelper.tools.r8.ir.code.ConstNumber.copyOf(code, evaluatedConst);
+            com.debughelper.tools.r8.ir.code.InstructionListIterator iterator = block.listIterator();
+            com.debughelper.tools.r8.ir.code.Instruction inst = iterator.nextUntil((i) -> !i.isMoveException());
+            newConst.setPosition(inst.getPosition());
+            if (!inst.isDebugPosition()) {
+              iterator.previous();
             }
+            iterator.add(newConst);
+            value.replaceUsers(newConst.outValue());
           }
-        });
+        } else {
+          com.debughelper.tools.r8.ir.code.BasicBlock block = value.definition.getBlock();
+          InstructionListIterator iterator = block.listIterator();
+          com.debughelper.tools.r8.ir.code.Instruction toReplace = iterator.nextUntil((i) -> i == value.definition);
+          iterator.replaceCurrentInstruction(evaluatedConst);
+        }
+      }
+    });
 
     for (com.debughelper.tools.r8.ir.code.BasicBlock block : blockToAnalyze) {
       block.deduplicatePhis();
@@ -121,7 +123,7 @@ public class SparseConditionalConstantPropagation {
   }
 
   private com.debughelper.tools.r8.ir.analysis.constant.LatticeElement getLatticeElement(com.debughelper.tools.r8.ir.code.Value value) {
-    return mapping.getOrDefault(value, com.debughelper.tools.r8.ir.analysis.constant.Top.getInstance());
+    return mapping.get(value);
   }
 
   private void setLatticeElement(Value value, com.debughelper.tools.r8.ir.analysis.constant.LatticeElement element) {
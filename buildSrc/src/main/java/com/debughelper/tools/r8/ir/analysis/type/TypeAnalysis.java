@@ -10,6 +10,8 @@ import com.debughelper.tools.r8.ir.analysis.type.TypeLatticeElement;
 import com.debughelper.tools.r8.graph.AppInfo;
 import com.debughelper.tools.r8.graph.DexEncodedMethod;
 import com.debughelper.tools.r8.graph.DexType;
+import com.debughelper.tools.r8.ir.analysis.DenseValueMap;
+import com.debughelper.tools.r8.ir.analysis.DenseValueWorklist;
 import com.debughelper.tools.r8.ir.code.BasicBlock;
 import com.debughelper.tools.r8.ir.code.IRCode;
 import com.debughelper.tools.r8.ir.code.Instruction;
@@ -17,23 +19,21 @@ import com.debughelper.tools.r8.ir.code.InvokeMethodWithReceiver;
 import com.debughelper.tools.r8.ir.code.Phi;
 import com.debughelper.tools.r8.ir.code.Value;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.Maps;
-import java.util.ArrayDeque;
-import java.util.Deque;
 import java.util.List;
-import java.util.Map;
 import java.util.function.BiConsumer;
 
 public class TypeAnalysis implements com.debughelper.tools.r8.ir.analysis.type.TypeEnvironment {
   private final com.debughelper.tools.r8.graph.AppInfo appInfo;
   private final com.debughelper.tools.r8.graph.DexEncodedMethod encodedMethod;
 
-  private final Deque<com.debughelper.tools.r8.ir.code.Value> worklist = new ArrayDeque<>();
-  private final Map<com.debughelper.tools.r8.ir.code.Value, com.debughelper.tools.r8.ir.analysis.type.TypeLatticeElement> typeMap = Maps.newHashMap();
+  private final DenseValueWorklist worklist;
+  private final DenseValueMap<TypeLatticeElement> typeMap;
 
   public TypeAnalysis(AppInfo appInfo, DexEncodedMethod encodedMethod, IRCode code) {
     this.appInfo = appInfo;
     this.encodedMethod = encodedMethod;
+    this.worklist = new DenseValueWorklist(code);
+    this.typeMap = new DenseValueMap<>(code, Bottom.getInstance());
     analyzeBlocks(code.topologicallySortedBlocks());
   }
 
@@ -56,9 +56,7 @@ public class TypeAnalysis implements com.debughelper.tools.r8.ir.analysis.type.T
   @Override
   public void enqueue(com.debughelper.tools.r8.ir.code.Value v) {
     assert v != null;
-    if (!worklist.contains(v)) {
-      worklist.add(v);
-    }
+    worklist.add(v);
   }
 
   private void processBasicBlock(com.debughelper.tools.r8.ir.code.BasicBlock block) {
@@ -131,7 +129,7 @@ public class TypeAnalysis implements com.debughelper.tools.r8.ir.analysis.type.T
 
   @Override
   public com.debughelper.tools.r8.ir.analysis.type.TypeLatticeElement getLatticeElement(com.debughelper.tools.r8.ir.code.Value value) {
-    return typeMap.getOrDefault(value, Bottom.getInstance());
+    return typeMap.get(value);
   }
 
   @Override
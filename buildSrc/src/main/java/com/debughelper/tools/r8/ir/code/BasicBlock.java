@@ -39,7 +39,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -125,7 +124,7 @@ public class BasicBlock {
   // Catch handler information about which successors are catch handlers and what their guards are.
   private CatchHandlers<Integer> catchHandlers = CatchHandlers.EMPTY_INDICES;
 
-  private LinkedList<com.debughelper.tools.r8.ir.code.Instruction> instructions = new LinkedList<>();
+  private InstructionList instructions = new InstructionList();
   private int number = -1;
   private List<Phi> phis = new ArrayList<>();
 
@@ -449,7 +448,7 @@ public class BasicBlock {
     return nextInstructionNumber;
   }
 
-  public LinkedList<com.debughelper.tools.r8.ir.code.Instruction> getInstructions() {
+  public InstructionList getInstructions() {
     return instructions;
   }
 
@@ -458,13 +457,13 @@ public class BasicBlock {
   }
 
   public com.debughelper.tools.r8.ir.code.Instruction entry() {
-    return instructions.get(0);
+    return instructions.getFirst();
   }
 
   public JumpInstruction exit() {
     assert filled;
-    assert instructions.get(instructions.size() - 1).isJumpInstruction();
-    return instructions.get(instructions.size() - 1).asJumpInstruction();
+    assert instructions.getLast().isJumpInstruction();
+    return instructions.getLast().asJumpInstruction();
   }
 
   public com.debughelper.tools.r8.ir.code.Instruction exceptionalExit() {
@@ -1060,7 +1059,7 @@ public class BasicBlock {
     instructions.add(branch);
   }
 
-  public void setInstructions(LinkedList<com.debughelper.tools.r8.ir.code.Instruction> instructions) {
+  public void setInstructions(InstructionList instructions) {
     this.instructions = instructions;
   }
 
@@ -1070,19 +1069,18 @@ public class BasicBlock {
    */
   public void removeInstructions(List<Integer> toRemove) {
     if (!toRemove.isEmpty()) {
-      LinkedList<com.debughelper.tools.r8.ir.code.Instruction> newInstructions = new LinkedList<>();
+      ListIterator<com.debughelper.tools.r8.ir.code.Instruction> iterator = instructions.listIterator();
       int nextIndex = 0;
       for (Integer index : toRemove) {
         assert index >= nextIndex;  // Indexes in toRemove must be sorted ascending.
-        newInstructions.addAll(instructions.subList(nextIndex, index));
-        instructions.get(index).clearBlock();
-        nextIndex = index + 1;
-      }
-      if (nextIndex < instructions.size()) {
-        newInstructions.addAll(instructions.subList(nextIndex, instructions.size()));
+        while (nextIndex < index) {
+          iterator.next();
+          nextIndex++;
+        }
+        iterator.next().clearBlock();
+        iterator.remove();
+        nextIndex++;
       }
-      assert instructions.size() == newInstructions.size() + toRemove.size();
-      setInstructions(newInstructions);
     }
   }
 
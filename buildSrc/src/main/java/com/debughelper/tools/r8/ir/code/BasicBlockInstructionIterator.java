@@ -213,9 +213,9 @@ public class BasicBlockInstructionIterator implements InstructionIterator, com.d
     // Move all remaining instructions to the new block.
     while (listIterator.hasNext()) {
       com.debughelper.tools.r8.ir.code.Instruction instruction = listIterator.next();
+      listIterator.remove();
       newBlock.getInstructions().addLast(instruction);
       instruction.setBlock(newBlock);
-      listIterator.remove();
     }
 
     // Insert the new block in the block list right after the current block.
@@ -9,12 +9,15 @@ import com.debughelper.tools.r8.ir.code.MoveException;
 import com.debughelper.tools.r8.utils.CfgPrinter;
 import com.debughelper.tools.r8.utils.InternalOptions;
 import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashSet;
-import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -73,59 +76,105 @@ public class IRCode {
   /**
    * Compute the set of live values at the entry to each block using a backwards data-flow analysis.
    */
-  public Map<BasicBlock, Set<Value>> computeLiveAtEntrySets() {
-    Map<BasicBlock, Set<Value>> liveAtEntrySets = new IdentityHashMap<>();
-    Queue<BasicBlock> worklist = new ArrayDeque<>();
-    // Since this is a backwards data-flow analysis we process the blocks in reverse
-    // topological order to reduce the number of iterations.
+  public LiveAtEntrySets computeLiveAtEntrySets() {
+    LiveAtEntrySets liveAtEntrySets = new LiveAtEntrySets();
     ImmutableList<BasicBlock> sorted = topologicallySortedBlocks();
-    worklist.addAll(sorted.reverse());
-    while (!worklist.isEmpty()) {
-      BasicBlock block = worklist.poll();
-      Set<Value> live = new HashSet<>();
+    int numberOfBlocks = sorted.size();
+    Reference2IntMap<BasicBlock> positions = new Reference2IntOpenHashMap<>(numberOfBlocks);
+    positions.defaultReturnValue(-1);
+    for (int i = 0; i < numberOfBlocks; i++) {
+      positions.put(sorted.get(i), i);
+    }
+    // Summarize each block by the values used on its edges by the phis of its successors, the
+    // values it uses before they are defined, and the values it defines.
+    BitSet[] edgeUses = new BitSet[numberOfBlocks];
+    BitSet[] uses = new BitSet[numberOfBlocks];
+    BitSet[] definitions = new BitSet[numberOfBlocks];
+    for (int i = 0; i < numberOfBlocks; i++) {
+      BasicBlock block = sorted.get(i);
+      BitSet blockEdgeUses = new BitSet();
       for (BasicBlock succ : block.getSuccessors()) {
-        Set<Value> succLiveAtEntry = liveAtEntrySets.get(succ);
-        if (succLiveAtEntry != null) {
-          live.addAll(succLiveAtEntry);
-        }
         int predIndex = succ.getPredecessors().indexOf(block);
         for (Phi phi : succ.getPhis()) {
-          live.add(phi.getOperand(predIndex));
+          blockEdgeUses.set(liveAtEntrySets.getIndex(phi.getOperand(predIndex)));
           assert phi.getDebugValues().stream().allMatch(Value::needsRegister);
-          live.addAll(phi.getDebugValues());
+          for (Value value : phi.getDebugValues()) {
+            blockEdgeUses.set(liveAtEntrySets.getIndex(value));
+          }
         }
       }
+      BitSet blockUses = new BitSet();
+      BitSet blockDefinitions = new BitSet();
       ListIterator<Instruction> iterator =
           block.getInstructions().listIterator(block.getInstructions().size());
       while (iterator.hasPrevious()) {
         Instruction instruction = iterator.previous();
         if (instruction.outValue() != null) {
-          live.remove(instruction.outValue());
+          int index = liveAtEntrySets.getIndex(instruction.outValue());
+          blockUses.clear(index);
+          blockDefinitions.set(index);
         }
         for (Value use : instruction.inValues()) {
           if (use.needsRegister()) {
-            live.add(use);
+            blockUses.set(liveAtEntrySets.getIndex(use));
           }
         }
         assert instruction.getDebugValues().stream().allMatch(Value::needsRegister);
-        live.addAll(instruction.getDebugValues());
+        for (Value value : instruction.getDebugValues()) {
+          blockUses.set(liveAtEntrySets.getIndex(value));
+        }
       }
       for (Phi phi : block.getPhis()) {
-        live.remove(phi);
+        int index = liveAtEntrySets.getIndex(phi);
+        blockUses.clear(index);
+        blockDefinitions.set(index);
       }
-      Set<Value> previousLiveAtEntry = liveAtEntrySets.put(block, live);
+      edgeUses[i] = blockEdgeUses;
+      uses[i] = blockUses;
+      definitions[i] = blockDefinitions;
+    }
+    // Since this is a backwards data-flow analysis we process the blocks in reverse
+    // topological order to reduce the number of iterations.
+    BitSet[] liveAtEntry = new BitSet[numberOfBlocks];
+    IntArrayFIFOQueue worklist = new IntArrayFIFOQueue(numberOfBlocks);
+    BitSet inWorklist = new BitSet(numberOfBlocks);
+    for (int i = numberOfBlocks - 1; i >= 0; i--) {
+      worklist.enqueue(i);
+    }
+    inWorklist.set(0, numberOfBlocks);
+    while (!worklist.isEmpty()) {
+      int position = worklist.dequeueInt();
+      inWorklist.clear(position);
+      BasicBlock block = sorted.get(position);
+      BitSet live = (BitSet) edgeUses[position].clone();
+      for (BasicBlock succ : block.getSuccessors()) {
+        BitSet succLiveAtEntry = liveAtEntry[positions.getInt(succ)];
+        if (succLiveAtEntry != null) {
+          live.or(succLiveAtEntry);
+        }
+      }
+      live.andNot(definitions[position]);
+      live.or(uses[position]);
+      BitSet previousLiveAtEntry = liveAtEntry[position];
+      liveAtEntry[position] = live;
       // If the live-at-entry set changed, add the predecessors to the worklist if they are not
-      // already there.
+      // already there. Unreachable predecessors are not sorted and need no live-at-entry set.
       if (previousLiveAtEntry == null || !previousLiveAtEntry.equals(live)) {
         for (BasicBlock pred : block.getPredecessors()) {
-          if (!worklist.contains(pred)) {
-            worklist.add(pred);
+          int predPosition = positions.getInt(pred);
+          if (predPosition >= 0 && !inWorklist.get(predPosition)) {
+            worklist.enqueue(predPosition);
+            inWorklist.set(predPosition);
           }
         }
       }
     }
-    assert liveAtEntrySets.get(sorted.get(0)).size() == 0
-        : "Unexpected values live at entry to first block: " + liveAtEntrySets.get(sorted.get(0));
+    for (int i = 0; i < numberOfBlocks; i++) {
+      liveAtEntrySets.put(sorted.get(i), liveAtEntry[i]);
+    }
+    assert liveAtEntry[0].isEmpty()
+        : "Unexpected values live at entry to first block: "
+            + liveAtEntrySets.getValues(sorted.get(0));
     return liveAtEntrySets;
   }
 
@@ -53,6 +53,9 @@ public abstract class Instruction {
   private int number = -1;
   private Set<Value> debugValues = null;
   private Position position = null;
+  // Links of the instruction list of the block, see InstructionList.
+  Instruction prev = null;
+  Instruction next = null;
 
   protected Instruction(Value outValue) {
     setOutValue(outValue);
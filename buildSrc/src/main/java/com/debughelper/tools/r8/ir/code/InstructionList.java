@@ -0,0 +1,443 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.ir.code;
+
+import java.util.AbstractSequentialList;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The instructions of a basic block, as a doubly-linked list through the {@link Instruction#prev}
+ * and {@link Instruction#next} fields of the instructions themselves.
+ *
+ * <p>Behaves like a {@link java.util.LinkedList}, but does not allocate a node per element. As a
+ * consequence an instruction can only be in one such list at a time, i.e., an instruction moved
+ * to another block must be removed from its list before it is added to the other.
+ */
+public class InstructionList extends AbstractSequentialList<Instruction>
+    implements Deque<Instruction> {
+
+  private Instruction first = null;
+  private Instruction last = null;
+  private int size = 0;
+
+  private boolean isLinked(Instruction instruction) {
+    return instruction.prev != null || instruction.next != null || first == instruction;
+  }
+
+  private void linkBefore(Instruction instruction, Instruction successor) {
+    assert !isLinked(instruction) : "Instruction is already in a list: " + instruction;
+    Instruction predecessor = successor == null ? last : successor.prev;
+    instruction.prev = predecessor;
+    instruction.next = successor;
+    if (predecessor == null) {
+      first = instruction;
+    } else {
+      predecessor.next = instruction;
+    }
+    if (successor == null) {
+      last = instruction;
+    } else {
+      successor.prev = instruction;
+    }
+    size++;
+    modCount++;
+  }
+
+  private Instruction unlink(Instruction instruction) {
+    Instruction predecessor = instruction.prev;
+    Instruction successor = instruction.next;
+    if (predecessor == null) {
+      first = successor;
+    } else {
+      predecessor.next = successor;
+    }
+    if (successor == null) {
+      last = predecessor;
+    } else {
+      successor.prev = predecessor;
+    }
+    instruction.prev = null;
+    instruction.next = null;
+    size--;
+    modCount++;
+    return instruction;
+  }
+
+  // Puts the instruction in the place of the old one. As for LinkedList, this is not a structural
+  // modification.
+  private void replace(Instruction old, Instruction instruction) {
+    if (old == instruction) {
+      return;
+    }
+    assert !isLinked(instruction) : "Instruction is already in a list: " + instruction;
+    instruction.prev = old.prev;
+    instruction.next = old.next;
+    if (old.prev == null) {
+      first = instruction;
+    } else {
+      old.prev.next = instruction;
+    }
+    if (old.next == null) {
+      last = instruction;
+    } else {
+      old.next.prev = instruction;
+    }
+    old.prev = null;
+    old.next = null;
+  }
+
+  private Instruction instructionAt(int index) {
+    if (index < (size >> 1)) {
+      Instruction instruction = first;
+      for (int i = 0; i < index; i++) {
+        instruction = instruction.next;
+      }
+      return instruction;
+    }
+    Instruction instruction = last;
+    for (int i = size - 1; i > index; i--) {
+      instruction = instruction.prev;
+    }
+    return instruction;
+  }
+
+  private void checkElementIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public Instruction get(int index) {
+    checkElementIndex(index);
+    return instructionAt(index);
+  }
+
+  @Override
+  public Instruction set(int index, Instruction instruction) {
+    checkElementIndex(index);
+    Instruction old = instructionAt(index);
+    replace(old, instruction);
+    return old;
+  }
+
+  @Override
+  public boolean add(Instruction instruction) {
+    linkBefore(instruction, null);
+    return true;
+  }
+
+  @Override
+  public void add(int index, Instruction instruction) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    linkBefore(instruction, index == size ? null : instructionAt(index));
+  }
+
+  @Override
+  public Instruction remove(int index) {
+    checkElementIndex(index);
+    return unlink(instructionAt(index));
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    return removeFirstOccurrence(o);
+  }
+
+  @Override
+  public void clear() {
+    Instruction instruction = first;
+    while (instruction != null) {
+      Instruction next = instruction.next;
+      instruction.prev = null;
+      instruction.next = null;
+      instruction = next;
+    }
+    first = last = null;
+    size = 0;
+    modCount++;
+  }
+
+  @Override
+  public void addFirst(Instruction instruction) {
+    linkBefore(instruction, first);
+  }
+
+  @Override
+  public void addLast(Instruction instruction) {
+    linkBefore(instruction, null);
+  }
+
+  @Override
+  public boolean offerFirst(Instruction instruction) {
+    addFirst(instruction);
+    return true;
+  }
+
+  @Override
+  public boolean offerLast(Instruction instruction) {
+    addLast(instruction);
+    return true;
+  }
+
+  @Override
+  public Instruction removeFirst() {
+    if (first == null) {
+      throw new NoSuchElementException();
+    }
+    return unlink(first);
+  }
+
+  @Override
+  public Instruction removeLast() {
+    if (last == null) {
+      throw new NoSuchElementException();
+    }
+    return unlink(last);
+  }
+
+  @Override
+  public Instruction pollFirst() {
+    return first == null ? null : unlink(first);
+  }
+
+  @Override
+  public Instruction pollLast() {
+    return last == null ? null : unlink(last);
+  }
+
+  @Override
+  public Instruction getFirst() {
+    if (first == null) {
+      throw new NoSuchElementException();
+    }
+    return first;
+  }
+
+  @Override
+  public Instruction getLast() {
+    if (last == null) {
+      throw new NoSuchElementException();
+    }
+    return last;
+  }
+
+  @Override
+  public Instruction peekFirst() {
+    return first;
+  }
+
+  @Override
+  public Instruction peekLast() {
+    return last;
+  }
+
+  @Override
+  public boolean removeFirstOccurrence(Object o) {
+    for (Instruction instruction = first; instruction != null; instruction = instruction.next) {
+      if (instruction.equals(o)) {
+        unlink(instruction);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean removeLastOccurrence(Object o) {
+    for (Instruction instruction = last; instruction != null; instruction = instruction.prev) {
+      if (instruction.equals(o)) {
+        unlink(instruction);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean offer(Instruction instruction) {
+    return offerLast(instruction);
+  }
+
+  @Override
+  public Instruction remove() {
+    return removeFirst();
+  }
+
+  @Override
+  public Instruction poll() {
+    return pollFirst();
+  }
+
+  @Override
+  public Instruction element() {
+    return getFirst();
+  }
+
+  @Override
+  public Instruction peek() {
+    return peekFirst();
+  }
+
+  @Override
+  public void push(Instruction instruction) {
+    addFirst(instruction);
+  }
+
+  @Override
+  public Instruction pop() {
+    return removeFirst();
+  }
+
+  @Override
+  public Iterator<Instruction> iterator() {
+    return new ListItr(0);
+  }
+
+  @Override
+  public ListIterator<Instruction> listIterator(int index) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    return new ListItr(index);
+  }
+
+  @Override
+  public Iterator<Instruction> descendingIterator() {
+    ListItr iterator = new ListItr(size);
+    return new Iterator<Instruction>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasPrevious();
+      }
+
+      @Override
+      public Instruction next() {
+        return iterator.previous();
+      }
+
+      @Override
+      public void remove() {
+        iterator.remove();
+      }
+    };
+  }
+
+  private class ListItr implements ListIterator<Instruction> {
+
+    private Instruction lastReturned = null;
+    private Instruction next;
+    private int nextIndex;
+    private int expectedModCount = modCount;
+
+    ListItr(int index) {
+      next = index == size ? null : instructionAt(index);
+      nextIndex = index;
+    }
+
+    private void checkForComodification() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextIndex < size;
+    }
+
+    @Override
+    public Instruction next() {
+      checkForComodification();
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = next;
+      next = next.next;
+      nextIndex++;
+      return lastReturned;
+    }
+
+    @Override
+    public boolean hasPrevious() {
+      return nextIndex > 0;
+    }
+
+    @Override
+    public Instruction previous() {
+      checkForComodification();
+      if (!hasPrevious()) {
+        throw new NoSuchElementException();
+      }
+      next = next == null ? last : next.prev;
+      lastReturned = next;
+      nextIndex--;
+      return lastReturned;
+    }
+
+    @Override
+    public int nextIndex() {
+      return nextIndex;
+    }
+
+    @Override
+    public int previousIndex() {
+      return nextIndex - 1;
+    }
+
+    @Override
+    public void remove() {
+      checkForComodification();
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      if (next == lastReturned) {
+        next = lastReturned.next;
+      } else {
+        nextIndex--;
+      }
+      unlink(lastReturned);
+      lastReturned = null;
+      expectedModCount++;
+    }
+
+    @Override
+    public void set(Instruction instruction) {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      checkForComodification();
+      replace(lastReturned, instruction);
+      if (next == lastReturned) {
+        next = instruction;
+      }
+      lastReturned = instruction;
+    }
+
+    @Override
+    public void add(Instruction instruction) {
+      checkForComodification();
+      lastReturned = null;
+      linkBefore(instruction, next);
+      nextIndex++;
+      expectedModCount++;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.ir.code;
+
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The values live at entry to each block of a method.
+ *
+ * <p>The sets are bit sets over a dense numbering of the values of the method, which is assigned
+ * in the order in which the values are first seen and extended on demand.
+ */
+public class LiveAtEntrySets {
+
+  private final Reference2IntMap<Value> indices = new Reference2IntOpenHashMap<>();
+  private final List<Value> values = new ArrayList<>();
+  private final Map<BasicBlock, BitSet> sets = new IdentityHashMap<>();
+
+  LiveAtEntrySets() {
+    indices.defaultReturnValue(-1);
+  }
+
+  /** Returns the index of the value, numbering it if it has not been seen before. */
+  public int getIndex(Value value) {
+    int index = indices.getInt(value);
+    if (index < 0) {
+      index = values.size();
+      indices.put(value, index);
+      values.add(value);
+    }
+    return index;
+  }
+
+  /** Returns the index of the value, or -1 if it is not live anywhere. */
+  public int lookupIndex(Value value) {
+    return indices.getInt(value);
+  }
+
+  public Value getValue(int index) {
+    return values.get(index);
+  }
+
+  public int numberOfValues() {
+    return values.size();
+  }
+
+  /** Returns the set of indices of the values live at entry to the block. */
+  public BitSet get(BasicBlock block) {
+    return sets.get(block);
+  }
+
+  void put(BasicBlock block, BitSet live) {
+    sets.put(block, live);
+  }
+
+  public void add(BasicBlock block, Value value) {
+    sets.get(block).set(getIndex(value));
+  }
+
+  /** Adds the value to the set of every block. */
+  public void addToAll(Value value) {
+    int index = getIndex(value);
+    for (BitSet live : sets.values()) {
+      live.set(index);
+    }
+  }
+
+  /** Returns the values live at entry to the block, in the order of their indices. */
+  public List<Value> getValues(BasicBlock block) {
+    BitSet live = sets.get(block);
+    List<Value> result = new ArrayList<>(live.cardinality());
+    for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+      result.add(values.get(i));
+    }
+    return result;
+  }
+}
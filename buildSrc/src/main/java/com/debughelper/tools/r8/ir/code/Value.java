@@ -18,11 +18,11 @@ import com.debughelper.tools.r8.utils.LongInterval;
 import com.google.common.collect.ImmutableSet;
 import it.unimi.dsi.fastutil.ints.IntList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -99,14 +99,22 @@ public class Value {
 
   public static final int UNDEFINED_NUMBER = -1;
 
+  private static final int INITIAL_USERS_CAPACITY = 2;
+  private static final Instruction[] NO_USERS = new Instruction[0];
+  private static final Phi[] NO_PHI_USERS = new Phi[0];
+
   public static final Value UNDEFINED = new Value(UNDEFINED_NUMBER, com.debughelper.tools.r8.ir.code.ValueType.OBJECT, null);
 
   protected final int number;
   protected com.debughelper.tools.r8.ir.code.ValueType type;
   public com.debughelper.tools.r8.ir.code.Instruction definition = null;
-  private LinkedList<com.debughelper.tools.r8.ir.code.Instruction> users = new LinkedList<>();
+  // The users have an entry per use, i.e., an instruction that uses the value twice occurs twice.
+  // They are kept in arrays that grow on demand, as most values have only a few users.
+  private Instruction[] users = NO_USERS;
+  private int usersSize = 0;
   private Set<com.debughelper.tools.r8.ir.code.Instruction> uniqueUsers = null;
-  private LinkedList<com.debughelper.tools.r8.ir.code.Phi> phiUsers = new LinkedList<>();
+  private Phi[] phiUsers = NO_PHI_USERS;
+  private int phiUsersSize = 0;
   private Set<com.debughelper.tools.r8.ir.code.Phi> uniquePhiUsers = null;
   private Value nextConsecutive = null;
   private Value previousConsecutive = null;
@@ -252,14 +260,55 @@ public class Value {
     if (uniqueUsers != null) {
       return uniqueUsers;
     }
-    return uniqueUsers = ImmutableSet.copyOf(users);
+    return uniqueUsers = uniqueElements(users, usersSize);
   }
 
   public Set<com.debughelper.tools.r8.ir.code.Phi> uniquePhiUsers() {
     if (uniquePhiUsers != null) {
       return uniquePhiUsers;
     }
-    return uniquePhiUsers = ImmutableSet.copyOf(phiUsers);
+    return uniquePhiUsers = uniqueElements(phiUsers, phiUsersSize);
+  }
+
+  private static <T> Set<T> uniqueElements(T[] elements, int size) {
+    ImmutableSet.Builder<T> builder = ImmutableSet.builder();
+    for (int i = 0; i < size; i++) {
+      builder.add(elements[i]);
+    }
+    return builder.build();
+  }
+
+  // Stores the element at index size, growing the array if it is full.
+  private static <T> T[] append(T[] elements, int size, T element) {
+    if (size == elements.length) {
+      elements = Arrays.copyOf(elements, Math.max(INITIAL_USERS_CAPACITY, size * 2));
+    }
+    elements[size] = element;
+    return elements;
+  }
+
+  // Removes the first occurrence of the element and returns the new size.
+  private static int removeFirst(Object[] elements, int size, Object element) {
+    for (int i = 0; i < size; i++) {
+      if (elements[i].equals(element)) {
+        System.arraycopy(elements, i + 1, elements, i, size - i - 1);
+        elements[size - 1] = null;
+        return size - 1;
+      }
+    }
+    return size;
+  }
+
+  // Removes all occurrences of the element and returns the new size.
+  private static int removeAll(Object[] elements, int size, Object element) {
+    int newSize = 0;
+    for (int i = 0; i < size; i++) {
+      if (elements[i] != element) {
+        elements[newSize++] = elements[i];
+      }
+    }
+    Arrays.fill(elements, newSize, size, null);
+    return newSize;
   }
 
   public Set<com.debughelper.tools.r8.ir.code.Instruction> debugUsers() {
@@ -271,17 +320,15 @@ public class Value {
   }
 
   public int numberOfUsers() {
-    int size = users.size();
-    if (size <= 1) {
-      return size;
+    if (usersSize <= 1) {
+      return usersSize;
     }
     return uniqueUsers().size();
   }
 
   public int numberOfPhiUsers() {
-    int size = phiUsers.size();
-    if (size <= 1) {
-      return size;
+    if (phiUsersSize <= 1) {
+      return phiUsersSize;
     }
     return uniquePhiUsers().size();
   }
@@ -307,7 +354,7 @@ public class Value {
   }
 
   public boolean isUsed() {
-    return !users.isEmpty() || !phiUsers.isEmpty() || numberOfAllDebugUsers() > 0;
+    return usersSize > 0 || phiUsersSize > 0 || numberOfAllDebugUsers() > 0;
   }
 
   public boolean usedInMonitorOperation() {
@@ -320,24 +367,26 @@ public class Value {
   }
 
   public void addUser(com.debughelper.tools.r8.ir.code.Instruction user) {
-    users.add(user);
+    users = append(users, usersSize++, user);
     uniqueUsers = null;
   }
 
   public void removeUser(com.debughelper.tools.r8.ir.code.Instruction user) {
-    users.remove(user);
+    usersSize = removeFirst(users, usersSize, user);
     uniqueUsers = null;
   }
 
   private void fullyRemoveUser(com.debughelper.tools.r8.ir.code.Instruction user) {
-    users.removeIf(u -> u == user);
+    usersSize = removeAll(users, usersSize, user);
     uniqueUsers = null;
   }
 
   public void clearUsers() {
-    users.clear();
+    Arrays.fill(users, 0, usersSize, null);
+    usersSize = 0;
     uniqueUsers = null;
-    phiUsers.clear();
+    Arrays.fill(phiUsers, 0, phiUsersSize, null);
+    phiUsersSize = 0;
     uniquePhiUsers = null;
     if (debugData != null) {
       debugData.users.clear();
@@ -346,17 +395,17 @@ public class Value {
   }
 
   public void addPhiUser(com.debughelper.tools.r8.ir.code.Phi user) {
-    phiUsers.add(user);
+    phiUsers = append(phiUsers, phiUsersSize++, user);
     uniquePhiUsers = null;
   }
 
   public void removePhiUser(com.debughelper.tools.r8.ir.code.Phi user) {
-    phiUsers.remove(user);
+    phiUsersSize = removeFirst(phiUsers, phiUsersSize, user);
     uniquePhiUsers = null;
   }
 
   private void fullyRemovePhiUser(com.debughelper.tools.r8.ir.code.Phi user) {
-    phiUsers.removeIf(u -> u == user);
+    phiUsersSize = removeAll(phiUsers, phiUsersSize, user);
     uniquePhiUsers = null;
   }
 
@@ -400,8 +449,10 @@ public class Value {
 
   public void clearUsersInfo() {
     users = null;
+    usersSize = 0;
     uniqueUsers = null;
     phiUsers = null;
+    phiUsersSize = 0;
     uniquePhiUsers = null;
     if (debugData != null) {
       debugData.users = null;
@@ -514,6 +565,10 @@ public class Value {
     liveIntervals = intervals;
   }
 
+  public void clearLiveIntervals() {
+    liveIntervals = null;
+  }
+
   public LiveIntervals getLiveIntervals() {
     return liveIntervals;
   }
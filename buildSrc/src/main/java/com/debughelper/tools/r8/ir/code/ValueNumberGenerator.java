@@ -9,4 +9,9 @@ public class ValueNumberGenerator {
   public int next() {
     return nextValueNumber++;
   }
+
+  /** Returns the number of values numbered so far, which is one more than the highest number. */
+  public int getNumberOfValues() {
+    return nextValueNumber;
+  }
 }
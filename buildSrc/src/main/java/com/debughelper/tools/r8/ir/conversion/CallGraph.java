@@ -22,20 +22,23 @@ import com.debughelper.tools.r8.utils.InternalOptions;
 import com.debughelper.tools.r8.utils.ThreadUtils;
 import com.debughelper.tools.r8.utils.ThrowingBiConsumer;
 import com.google.common.collect.Sets;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 /**
  * Call graph representation.
@@ -138,16 +141,38 @@ public class CallGraph extends CallSiteInformation {
   private final Set<com.debughelper.tools.r8.graph.DexEncodedMethod> singleCallSite = Sets.newIdentityHashSet();
   private final Set<com.debughelper.tools.r8.graph.DexEncodedMethod> doubleCallSite = Sets.newIdentityHashSet();
 
+  /**
+   * Builds the call graph of the program.
+   *
+   * <p>The calls of the methods of each class are collected concurrently. They are added to the
+   * graph afterwards on the calling thread, in the order of the classes and their methods, so that
+   * the graph, and thus the way cycles are broken, does not depend on the scheduling.
+   */
   public static CallGraph build(com.debughelper.tools.r8.graph.DexApplication application, Enqueuer.AppInfoWithLiveness appInfo,
-                                com.debughelper.tools.r8.graph.GraphLense graphLense, InternalOptions options) {
+                                com.debughelper.tools.r8.graph.GraphLense graphLense, InternalOptions options,
+                                ExecutorService executorService) throws ExecutionException {
     CallGraph graph = new CallGraph(options);
     com.debughelper.tools.r8.graph.DexClass[] classes = application.classes().toArray(new com.debughelper.tools.r8.graph.DexClass[application.classes().size()]);
     Arrays.sort(classes, (com.debughelper.tools.r8.graph.DexClass a, com.debughelper.tools.r8.graph.DexClass b) -> a.type.slowCompareTo(b.type));
+    List<Future<List<InvokeExtractor>>> futures = new ArrayList<>(classes.length);
     for (com.debughelper.tools.r8.graph.DexClass clazz : classes) {
-      for (com.debughelper.tools.r8.graph.DexEncodedMethod method : clazz.allMethodsSorted()) {
-        Node node = graph.ensureMethodNode(method);
-        InvokeExtractor extractor = new InvokeExtractor(appInfo, graphLense, node, graph);
-        method.registerCodeReferences(extractor);
+      futures.add(executorService.submit(() -> {
+        List<InvokeExtractor> extractors = new ArrayList<>();
+        for (com.debughelper.tools.r8.graph.DexEncodedMethod method : clazz.allMethodsSorted()) {
+          InvokeExtractor extractor = new InvokeExtractor(appInfo, graphLense, method);
+          method.registerCodeReferences(extractor);
+          extractors.add(extractor);
+        }
+        return extractors;
+      }));
+    }
+    ThreadUtils.awaitFutures(futures);
+    for (Future<List<InvokeExtractor>> future : futures) {
+      for (InvokeExtractor extractor : getResult(future)) {
+        Node caller = graph.ensureMethodNode(extractor.caller);
+        for (com.debughelper.tools.r8.graph.DexEncodedMethod target : extractor.targets) {
+          graph.addCall(caller, graph.ensureMethodNode(target));
+        }
       }
     }
     assert allMethodsExists(application, graph);
@@ -157,6 +182,14 @@ public class CallGraph extends CallSiteInformation {
     return graph;
   }
 
+  private static <T> T getResult(Future<T> future) throws ExecutionException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted while waiting for future.", e);
+    }
+  }
+
   /**
    * Check if the <code>method</code> is guaranteed to only have a single call site.
    * <p>
@@ -196,27 +229,6 @@ public class CallGraph extends CallSiteInformation {
     return true;
   }
 
-  /**
-   * Extract the next set of leaves (nodes with an call (outgoing) degree of 0) if any.
-   * <p>
-   * All nodes in the graph are extracted if called repeatedly until null is returned.
-   * Please note that there are no cycles in this graph (see {@link #breakCycles}).
-   * <p>
-   */
-  private Set<com.debughelper.tools.r8.graph.DexEncodedMethod> extractLeaves() {
-    if (isEmpty()) {
-      return Collections.emptySet();
-    }
-    // First identify all leaves before removing them from the graph.
-    List<Node> leaves = nodes.values().stream().filter(Node::isLeaf).collect(Collectors.toList());
-    leaves.forEach(leaf -> {
-      leaf.callers.forEach(caller -> caller.callees.remove(leaf));
-      nodes.remove(leaf.method);
-    });
-    return shuffle.apply(leaves.stream().map(leaf -> leaf.method)
-        .collect(Collectors.toCollection(LinkedHashSet::new)));
-  }
-
   private int traverse(Node node, Set<Node> stack, Set<Node> marked) {
     int numberOfCycles = 0;
     if (!marked.contains(node)) {
@@ -261,11 +273,11 @@ public class CallGraph extends CallSiteInformation {
     return numberOfCycles;
   }
 
-  synchronized private Node ensureMethodNode(com.debughelper.tools.r8.graph.DexEncodedMethod method) {
+  private Node ensureMethodNode(com.debughelper.tools.r8.graph.DexEncodedMethod method) {
     return nodes.computeIfAbsent(method, k -> new Node(method));
   }
 
-  synchronized private void addCall(Node caller, Node callee) {
+  private void addCall(Node caller, Node callee) {
     assert caller != null;
     assert callee != null;
     if (caller != callee) {
@@ -282,27 +294,79 @@ public class CallGraph extends CallSiteInformation {
   }
 
   /**
-   * Applies the given method to all leaf nodes of the graph.
+   * Applies the given method to all methods of the graph, callees before their callers.
+   * <p>
+   * A method is scheduled as soon as all of its callees have been processed, so methods are not
+   * processed in strict waves of leaves. Please note that there are no cycles in this graph (see
+   * {@link #breakCycles}). All methods have been processed when this returns, and the graph is
+   * empty.
    * <p>
-   * As second parameter, a predicate that can be used to decide whether another method is
+   * As second parameter, a predicate that can be used to decide whether another method may be
    * processed at the same time is passed. This can be used to avoid races in concurrent processing.
+   * The predicate holds for every method of the graph that has not been processed completely,
+   * which includes the methods that have not been scheduled yet. All direct and transitive callees
+   * of a method have been processed before it is scheduled.
    */
   public <E extends Exception> void forEachMethod(
       ThrowingBiConsumer<com.debughelper.tools.r8.graph.DexEncodedMethod, Predicate<com.debughelper.tools.r8.graph.DexEncodedMethod>, E> consumer,
       ExecutorService executorService)
       throws ExecutionException {
-    while (!isEmpty()) {
-      Set<com.debughelper.tools.r8.graph.DexEncodedMethod> methods = extractLeaves();
-      assert methods.size() > 0;
-      List<Future<?>> futures = new ArrayList<>();
-      for (com.debughelper.tools.r8.graph.DexEncodedMethod method : methods) {
-        futures.add(executorService.submit(() -> {
-          consumer.accept(method, methods::contains);
-          return null; // we want a Callable not a Runnable to be able to throw
-        }));
+    // Number of callees of each method that still have to be processed.
+    Reference2IntMap<Node> pendingCallees = new Reference2IntOpenHashMap<>();
+    Set<com.debughelper.tools.r8.graph.DexEncodedMethod> ready = new LinkedHashSet<>();
+    for (Node node : nodes.values()) {
+      if (node.isLeaf()) {
+        ready.add(node.method);
+      } else {
+        pendingCallees.put(node, node.callees.size());
       }
-      ThreadUtils.awaitFutures(futures);
     }
+    // The bookkeeping is done on this thread, the tasks only report that they are done.
+    BlockingQueue<Node> processed = new LinkedBlockingQueue<>();
+    Set<Node> done = Sets.newConcurrentHashSet();
+    Map<Node, Future<?>> running = new IdentityHashMap<>();
+    int remaining = nodes.size();
+    try {
+      while (remaining > 0) {
+        for (com.debughelper.tools.r8.graph.DexEncodedMethod method : shuffle.apply(ready)) {
+          Node node = nodes.get(method);
+          running.put(node, executorService.submit(() -> {
+            try {
+              consumer.accept(method, other -> isProcessedConcurrently(done, other));
+            } finally {
+              done.add(node);
+              processed.add(node);
+            }
+            return null; // we want a Callable not a Runnable to be able to throw
+          }));
+        }
+        ready.clear();
+        Node node = processed.take();
+        remaining--;
+        getResult(running.remove(node));
+        for (Node caller : node.callers) {
+          int pending = pendingCallees.getInt(caller) - 1;
+          if (pending == 0) {
+            pendingCallees.removeInt(caller);
+            ready.add(caller.method);
+          } else {
+            pendingCallees.put(caller, pending);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted while waiting for future.", e);
+    } finally {
+      // Make sure no task is still running if one of them failed.
+      ThreadUtils.awaitFutures(running.values());
+    }
+    nodes.clear();
+  }
+
+  private boolean isProcessedConcurrently(
+      Set<Node> done, com.debughelper.tools.r8.graph.DexEncodedMethod method) {
+    Node other = nodes.get(method);
+    return other != null && !done.contains(other);
   }
 
   public void dump() {
@@ -311,17 +375,17 @@ public class CallGraph extends CallSiteInformation {
 
   private static class InvokeExtractor extends UseRegistry {
 
-    Enqueuer.AppInfoWithLiveness appInfo;
-    com.debughelper.tools.r8.graph.GraphLense graphLense;
-    Node caller;
-    CallGraph graph;
+    final Enqueuer.AppInfoWithLiveness appInfo;
+    final com.debughelper.tools.r8.graph.GraphLense graphLense;
+    final com.debughelper.tools.r8.graph.DexEncodedMethod caller;
+    // The methods called by the caller, in the order the calls are found.
+    final List<com.debughelper.tools.r8.graph.DexEncodedMethod> targets = new ArrayList<>();
 
-    InvokeExtractor(Enqueuer.AppInfoWithLiveness appInfo, GraphLense graphLense, Node caller,
-                    CallGraph graph) {
+    InvokeExtractor(Enqueuer.AppInfoWithLiveness appInfo, GraphLense graphLense,
+        com.debughelper.tools.r8.graph.DexEncodedMethod caller) {
       this.appInfo = appInfo;
       this.graphLense = graphLense;
       this.caller = caller;
-      this.graph = graph;
     }
 
     private void addClassInitializerTarget(com.debughelper.tools.r8.graph.DexClass clazz) {
@@ -343,8 +407,7 @@ public class CallGraph extends CallSiteInformation {
     }
 
     private void addTarget(com.debughelper.tools.r8.graph.DexEncodedMethod target) {
-      Node callee = graph.ensureMethodNode(target);
-      graph.addCall(caller, callee);
+      targets.add(target);
     }
 
     private void addPossibleTarget(com.debughelper.tools.r8.graph.DexEncodedMethod possibleTarget) {
@@ -365,11 +428,11 @@ public class CallGraph extends CallSiteInformation {
     }
 
     private void processInvoke(Invoke.Type type, com.debughelper.tools.r8.graph.DexMethod method) {
-      com.debughelper.tools.r8.graph.DexEncodedMethod source = caller.method;
+      com.debughelper.tools.r8.graph.DexEncodedMethod source = caller;
       method = graphLense.lookupMethod(method, source, type);
       com.debughelper.tools.r8.graph.DexEncodedMethod definition = appInfo.lookup(type, method, source.method.holder);
       if (definition != null) {
-        assert !source.accessFlags.isBridge() || definition != caller.method;
+        assert !source.accessFlags.isBridge() || definition != caller;
         DexClass definitionHolder = appInfo.definitionFor(definition.method.getHolder());
         assert definitionHolder != null;
         if (!definitionHolder.isLibraryClass()) {
@@ -119,7 +119,7 @@ public class DexSourceCode implements SourceCode {
 
   @Override
   public int instructionCount() {
-    return code.instructions.length;
+    return code.getInstructions().length;
   }
 
   @Override
@@ -137,8 +137,8 @@ public class DexSourceCode implements SourceCode {
   @Override
   public void setUp() {
     // Collect all payloads in the instruction stream.
-    for (int index = 0; index < code.instructions.length; index++) {
-      com.debughelper.tools.r8.code.Instruction insn = code.instructions[index];
+    for (int index = 0; index < code.getInstructions().length; index++) {
+      com.debughelper.tools.r8.code.Instruction insn = code.getInstructions()[index];
       offsetToInstructionIndex.put(insn.getOffset(), index);
       if (insn.isPayload()) {
         if (insn.isSwitchPayload()) {
@@ -179,7 +179,7 @@ public class DexSourceCode implements SourceCode {
       IRBuilder builder, int instructionIndex, boolean firstBlockInstruction) {
     updateCurrentCatchHandlers(instructionIndex);
     updateDebugPosition(instructionIndex, builder);
-    currentDexInstruction = code.instructions[instructionIndex];
+    currentDexInstruction = code.getInstructions()[instructionIndex];
     currentDexInstruction.buildIR(builder);
   }
 
@@ -299,7 +299,7 @@ public class DexSourceCode implements SourceCode {
 
   @Override
   public int instructionOffset(int instructionIndex) {
-    return code.instructions[instructionIndex].getOffset();
+    return code.getInstructions()[instructionIndex].getOffset();
   }
 
   @Override
@@ -353,7 +353,7 @@ public class DexSourceCode implements SourceCode {
 
   @Override
   public int traceInstruction(int index, IRBuilder builder) {
-    com.debughelper.tools.r8.code.Instruction dex = code.instructions[index];
+    com.debughelper.tools.r8.code.Instruction dex = code.getInstructions()[index];
     int offset = dex.getOffset();
     assert !dex.isPayload();
     int[] targets = dex.getTargets();
@@ -371,7 +371,8 @@ public class DexSourceCode implements SourceCode {
       if (tryRange != null) {
         // Ensure the block starts at the start of the try-range (don't enqueue, not a target).
         int tryRangeStartAddress = tryRange.startAddress;
-        if (isMoveResult(code.instructions[offsetToInstructionIndex.get(tryRangeStartAddress)])) {
+        int tryRangeStartIndex = offsetToInstructionIndex.get(tryRangeStartAddress);
+        if (isMoveResult(code.getInstructions()[tryRangeStartIndex])) {
           // If a handler range starts at a move result instruction it is safe to start it at
           // the following instruction since the move-result cannot throw an exception. Doing so
           // makes sure that we do not split an invoke and its move result instruction across
@@ -384,10 +385,11 @@ public class DexSourceCode implements SourceCode {
           builder.ensureExceptionalSuccessorBlock(offset, handlerOffset);
         }
         // If the following instruction is a move-result include it in this (the invokes) block.
-        if (index + 1 < code.instructions.length && isMoveResult(code.instructions[index + 1])) {
+        if (index + 1 < code.getInstructions().length
+            && isMoveResult(code.getInstructions()[index + 1])) {
           assert isInvoke(dex);
           ++index;
-          dex = code.instructions[index];
+          dex = code.getInstructions()[index];
         }
         // Edge to normal successor if any (fallthrough).
         if (!(dex instanceof com.debughelper.tools.r8.code.Throw)) {
@@ -57,6 +57,7 @@ import com.debughelper.tools.r8.ir.code.ValueType;
 import com.debughelper.tools.r8.ir.desugar.LambdaRewriter;
 import com.debughelper.tools.r8.ir.desugar.StringConcatRewriter;
 import com.debughelper.tools.r8.ir.regalloc.LinearScanRegisterAllocator;
+import com.debughelper.tools.r8.ir.regalloc.LiveIntervalsArena;
 import com.debughelper.tools.r8.ir.regalloc.RegisterAllocator;
 import com.debughelper.tools.r8.logging.Log;
 import com.debughelper.tools.r8.naming.IdentifierNameStringMarker;
@@ -68,16 +69,22 @@ import com.debughelper.tools.r8.utils.ThreadUtils;
 import com.debughelper.tools.r8.utils.Timing;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
+import it.unimi.dsi.fastutil.objects.Reference2LongMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
@@ -87,6 +94,10 @@ import java.util.stream.Collectors;
 public class IRConverter {
 
   private static final int PEEPHOLE_OPTIMIZATION_PASSES = 2;
+  // Estimated cost below which a class is never split into several conversion tasks.
+  private static final long MIN_COST_FOR_SPLITTING = 20000;
+  // Number of conversion tasks per thread that large classes are split for.
+  private static final int TASKS_PER_THREAD = 4;
 
   private final com.debughelper.tools.r8.utils.Timing timing;
   public final com.debughelper.tools.r8.graph.AppInfo appInfo;
@@ -112,6 +123,8 @@ public class IRConverter {
   private final com.debughelper.tools.r8.ir.conversion.OptimizationFeedback ignoreOptimizationFeedback = new OptimizationFeedbackIgnore();
   private final com.debughelper.tools.r8.ir.conversion.OptimizationFeedback simpleOptimizationFeedback = new OptimizationFeedbackSimple();
   private com.debughelper.tools.r8.graph.DexString highestSortingString;
+  // Time of the register allocation of each method, only collected when printing times.
+  private final Queue<ConversionTask> registerAllocations;
 
   private IRConverter(
       com.debughelper.tools.r8.graph.AppInfo appInfo,
@@ -128,9 +141,10 @@ public class IRConverter {
     this.graphLense = graphLense != null ? graphLense : com.debughelper.tools.r8.graph.GraphLense.getIdentityLense();
     this.options = options;
     this.printer = printer;
+    this.registerAllocations = options.printTimes ? new ConcurrentLinkedQueue<>() : null;
     this.codeRewriter = new CodeRewriter(appInfo, libraryMethodsReturningReceiver(), options);
     this.stringConcatRewriter = new StringConcatRewriter(options.itemFactory);
-    this.lambdaRewriter = options.enableDesugaring ? new LambdaRewriter(this) : null;
+    this.lambdaRewriter = options.enableDesugaring ? new LambdaRewriter(this, options) : null;
     this.interfaceMethodRewriter =
         (options.enableDesugaring && enableInterfaceMethodDesugaring())
             ? new com.debughelper.tools.r8.ir.desugar.InterfaceMethodRewriter(this, options) : null;
@@ -269,10 +283,33 @@ public class IRConverter {
 
   public com.debughelper.tools.r8.graph.DexApplication convertToDex(com.debughelper.tools.r8.graph.DexApplication application, ExecutorService executor)
       throws ExecutionException {
+    return convertToDex(application, executor, clazz -> true);
+  }
+
+  /**
+   * Convert the program classes accepted by {@code needsConversion} to dex.
+   *
+   * <p>Used when updating an application incrementally (see {@link
+   * com.debughelper.tools.r8.dex.IncrementalApplicationReader}): all classes which are not
+   * accepted must already have been converted in a previous build, and the highest sorting string
+   * of that build is retained.
+   */
+  public com.debughelper.tools.r8.graph.DexApplication convertToDex(
+      com.debughelper.tools.r8.graph.DexApplication application,
+      ExecutorService executor,
+      Predicate<com.debughelper.tools.r8.graph.DexProgramClass> needsConversion)
+      throws ExecutionException {
     removeLambdaDeserializationMethods();
 
     timing.begin("IR conversion");
-    convertClassesToDex(application.classes(), executor);
+    highestSortingString = application.highestSortingString;
+    List<com.debughelper.tools.r8.graph.DexProgramClass> classes = new ArrayList<>();
+    for (com.debughelper.tools.r8.graph.DexProgramClass clazz : application.classes()) {
+      if (needsConversion.test(clazz)) {
+        classes.add(clazz);
+      }
+    }
+    convertClassesToDex(classes, executor);
 
     // Build a new application with jumbo string info,
     com.debughelper.tools.r8.graph.DexApplication.Builder<?> builder = application.builder();
@@ -358,11 +395,66 @@ public class IRConverter {
 
   private void convertClassesToDex(Iterable<com.debughelper.tools.r8.graph.DexProgramClass> classes,
       ExecutorService executor) throws ExecutionException {
-    List<Future<?>> futures = new ArrayList<>();
-    for (com.debughelper.tools.r8.graph.DexProgramClass clazz : classes) {
-      futures.add(executor.submit(() -> convertMethodsToDex(clazz)));
+    // Schedule the most expensive classes first, so that they do not end up as stragglers.
+    List<DexProgramClass> sortedClasses = new ArrayList<>();
+    Reference2LongMap<DexProgramClass> costs = new Reference2LongOpenHashMap<>();
+    long totalCost = 0;
+    for (DexProgramClass clazz : classes) {
+      long cost = estimateConversionCost(clazz);
+      sortedClasses.add(clazz);
+      costs.put(clazz, cost);
+      totalCost += cost;
+    }
+    sortedClasses.sort(Comparator.comparingLong(costs::getLong).reversed());
+    // Classes that are a large part of the total work are split into tasks for groups of methods.
+    int parallelism = executor instanceof ForkJoinPool
+        ? ((ForkJoinPool) executor).getParallelism()
+        : Runtime.getRuntime().availableProcessors();
+    long maxTaskCost =
+        Math.max(MIN_COST_FOR_SPLITTING, totalCost / (parallelism * TASKS_PER_THREAD));
+    timing.begin("Convert classes to dex");
+    Queue<Future<?>> futures = new ConcurrentLinkedQueue<>();
+    Queue<ConversionTask> tasks = options.printTimes ? new ConcurrentLinkedQueue<>() : null;
+    for (DexProgramClass clazz : sortedClasses) {
+      if (costs.getLong(clazz) > maxTaskCost) {
+        futures.add(executor.submit(
+            () -> timeTask(tasks, clazz.toSourceString() + " <clinit>",
+                () -> convertMethodsToDex(clazz, maxTaskCost, executor, futures, tasks))));
+      } else {
+        futures.add(executor.submit(
+            () -> timeTask(tasks, clazz.toSourceString(), () -> convertMethodsToDex(clazz))));
+      }
     }
-    com.debughelper.tools.r8.utils.ThreadUtils.awaitFutures(futures);
+    // Tasks for groups of methods are added while waiting.
+    List<Future<?>> submitted = new ArrayList<>();
+    for (Future<?> future = futures.poll(); future != null; future = futures.poll()) {
+      submitted.add(future);
+      if (futures.isEmpty()) {
+        com.debughelper.tools.r8.utils.ThreadUtils.awaitFutures(submitted);
+        submitted.clear();
+      }
+    }
+    if (tasks != null) {
+      reportSlowestTasks(tasks);
+    }
+    reportRegisterAllocations();
+    timing.end();
+  }
+
+  private static long estimateConversionCost(DexProgramClass clazz) {
+    long cost = 0;
+    for (DexEncodedMethod method : clazz.directMethods()) {
+      cost += estimateConversionCost(method);
+    }
+    for (DexEncodedMethod method : clazz.virtualMethods()) {
+      cost += estimateConversionCost(method);
+    }
+    return cost;
+  }
+
+  private static long estimateConversionCost(DexEncodedMethod method) {
+    // Every method has some fixed cost, also if there is no code to convert.
+    return method.getCode() == null ? 1 : 1 + method.getCode().estimatedConversionCost();
   }
 
   private void convertMethodsToDex(com.debughelper.tools.r8.graph.DexProgramClass clazz) {
@@ -380,6 +472,103 @@ public class IRConverter {
     });
   }
 
+  // Converts <clinit> and then submits the other methods of the class in groups, of which the
+  // estimated cost does not exceed the given maximum unless a method does so by itself.
+  private void convertMethodsToDex(
+      DexProgramClass clazz,
+      long maxTaskCost,
+      ExecutorService executor,
+      Queue<Future<?>> futures,
+      Queue<ConversionTask> tasks) {
+    List<DexEncodedMethod> methods = new ArrayList<>();
+    clazz.forEachMethod(method -> {
+      if (method.isClassInitializer()) {
+        convertMethodToDex(method);
+      } else {
+        methods.add(method);
+      }
+    });
+    // Code that is parsed lazily is parsed for all methods of the class at once, which must not
+    // happen concurrently.
+    for (DexEncodedMethod method : methods) {
+      Code code = method.getCode();
+      if (code != null && code.isJarCode()) {
+        code.asJarCode().getNode();
+      } else if (code != null && code.isCfCode()) {
+        code.asCfCode();
+      }
+    }
+    int start = 0;
+    long cost = 0;
+    for (int i = 0; i < methods.size(); i++) {
+      cost += estimateConversionCost(methods.get(i));
+      if (cost >= maxTaskCost || i == methods.size() - 1) {
+        List<DexEncodedMethod> group = methods.subList(start, i + 1);
+        String name = clazz.toSourceString() + " methods " + start + " to " + i;
+        futures.add(executor.submit(
+            () -> timeTask(tasks, name, () -> group.forEach(this::convertMethodToDex))));
+        start = i + 1;
+        cost = 0;
+      }
+    }
+  }
+
+  private static class ConversionTask {
+    final String name;
+    final long duration;
+
+    ConversionTask(String name, long duration) {
+      this.name = name;
+      this.duration = duration;
+    }
+  }
+
+  private static void timeTask(Queue<ConversionTask> tasks, String name, Runnable task) {
+    if (tasks == null) {
+      task.run();
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      task.run();
+    } finally {
+      tasks.add(new ConversionTask(name, System.nanoTime() - start));
+    }
+  }
+
+  private void reportSlowestTasks(Collection<ConversionTask> tasks) {
+    timing.add(tasks.size() + " tasks", 0);
+    reportSlowest(tasks, "");
+  }
+
+  private void reportSlowest(Collection<ConversionTask> tasks, String prefix) {
+    List<ConversionTask> sortedTasks = new ArrayList<>(tasks);
+    sortedTasks.sort(Comparator.comparingLong((ConversionTask task) -> task.duration).reversed());
+    for (ConversionTask task : sortedTasks.subList(0, Math.min(sortedTasks.size(), 10))) {
+      timing.add(prefix + task.name, task.duration);
+    }
+  }
+
+  // Reports the total time of the register allocations since the last report, and the slowest
+  // methods to allocate registers for.
+  private void reportRegisterAllocations() {
+    if (registerAllocations == null || registerAllocations.isEmpty()) {
+      return;
+    }
+    List<ConversionTask> allocations = new ArrayList<>();
+    for (ConversionTask task = registerAllocations.poll();
+        task != null;
+        task = registerAllocations.poll()) {
+      allocations.add(task);
+    }
+    long total = 0;
+    for (ConversionTask allocation : allocations) {
+      total += allocation.duration;
+    }
+    timing.add("Register allocation of " + allocations.size() + " methods", total);
+    reportSlowest(allocations, "Register allocation of ");
+  }
+
   private void convertMethodToDex(com.debughelper.tools.r8.graph.DexEncodedMethod method) {
     assert options.isGeneratingDex();
     if (method.getCode() != null) {
@@ -420,7 +609,7 @@ public class IRConverter {
     {
       timing.begin("Build call graph");
       CallGraph callGraph = CallGraph
-          .build(application, appInfo.withLiveness(), graphLense, options);
+          .build(application, appInfo.withLiveness(), graphLense, options, executorService);
       timing.end();
       timing.begin("IR conversion phase 1");
       BiConsumer<com.debughelper.tools.r8.ir.code.IRCode, com.debughelper.tools.r8.graph.DexEncodedMethod> outlineHandler =
@@ -431,6 +620,7 @@ public class IRConverter {
                 method, directFeedback, isProcessedConcurrently, callGraph, outlineHandler);
           },
           executorService);
+      reportRegisterAllocations();
       timing.end();
     }
 
@@ -473,6 +663,7 @@ public class IRConverter {
         builder.addSynthesizedClass(outlineClass, true);
         clearDexMethodCompilationState(outlineClass);
       }
+      reportRegisterAllocations();
       timing.end();
     }
     clearDexMethodCompilationState();
@@ -552,7 +743,8 @@ public class IRConverter {
     }
     assert code.isConsistentSSA();
     code.traceBlocks();
-    com.debughelper.tools.r8.ir.regalloc.RegisterAllocator registerAllocator = performRegisterAllocation(code, method);
+    RegisterAllocator registerAllocator =
+        performRegisterAllocation(code, method, LiveIntervalsArena.NON_RECYCLING);
     method.setCode(code, registerAllocator, options);
     if (com.debughelper.tools.r8.logging.Log.ENABLED) {
       com.debughelper.tools.r8.logging.Log.debug(getClass(), "Resulting dex code for %s:\n%s",
@@ -649,6 +841,11 @@ public class IRConverter {
     printC1VisualizerHeader(method);
     printMethod(code, "Initial IR (SSA)");
 
+    if (options.fastDebugCompilation) {
+      desugarCode(method, code, feedback);
+      return;
+    }
+
     if (options.canHaveArtStringNewInitBug()) {
       codeRewriter.ensureDirectStringNewToInit(code);
     }
@@ -788,6 +985,43 @@ public class IRConverter {
     finalizeIR(method, code, feedback);
   }
 
+  // Counterpart of rewriteCode for fast debug compilation. Only performs the rewritings that are
+  // needed for the code to run correctly on the targeted VMs, in the same order as rewriteCode.
+  private void desugarCode(
+      DexEncodedMethod method, IRCode code, OptimizationFeedback feedback) {
+    assert options.debug;
+    assert lensCodeRewriter == null && protoLiteRewriter == null;
+    assert inliner == null && outliner == null && classInliner == null;
+    if (options.canHaveArtStringNewInitBug()) {
+      CodeRewriter.ensureDirectStringNewToInit(code);
+    }
+    if (options.disableAssertions) {
+      codeRewriter.disableAssertions(appInfo, method, code, feedback);
+    }
+    codeRewriter.rewriteLongCompareAndRequireNonNull(code, options);
+    if (options.enableDesugaring && enableTryWithResourcesDesugaring()) {
+      codeRewriter.rewriteThrowableAddAndGetSuppressed(code);
+    }
+    stringConcatRewriter.desugarStringConcats(method.method, code);
+    if (lambdaRewriter != null) {
+      lambdaRewriter.desugarLambdas(method, code);
+      assert code.isConsistentSSA();
+    }
+    if (interfaceMethodRewriter != null) {
+      interfaceMethodRewriter.rewriteMethodReferences(method, code);
+      assert code.isConsistentSSA();
+    }
+    if (options.methodMatchesLogArgumentsFilter(method)) {
+      codeRewriter.logArgumentTypes(method, code);
+      assert code.isConsistentSSA();
+    }
+    if (options.canHaveNumberConversionRegisterAllocationBug()) {
+      codeRewriter.workaroundNumberConversionRegisterAllocationBug(code);
+    }
+    printMethod(code, "Desugared IR (SSA)");
+    finalizeIR(method, code, feedback);
+  }
+
   private void finalizeIR(com.debughelper.tools.r8.graph.DexEncodedMethod method, com.debughelper.tools.r8.ir.code.IRCode code, com.debughelper.tools.r8.ir.conversion.OptimizationFeedback feedback) {
     code.traceBlocks();
     if (options.isGeneratingClassFiles()) {
@@ -810,15 +1044,20 @@ public class IRConverter {
     // Workaround massive dex2oat memory use for self-recursive methods.
     CodeRewriter.disableDex2OatInliningForSelfRecursiveMethods(code, options);
     // Perform register allocation.
-    com.debughelper.tools.r8.ir.regalloc.RegisterAllocator registerAllocator = performRegisterAllocation(code, method);
-    method.setCode(code, registerAllocator, options);
-    updateHighestSortingStrings(method);
-    if (com.debughelper.tools.r8.logging.Log.ENABLED) {
-      com.debughelper.tools.r8.logging.Log.debug(getClass(), "Resulting dex code for %s:\n%s",
-          method.toSourceString(), logCode(options, method));
+    LiveIntervalsArena arena = LiveIntervalsArena.acquire(options);
+    try {
+      RegisterAllocator registerAllocator = performRegisterAllocation(code, method, arena);
+      method.setCode(code, registerAllocator, options);
+      updateHighestSortingStrings(method);
+      if (Log.ENABLED) {
+        Log.debug(getClass(), "Resulting dex code for %s:\n%s",
+            method.toSourceString(), logCode(options, method));
+      }
+      printMethod(code, "Final IR (non-SSA)");
+      markProcessed(method, code, feedback);
+    } finally {
+      arena.release();
     }
-    printMethod(code, "Final IR (non-SSA)");
-    markProcessed(method, code, feedback);
   }
 
   private void markProcessed(com.debughelper.tools.r8.graph.DexEncodedMethod method, com.debughelper.tools.r8.ir.code.IRCode code, OptimizationFeedback feedback) {
@@ -842,21 +1081,29 @@ public class IRConverter {
     }
   }
 
-  private RegisterAllocator performRegisterAllocation(com.debughelper.tools.r8.ir.code.IRCode code, com.debughelper.tools.r8.graph.DexEncodedMethod method) {
+  private RegisterAllocator performRegisterAllocation(
+      IRCode code, DexEncodedMethod method, LiveIntervalsArena arena) {
     // Always perform dead code elimination before register allocation. The register allocator
     // does not allow dead code (to make sure that we do not waste registers for unneeded values).
     DeadCodeRemover.removeDeadCode(code, codeRewriter, graphLense, options);
     materializeInstructionBeforeLongOperationsWorkaround(code);
     workaroundForwardingInitializerBug(code);
-    com.debughelper.tools.r8.ir.regalloc.LinearScanRegisterAllocator registerAllocator = new LinearScanRegisterAllocator(code, options);
+    com.debughelper.tools.r8.ir.regalloc.LinearScanRegisterAllocator registerAllocator = new LinearScanRegisterAllocator(code, options, arena);
+    long start = registerAllocations == null ? 0 : System.nanoTime();
     registerAllocator.allocateRegisters(options.debug);
+    if (registerAllocations != null) {
+      registerAllocations.add(
+          new ConversionTask(method.toSourceString(), System.nanoTime() - start));
+    }
     if (options.canHaveExceptionTargetingLoopHeaderBug()) {
       codeRewriter.workaroundExceptionTargetingLoopHeaderBug(code);
     }
     printMethod(code, "After register allocation (non-SSA)");
-    for (int i = 0; i < PEEPHOLE_OPTIMIZATION_PASSES; i++) {
-      CodeRewriter.collapsTrivialGotos(method, code);
-      PeepholeOptimizer.optimize(code, registerAllocator);
+    if (!options.fastDebugCompilation) {
+      for (int i = 0; i < PEEPHOLE_OPTIMIZATION_PASSES; i++) {
+        CodeRewriter.collapsTrivialGotos(method, code);
+        PeepholeOptimizer.optimize(code, registerAllocator);
+      }
     }
     CodeRewriter.collapsTrivialGotos(method, code);
     if (com.debughelper.tools.r8.logging.Log.ENABLED) {
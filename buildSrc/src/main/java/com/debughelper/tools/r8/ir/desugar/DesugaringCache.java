@@ -0,0 +1,88 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.ir.desugar;
+
+import com.debughelper.tools.r8.graph.DexItemFactory;
+import com.debughelper.tools.r8.graph.DexMethod;
+import com.debughelper.tools.r8.graph.DexProgramClass;
+import com.debughelper.tools.r8.graph.DexType;
+import com.debughelper.tools.r8.ir.code.Invoke;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the lambda classes synthesized by {@link LambdaRewriter}, after their conversion to dex,
+ * so that later compilations can reuse them instead of synthesizing and converting them again.
+ *
+ * <p>A lambda class is looked up by everything its code is derived from: its type, which includes
+ * the hash of the call site and, if needed, the class it is accessed from, the method it delegates
+ * to and how, and the min API level. Cached classes refer to items of the {@link DexItemFactory}
+ * they were created with, so the cache must only be shared between compilations with the same
+ * item factory, see {@link com.debughelper.tools.r8.dex.IncrementalApplicationReader}.
+ *
+ * <p>The cache keeps its own copies of the classes, and each compilation gets new copies of their
+ * fields and methods, so that no compilation sees the changes another one makes to them.
+ */
+public class DesugaringCache {
+
+  private final Map<LambdaClassKey, DexProgramClass> lambdaClasses = new ConcurrentHashMap<>();
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  DexProgramClass lookupLambdaClass(LambdaClass lambdaClass, int minApiLevel) {
+    DexProgramClass result = lambdaClasses.get(new LambdaClassKey(lambdaClass, minApiLevel));
+    (result == null ? misses : hits).incrementAndGet();
+    return result;
+  }
+
+  void putLambdaClass(LambdaClass lambdaClass, int minApiLevel, DexProgramClass converted) {
+    lambdaClasses.put(new LambdaClassKey(lambdaClass, minApiLevel), converted);
+  }
+
+  /** Number of lambda classes reused from the cache since it was created. */
+  public int getHits() {
+    return hits.get();
+  }
+
+  /** Number of lambda classes that had to be synthesized since the cache was created. */
+  public int getMisses() {
+    return misses.get();
+  }
+
+  private static class LambdaClassKey {
+    private final DexType type;
+    private final Class<?> targetKind;
+    private final DexMethod callTarget;
+    private final Invoke.Type invokeType;
+    private final int minApiLevel;
+
+    LambdaClassKey(LambdaClass lambdaClass, int minApiLevel) {
+      this.type = lambdaClass.type;
+      this.targetKind = lambdaClass.target.getClass();
+      this.callTarget = lambdaClass.target.callTarget;
+      this.invokeType = lambdaClass.target.invokeType;
+      this.minApiLevel = minApiLevel;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(type, callTarget, invokeType, minApiLevel);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof LambdaClassKey)) {
+        return false;
+      }
+      LambdaClassKey key = (LambdaClassKey) other;
+      return type == key.type
+          && targetKind == key.targetKind
+          && callTarget == key.callTarget
+          && invokeType == key.invokeType
+          && minApiLevel == key.minApiLevel;
+    }
+  }
+}
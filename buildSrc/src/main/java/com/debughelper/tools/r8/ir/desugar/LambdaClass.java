@@ -149,6 +149,46 @@ final class LambdaClass {
         synthesizedFrom);
   }
 
+  // Creates the lambda class from copies of the fields and converted methods of the given lambda
+  // class with the same type, descriptor and target, see DesugaringCache. The copies can be
+  // optimized and rewritten without affecting other compilations that use the same class.
+  final DexProgramClass copyLambdaClass(DexProgramClass from) {
+    assert from.type == type;
+    return new DexProgramClass(
+        type,
+        null,
+        from.origin,
+        from.accessFlags.copy(),
+        from.superType,
+        from.interfaces,
+        from.sourceFile,
+        null,
+        Collections.emptyList(),
+        DexAnnotationSet.empty(),
+        copyFields(from.staticFields()),
+        copyFields(from.instanceFields()),
+        copyMethods(from.directMethods()),
+        copyMethods(from.virtualMethods()),
+        rewriter.factory.getSkipNameValidationForTesting(),
+        synthesizedFrom);
+  }
+
+  private static DexEncodedField[] copyFields(DexEncodedField[] fields) {
+    DexEncodedField[] copies = new DexEncodedField[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      copies[i] = fields[i].copy();
+    }
+    return copies;
+  }
+
+  private static DexEncodedMethod[] copyMethods(DexEncodedMethod[] methods) {
+    DexEncodedMethod[] copies = new DexEncodedMethod[methods.length];
+    for (int i = 0; i < methods.length; i++) {
+      copies[i] = methods[i].copy();
+    }
+    return copies;
+  }
+
   final DexField getCaptureField(int index) {
     return rewriter.factory.createField(this.type,
         descriptor.captures.values[index], rewriter.factory.createString("f$" + index));
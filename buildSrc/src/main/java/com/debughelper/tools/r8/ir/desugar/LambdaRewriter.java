@@ -27,6 +27,8 @@ import com.debughelper.tools.r8.ir.code.ValueType;
 import com.debughelper.tools.r8.ir.conversion.IRConverter;
 import com.debughelper.tools.r8.ir.code.InvokeDirect;
 import com.debughelper.tools.r8.ir.code.Value;
+import com.debughelper.tools.r8.utils.InternalOptions;
+import com.debughelper.tools.r8.utils.StringDiagnostic;
 
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
@@ -51,6 +53,7 @@ public class LambdaRewriter {
   static final String LAMBDA_INSTANCE_FIELD_NAME = "INSTANCE";
 
   final IRConverter converter;
+  final InternalOptions options;
   final AppInfo appInfo;
   final DexItemFactory factory;
 
@@ -79,9 +82,10 @@ public class LambdaRewriter {
     return clazz.getName().startsWith(LAMBDA_CLASS_NAME_PREFIX);
   }
 
-  public LambdaRewriter(IRConverter converter) {
+  public LambdaRewriter(IRConverter converter, InternalOptions options) {
     assert converter != null;
     this.converter = converter;
+    this.options = options;
     this.factory = converter.appInfo.dexItemFactory;
     this.appInfo = converter.appInfo;
 
@@ -171,13 +175,38 @@ public class LambdaRewriter {
     }
   }
 
-  /** Generates lambda classes and adds them to the builder. */
+  /**
+   * Generates lambda classes and adds them to the builder.
+   *
+   * <p>If there is a {@link InternalOptions#desugaringCache}, lambda classes converted by a
+   * previous compilation are taken from it instead of being synthesized again.
+   */
   public void synthesizeLambdaClasses(Builder<?> builder) {
+    DesugaringCache cache = options.desugaringCache;
+    int reused = 0;
     for (LambdaClass lambdaClass : knownLambdaClasses.values()) {
-      DexProgramClass synthesizedClass = lambdaClass.synthesizeLambdaClass();
-      converter.optimizeSynthesizedClass(synthesizedClass);
+      DexProgramClass cachedClass =
+          cache == null ? null : cache.lookupLambdaClass(lambdaClass, options.minApiLevel);
+      DexProgramClass synthesizedClass;
+      if (cachedClass != null) {
+        synthesizedClass = lambdaClass.copyLambdaClass(cachedClass);
+        reused++;
+      } else {
+        synthesizedClass = lambdaClass.synthesizeLambdaClass();
+        converter.optimizeSynthesizedClass(synthesizedClass);
+        if (cache != null) {
+          cache.putLambdaClass(
+              lambdaClass, options.minApiLevel, lambdaClass.copyLambdaClass(synthesizedClass));
+        }
+      }
       builder.addSynthesizedClass(synthesizedClass, lambdaClass.addToMainDexList.get());
     }
+    if (cache != null && options.verbose) {
+      options.reporter.info(
+          new StringDiagnostic(
+              "Lambda classes reused: " + reused
+                  + ", synthesized: " + (knownLambdaClasses.size() - reused)));
+    }
   }
 
   // Matches invoke-custom instruction operands to infer lambda descriptor
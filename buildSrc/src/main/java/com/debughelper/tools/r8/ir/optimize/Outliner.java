@@ -65,6 +65,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 import org.objectweb.asm.Opcodes;
 
 /**
@@ -138,6 +139,8 @@ public class Outliner {
     final List<Integer> argumentMap;
     final List<com.debughelper.tools.r8.ir.code.Instruction> templateInstructions = new ArrayList<>();
     final public com.debughelper.tools.r8.graph.DexType returnType;
+    // Hash of the parts of the outline compared by equals, see computeHash().
+    private final int hash;
 
     private com.debughelper.tools.r8.graph.DexProto proto;
 
@@ -150,16 +153,41 @@ public class Outliner {
       this.argumentMap = argumentMap;
       this.returnType = returnType;
 
+      int instructionsHash = 0;
       for (int i = start; i < end; i++) {
         com.debughelper.tools.r8.ir.code.Instruction current = instructions.get(i);
         if (current.isInvoke() || current.isNewInstance() || current.isArithmeticBinop()) {
           templateInstructions.add(current);
+          instructionsHash = instructionsHash * 31 + instructionHash(current);
         } else if (current.isConstInstruction()) {
           // Don't include const instructions in the template.
         } else {
           assert false : "Unexpected type of instruction in outlining template.";
         }
       }
+      this.hash = computeHash(instructionsHash);
+    }
+
+    // The hash is computed once, as outlines are looked up in hash maps shared by all methods.
+    // It only covers parts that cannot change after the outline is built (the invoked method,
+    // instantiated class or numeric type of each instruction, the argument map and the return
+    // type), as optimizations may still modify the instructions, e.g. remove unused out-values.
+    private int computeHash(int instructionsHash) {
+      int result = templateInstructions.size();
+      result = result * 31 + instructionsHash;
+      result = result * 31 + argumentMap.hashCode();
+      return result * 31 + returnType.hashCode();
+    }
+
+    private int instructionHash(com.debughelper.tools.r8.ir.code.Instruction instruction) {
+      if (instruction.isInvokeMethod()) {
+        return instruction.asInvokeMethod().getInvokedMethod().hashCode();
+      }
+      if (instruction.isNewInstance()) {
+        return instruction.asNewInstance().clazz.hashCode();
+      }
+      assert instruction.isArithmeticBinop();
+      return instruction.asBinop().getNumericType().ordinal();
     }
 
     int argumentCount() {
@@ -184,6 +212,9 @@ public class Outliner {
       if (!(other instanceof Outline)) {
         return false;
       }
+      if (hash != ((Outline) other).hash) {
+        return false;
+      }
       List<com.debughelper.tools.r8.ir.code.Instruction> instructions0 = this.templateInstructions;
       List<com.debughelper.tools.r8.ir.code.Instruction> instructions1 = ((Outline) other).templateInstructions;
       if (instructions0.size() != instructions1.size()) {
@@ -206,18 +237,6 @@ public class Outliner {
 
     @Override
     public int hashCode() {
-      final int MAX_HASH_INSTRUCTIONS = 5;
-
-      int hash = templateInstructions.size();
-      int hashPart = 0;
-      for (int i = 0; i < templateInstructions.size() && i < MAX_HASH_INSTRUCTIONS; i++) {
-        com.debughelper.tools.r8.ir.code.Instruction instruction = templateInstructions.get(i);
-        if (instruction.isInvokeMethod()) {
-          hashPart = hashPart << 4;
-          hashPart += instruction.asInvokeMethod().getInvokedMethod().hashCode();
-        }
-        hash = hash * 3 + hashPart;
-      }
       return hash;
     }
 
@@ -353,6 +372,8 @@ public class Outliner {
     com.debughelper.tools.r8.ir.code.Value returnValue;
     int returnValueUsersLeft;
     int pendingNewInstanceIndex = -1;
+    // Set when the argument lists are handed to an outline, so that reset allocates new ones.
+    private boolean argumentListsInUse = true;
 
     OutlineSpotter(com.debughelper.tools.r8.graph.DexEncodedMethod method, com.debughelper.tools.r8.ir.code.BasicBlock block) {
       this.method = method;
@@ -660,6 +681,7 @@ public class Outliner {
 
       Outline outline = new Outline(
           instructions, arguments, argumentTypes, argumentsMap, returnType, start, end);
+      argumentListsInUse = true;
       handle(start, end, outline);
 
       // Start a new candidate search from the next instruction after this outline.
@@ -671,9 +693,16 @@ public class Outliner {
       start = startIndex;
       index = startIndex;
       actualInstructions = 0;
-      arguments = new ArrayList<>(MAX_IN_SIZE);
-      argumentTypes = new ArrayList<>(MAX_IN_SIZE);
-      argumentsMap = new ArrayList<>(MAX_IN_SIZE);
+      if (argumentListsInUse) {
+        arguments = new ArrayList<>(MAX_IN_SIZE);
+        argumentTypes = new ArrayList<>(MAX_IN_SIZE);
+        argumentsMap = new ArrayList<>(MAX_IN_SIZE);
+        argumentListsInUse = false;
+      } else {
+        arguments.clear();
+        argumentTypes.clear();
+        argumentsMap.clear();
+      }
       argumentRegisters = 0;
       returnType = dexItemFactory.voidType;
       returnValue = null;
@@ -682,45 +711,23 @@ public class Outliner {
     }
   }
 
-  // Collect outlining candidates with the methods that can use them.
-  // TODO(sgjesse): This does not take several usages in the same method into account.
-  private class OutlineMethodIdentifier extends OutlineSpotter {
+  // Collect the outlines of a block. Methods are processed concurrently, so the outlines of a
+  // method are collected locally and then added to the shared map in one go, see addOutlines().
+  private class OutlineCollector extends OutlineSpotter {
 
-    private final Map<Outline, List<com.debughelper.tools.r8.graph.DexEncodedMethod>> candidateMap;
+    private final List<Outline> outlines;
 
-    OutlineMethodIdentifier(
+    OutlineCollector(
         com.debughelper.tools.r8.graph.DexEncodedMethod method,
         com.debughelper.tools.r8.ir.code.BasicBlock block,
-        Map<Outline, List<com.debughelper.tools.r8.graph.DexEncodedMethod>> candidateMap) {
+        List<Outline> outlines) {
       super(method, block);
-      this.candidateMap = candidateMap;
+      this.outlines = outlines;
     }
 
     @Override
     protected void handle(int start, int end, Outline outline) {
-      synchronized (candidateMap) {
-        candidateMap.computeIfAbsent(outline, this::addOutlineMethodList).add(method);
-      }
-    }
-
-    private List<com.debughelper.tools.r8.graph.DexEncodedMethod> addOutlineMethodList(Outline outline) {
-      List<com.debughelper.tools.r8.graph.DexEncodedMethod> result = new ArrayList<>();
-      candidateMethodLists.add(result);
-      return result;
-    }
-  }
-
-  private class OutlineSiteIdentifier extends OutlineSpotter {
-
-    OutlineSiteIdentifier(com.debughelper.tools.r8.graph.DexEncodedMethod method, com.debughelper.tools.r8.ir.code.BasicBlock block) {
-      super(method, block);
-    }
-
-    @Override
-    protected void handle(int start, int end, Outline outline) {
-      synchronized (outlineSites) {
-        outlineSites.computeIfAbsent(outline, k -> new ArrayList<>()).add(method);
-      }
+      outlines.add(outline);
     }
   }
 
@@ -831,16 +838,43 @@ public class Outliner {
     assert candidateMethodLists.isEmpty();
     return (code, method) -> {
       assert !(method.getCode() instanceof OutlineCode);
-      for (com.debughelper.tools.r8.ir.code.BasicBlock block : code.blocks) {
-        new OutlineMethodIdentifier(method, block, candidateMap).process();
-      }
+      // TODO(sgjesse): This does not take several usages in the same method into account.
+      addOutlines(collectOutlines(code, method), method, candidateMap, this::addOutlineMethodList);
     };
   }
 
+  private List<com.debughelper.tools.r8.graph.DexEncodedMethod> addOutlineMethodList(Outline outline) {
+    List<com.debughelper.tools.r8.graph.DexEncodedMethod> result = new ArrayList<>();
+    candidateMethodLists.add(result);
+    return result;
+  }
+
   public void identifyOutlineSites(com.debughelper.tools.r8.ir.code.IRCode code, com.debughelper.tools.r8.graph.DexEncodedMethod method) {
     assert !(method.getCode() instanceof OutlineCode);
+    addOutlines(collectOutlines(code, method), method, outlineSites, k -> new ArrayList<>());
+  }
+
+  private List<Outline> collectOutlines(
+      com.debughelper.tools.r8.ir.code.IRCode code, com.debughelper.tools.r8.graph.DexEncodedMethod method) {
+    List<Outline> outlines = new ArrayList<>();
     for (com.debughelper.tools.r8.ir.code.BasicBlock block : code.blocks) {
-      new OutlineSiteIdentifier(method, block).process();
+      new OutlineCollector(method, block, outlines).process();
+    }
+    return outlines;
+  }
+
+  private static void addOutlines(
+      List<Outline> outlines,
+      com.debughelper.tools.r8.graph.DexEncodedMethod method,
+      Map<Outline, List<com.debughelper.tools.r8.graph.DexEncodedMethod>> map,
+      Function<Outline, List<com.debughelper.tools.r8.graph.DexEncodedMethod>> newList) {
+    if (outlines.isEmpty()) {
+      return;
+    }
+    synchronized (map) {
+      for (Outline outline : outlines) {
+        map.computeIfAbsent(outline, newList).add(method);
+      }
     }
   }
 
@@ -10,6 +10,7 @@ import com.debughelper.tools.r8.ir.code.DebugLocalsChange;
 import com.debughelper.tools.r8.ir.code.Goto;
 import com.debughelper.tools.r8.ir.code.IRCode;
 import com.debughelper.tools.r8.ir.code.Instruction;
+import com.debughelper.tools.r8.ir.code.InstructionList;
 import com.debughelper.tools.r8.ir.code.InstructionListIterator;
 import com.debughelper.tools.r8.ir.code.Value;
 import com.debughelper.tools.r8.ir.regalloc.LinearScanRegisterAllocator;
@@ -24,7 +25,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -136,8 +136,8 @@ public class PeepholeOptimizer {
     if (successorBlock == null) {
       newBlock.getInstructions().removeLast();
     }
-    com.debughelper.tools.r8.ir.code.InstructionListIterator from =
-        first.listIterator(first.getInstructions().size() - offsetFromEnd);
+    ListIterator<com.debughelper.tools.r8.ir.code.Instruction> from =
+        first.getInstructions().listIterator(first.getInstructions().size() - offsetFromEnd);
     Int2ReferenceMap<com.debughelper.tools.r8.graph.DebugLocalInfo> newBlockEntryLocals =
         (successorBlock == null || successorBlock.getLocalsAtEntry() == null)
             ? new Int2ReferenceOpenHashMap<>()
@@ -146,6 +146,7 @@ public class PeepholeOptimizer {
     for (int i = offsetFromEnd; i < suffixSize; i++) {
       com.debughelper.tools.r8.ir.code.Instruction instruction = from.previous();
       movedThrowingInstruction = movedThrowingInstruction || instruction.instructionTypeCanThrow();
+      from.remove();
       newBlock.getInstructions().addFirst(instruction);
       instruction.setBlock(newBlock);
       if (instruction.isDebugLocalsChange()) {
@@ -163,8 +164,9 @@ public class PeepholeOptimizer {
       newBlock.transferCatchHandlers(first);
     }
     for (com.debughelper.tools.r8.ir.code.BasicBlock pred : preds) {
-      LinkedList<com.debughelper.tools.r8.ir.code.Instruction> instructions = pred.getInstructions();
-      for (int i = 0; i < suffixSize; i++) {
+      InstructionList instructions = pred.getInstructions();
+      // The suffix of the first predecessor has already been moved to the new block.
+      for (int i = pred == first ? offsetFromEnd : suffixSize; i > 0; i--) {
         instructions.removeLast();
       }
       com.debughelper.tools.r8.ir.code.Goto jump = new com.debughelper.tools.r8.ir.code.Goto();
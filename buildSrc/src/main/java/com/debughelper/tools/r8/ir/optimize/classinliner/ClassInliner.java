@@ -21,6 +21,7 @@ import com.debughelper.tools.r8.ir.code.ConstNumber;
 import com.debughelper.tools.r8.ir.code.IRCode;
 import com.debughelper.tools.r8.ir.code.InstanceGet;
 import com.debughelper.tools.r8.ir.code.Instruction;
+import com.debughelper.tools.r8.ir.code.InstructionList;
 import com.debughelper.tools.r8.ir.code.InstructionListIterator;
 import com.debughelper.tools.r8.ir.code.InvokeDirect;
 import com.debughelper.tools.r8.ir.code.InvokeMethodWithReceiver;
@@ -31,7 +32,6 @@ import com.debughelper.tools.r8.ir.code.ValueType;
 import com.google.common.collect.Streams;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -390,7 +390,7 @@ public final class ClassInliner {
         defaultValue = code.createValue(ValueType.fromDexType(field.type));
         com.debughelper.tools.r8.ir.code.ConstNumber defaultValueInsn = new ConstNumber(defaultValue, 0);
         defaultValueInsn.setPosition(newInstance.getPosition());
-        LinkedList<com.debughelper.tools.r8.ir.code.Instruction> instructions = block.getInstructions();
+        InstructionList instructions = block.getInstructions();
         instructions.add(instructions.indexOf(newInstance) + 1, defaultValueInsn);
         defaultValueInsn.setBlock(block);
       }
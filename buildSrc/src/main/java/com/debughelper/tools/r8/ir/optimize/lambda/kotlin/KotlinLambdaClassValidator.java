@@ -130,7 +130,7 @@ abstract class KotlinLambdaClassValidator
   private void validateInstanceInitializer(com.debughelper.tools.r8.graph.DexClass lambda, com.debughelper.tools.r8.graph.Code code)
       throws LambdaGroup.LambdaStructureError {
     com.debughelper.tools.r8.graph.DexEncodedField[] captures = lambda.instanceFields();
-    com.debughelper.tools.r8.code.Instruction[] instructions = code.asDexCode().instructions;
+    com.debughelper.tools.r8.code.Instruction[] instructions = code.asDexCode().getInstructions();
     int index = 0;
 
     if (instructions.length != getInstanceInitializerSize(captures)) {
@@ -221,7 +221,7 @@ abstract class KotlinLambdaClassValidator
   private void validateStatelessLambdaClassInitializer(com.debughelper.tools.r8.graph.DexClass lambda, Code code)
       throws LambdaGroup.LambdaStructureError {
     assert group.isStateless() && group.isSingletonLambda(lambda.type);
-    Instruction[] instructions = code.asDexCode().instructions;
+    Instruction[] instructions = code.asDexCode().getInstructions();
     if (instructions.length != 4) {
       throw structureError(LAMBDA_CLINIT_CODE_VERIFICATION_FAILED);
     }
@@ -25,6 +25,7 @@ import com.debughelper.tools.r8.ir.code.CheckCast;
 import com.debughelper.tools.r8.ir.code.DebugLocalsChange;
 import com.debughelper.tools.r8.ir.code.Instruction;
 import com.debughelper.tools.r8.ir.code.InstructionListIterator;
+import com.debughelper.tools.r8.ir.code.LiveAtEntrySets;
 import com.debughelper.tools.r8.ir.code.Invoke;
 import com.debughelper.tools.r8.ir.code.Move;
 import com.debughelper.tools.r8.ir.code.NumericType;
@@ -51,13 +52,13 @@ import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.Reference2IntArrayMap;
 import it.unimi.dsi.fastutil.objects.Reference2IntMap;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
@@ -127,9 +128,11 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
   protected final int numberOfArgumentRegisters;
   // Compiler options.
   private final com.debughelper.tools.r8.utils.InternalOptions options;
+  // Source of the live intervals and live ranges.
+  private final LiveIntervalsArena arena;
 
   // Mapping from basic blocks to the set of values live at entry to that basic block.
-  private Map<com.debughelper.tools.r8.ir.code.BasicBlock, Set<com.debughelper.tools.r8.ir.code.Value>> liveAtEntrySets;
+  private LiveAtEntrySets liveAtEntrySets;
   // The value of the first argument, or null if the method has no arguments.
   protected com.debughelper.tools.r8.ir.code.Value firstArgumentValue;
   // The value of the last argument, or null if the method has no arguments.
@@ -143,9 +146,9 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
   // List of all top-level live intervals for all SSA values.
   private List<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> liveIntervals = new ArrayList<>();
   // List of active intervals.
-  private List<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> active = new LinkedList<>();
+  private List<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> active = new ArrayList<>();
   // List of intervals where the current instruction falls into one of their live range holes.
-  protected List<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> inactive = new LinkedList<>();
+  protected List<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> inactive = new ArrayList<>();
   // List of intervals that no register has been allocated to sorted by first live range.
   protected PriorityQueue<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> unhandled = new PriorityQueue<>();
 
@@ -176,9 +179,13 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
     return numberOfArgumentRegisters;
   }
 
-  public LinearScanRegisterAllocator(com.debughelper.tools.r8.ir.code.IRCode code, com.debughelper.tools.r8.utils.InternalOptions options) {
+  public LinearScanRegisterAllocator(
+      com.debughelper.tools.r8.ir.code.IRCode code,
+      com.debughelper.tools.r8.utils.InternalOptions options,
+      LiveIntervalsArena arena) {
     this.code = code;
     this.options = options;
+    this.arena = arena;
     int argumentRegisters = 0;
     for (com.debughelper.tools.r8.ir.code.Instruction instruction : code.blocks.getFirst().getInstructions()) {
       if (instruction.isArgument()) {
@@ -846,34 +853,39 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
       }
 
       int start = unhandledInterval.getStart();
-      // Check for active intervals that expired or became inactive.
-      Iterator<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> activeIterator = active.iterator();
-      while (activeIterator.hasNext()) {
-        com.debughelper.tools.r8.ir.regalloc.LiveIntervals activeIntervals = activeIterator.next();
+      // Check for active intervals that expired or became inactive. The lists are compacted in
+      // place, which keeps the remaining intervals in order.
+      int remainingActive = 0;
+      for (int i = 0; i < active.size(); i++) {
+        com.debughelper.tools.r8.ir.regalloc.LiveIntervals activeIntervals = active.get(i);
         if (start >= activeIntervals.getEnd()) {
-          activeIterator.remove();
           freeOccupiedRegistersForIntervals(activeIntervals);
         } else if (!activeIntervals.overlapsPosition(start)) {
-          activeIterator.remove();
           assert activeIntervals.getRegister() != NO_REGISTER;
           inactive.add(activeIntervals);
           freeOccupiedRegistersForIntervals(activeIntervals);
+        } else {
+          active.set(remainingActive++, activeIntervals);
         }
       }
+      active.subList(remainingActive, active.size()).clear();
 
       // Check for inactive intervals that expired or became reactivated.
-      Iterator<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> inactiveIterator = inactive.iterator();
-      while (inactiveIterator.hasNext()) {
-        com.debughelper.tools.r8.ir.regalloc.LiveIntervals inactiveIntervals = inactiveIterator.next();
+      int remainingInactive = 0;
+      for (int i = 0; i < inactive.size(); i++) {
+        com.debughelper.tools.r8.ir.regalloc.LiveIntervals inactiveIntervals = inactive.get(i);
         if (start >= inactiveIntervals.getEnd()) {
-          inactiveIterator.remove();
-        } else if (inactiveIntervals.overlapsPosition(start)) {
-          inactiveIterator.remove();
+          continue;
+        }
+        if (inactiveIntervals.overlapsPosition(start)) {
           assert inactiveIntervals.getRegister() != NO_REGISTER;
           active.add(inactiveIntervals);
           takeFreeRegistersForIntervals(inactiveIntervals);
+        } else {
+          inactive.set(remainingInactive++, inactiveIntervals);
         }
       }
+      inactive.subList(remainingInactive, inactive.size()).clear();
 
       // Perform the actual allocation.
       if (unhandledInterval.isLinked() && !unhandledInterval.isArgumentInterval()) {
@@ -1018,7 +1030,7 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
           // Save the current register allocation state so we can restore it at the end.
           TreeSet<Integer> savedFreeRegisters = new TreeSet<>(freeRegisters);
           int savedMaxRegisterNumber = maxRegisterNumber;
-          List<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> savedInactive = new LinkedList<>(inactive);
+          List<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> savedInactive = new ArrayList<>(inactive);
 
           // Add all the active intervals to the inactive set. When allocating linked intervals we
           // check all inactive intervals and exclude the registers for overlapping inactive
@@ -1892,9 +1904,10 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
   protected void splitOverlappingInactiveIntervals(
           com.debughelper.tools.r8.ir.regalloc.LiveIntervals unhandledInterval, int candidate, boolean candidateIsWide) {
     List<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> newInactive = new ArrayList<>();
-    Iterator<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> inactiveIterator = inactive.iterator();
-    while (inactiveIterator.hasNext()) {
-      com.debughelper.tools.r8.ir.regalloc.LiveIntervals intervals = inactiveIterator.next();
+    int remainingInactive = 0;
+    for (int i = 0; i < inactive.size(); i++) {
+      com.debughelper.tools.r8.ir.regalloc.LiveIntervals intervals = inactive.get(i);
+      boolean remains = true;
       if (intervals.usesRegister(candidate, candidateIsWide)
           && intervals.overlaps(unhandledInterval)) {
         if (intervals.isLinked() && !intervals.isArgumentInterval()) {
@@ -1913,7 +1926,7 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
           // The inactive live intervals hasn't started yet. Clear the temporary register
           // assignment and move back to unhandled for register reassignment.
           intervals.clearRegisterAssignment();
-          inactiveIterator.remove();
+          remains = false;
           unhandled.add(intervals);
         } else {
           // The inactive live intervals is in a live range hole. Split the interval and
@@ -1922,7 +1935,11 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
           unhandled.add(split);
         }
       }
+      if (remains) {
+        inactive.set(remainingInactive++, intervals);
+      }
     }
+    inactive.subList(remainingInactive, inactive.size()).clear();
     inactive.addAll(newInactive);
   }
 
@@ -1932,12 +1949,13 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
     assert atLeastOneOfRegistersAreTaken(candidate, candidateIsWide);
     // Spill overlapping active intervals.
     List<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> newActive = new ArrayList<>();
-    Iterator<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> activeIterator = active.iterator();
-    while (activeIterator.hasNext()) {
-      com.debughelper.tools.r8.ir.regalloc.LiveIntervals intervals = activeIterator.next();
+    int remainingActive = 0;
+    for (int i = 0; i < active.size(); i++) {
+      com.debughelper.tools.r8.ir.regalloc.LiveIntervals intervals = active.get(i);
       assert registersForIntervalsAreTaken(intervals);
-      if (intervals.usesRegister(candidate, candidateIsWide)) {
-        activeIterator.remove();
+      if (!intervals.usesRegister(candidate, candidateIsWide)) {
+        active.set(remainingActive++, intervals);
+      } else {
         int registerNumber = getSpillRegister(intervals);
         // Important not to free the registers for intervals before finding a spill register,
         // because we might otherwise end up spilling to the current registers of intervals,
@@ -1975,6 +1993,7 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
         }
       }
     }
+    active.subList(remainingActive, active.size()).clear();
     active.addAll(newActive);
     assert registersAreFree(candidate, candidateIsWide);
   }
@@ -2152,8 +2171,9 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
         int toInstruction = successor.entry().getNumber();
 
         // Insert spill/restore moves when a value changes across a block boundary.
-        Set<com.debughelper.tools.r8.ir.code.Value> liveAtEntry = liveAtEntrySets.get(successor);
-        for (com.debughelper.tools.r8.ir.code.Value value : liveAtEntry) {
+        BitSet liveAtEntry = liveAtEntrySets.get(successor);
+        for (int i = liveAtEntry.nextSetBit(0); i >= 0; i = liveAtEntry.nextSetBit(i + 1)) {
+          com.debughelper.tools.r8.ir.code.Value value = liveAtEntrySets.getValue(i);
           com.debughelper.tools.r8.ir.regalloc.LiveIntervals parentInterval = value.getLiveIntervals();
           com.debughelper.tools.r8.ir.regalloc.LiveIntervals fromIntervals = parentInterval.getSplitCovering(fromInstruction);
           com.debughelper.tools.r8.ir.regalloc.LiveIntervals toIntervals = parentInterval.getSplitCovering(toInstruction);
@@ -2189,6 +2209,7 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
       com.debughelper.tools.r8.ir.code.BasicBlock block,
       int end,
       List<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> liveIntervals,
+      LiveIntervalsArena arena,
       com.debughelper.tools.r8.utils.InternalOptions options) {
     int firstInstructionInBlock = block.entry().getNumber();
     int instructionsSize = block.getInstructions().size() * com.debughelper.tools.r8.ir.code.IRCode.INSTRUCTION_NUMBER_DELTA;
@@ -2203,14 +2224,14 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
     }
     if (value.getLiveIntervals() == null) {
       com.debughelper.tools.r8.ir.code.Value current = value.getStartOfConsecutive();
-      com.debughelper.tools.r8.ir.regalloc.LiveIntervals intervals = new com.debughelper.tools.r8.ir.regalloc.LiveIntervals(current);
+      com.debughelper.tools.r8.ir.regalloc.LiveIntervals intervals = arena.newLiveIntervals(current);
       while (true) {
         liveIntervals.add(intervals);
         com.debughelper.tools.r8.ir.code.Value next = current.getNextConsecutive();
         if (next == null) {
           break;
         }
-        com.debughelper.tools.r8.ir.regalloc.LiveIntervals nextIntervals = new com.debughelper.tools.r8.ir.regalloc.LiveIntervals(next);
+        com.debughelper.tools.r8.ir.regalloc.LiveIntervals nextIntervals = arena.newLiveIntervals(next);
         intervals.link(nextIntervals);
         current = next;
         intervals = nextIntervals;
@@ -2224,19 +2245,19 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
         // the phi value is defined on the inflowing edge.
         instructionNumber--;
       }
-      intervals.addRange(new com.debughelper.tools.r8.ir.regalloc.LiveRange(instructionNumber, end));
+      intervals.addRange(arena.newLiveRange(instructionNumber, end));
       assert unconstrainedForCf(intervals.getRegisterLimit(), options);
       if (options.isGeneratingDex() && !value.isPhi()) {
         int constraint = value.definition.maxOutValueRegister();
         intervals.addUse(new com.debughelper.tools.r8.ir.regalloc.LiveIntervalsUse(instructionNumber, constraint));
       }
     } else {
-      intervals.addRange(new com.debughelper.tools.r8.ir.regalloc.LiveRange(firstInstructionInBlock - 1, end));
+      intervals.addRange(arena.newLiveRange(firstInstructionInBlock - 1, end));
     }
   }
 
   private void computeLiveRanges() {
-    computeLiveRanges(options, code, liveAtEntrySets, liveIntervals);
+    computeLiveRanges(options, code, liveAtEntrySets, liveIntervals, arena);
     // Art VMs before debughelper M assume that the register for the receiver never changes its value.
     // This assumption is used during verification. Allowing the receiver register to be
     // overwritten can therefore lead to verification errors. If we could be targeting one of these
@@ -2248,10 +2269,8 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
           com.debughelper.tools.r8.ir.code.Value thisValue = instruction.outValue();
           com.debughelper.tools.r8.ir.regalloc.LiveIntervals thisIntervals = thisValue.getLiveIntervals();
           thisIntervals.getRanges().clear();
-          thisIntervals.addRange(new com.debughelper.tools.r8.ir.regalloc.LiveRange(0, code.getNextInstructionNumber()));
-          for (Set<com.debughelper.tools.r8.ir.code.Value> values : liveAtEntrySets.values()) {
-            values.add(thisValue);
-          }
+          thisIntervals.addRange(arena.newLiveRange(0, code.getNextInstructionNumber()));
+          liveAtEntrySets.addToAll(thisValue);
           return;
         }
       }
@@ -2264,32 +2283,40 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
   public static void computeLiveRanges(
       com.debughelper.tools.r8.utils.InternalOptions options,
       com.debughelper.tools.r8.ir.code.IRCode code,
-      Map<com.debughelper.tools.r8.ir.code.BasicBlock, Set<com.debughelper.tools.r8.ir.code.Value>> liveAtEntrySets,
-      List<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> liveIntervals) {
+      LiveAtEntrySets liveAtEntrySets,
+      List<com.debughelper.tools.r8.ir.regalloc.LiveIntervals> liveIntervals,
+      LiveIntervalsArena arena) {
+    BitSet live = new BitSet(liveAtEntrySets.numberOfValues());
+    BitSet phiOperands = new BitSet(liveAtEntrySets.numberOfValues());
     for (com.debughelper.tools.r8.ir.code.BasicBlock block : code.topologicallySortedBlocks()) {
-      Set<com.debughelper.tools.r8.ir.code.Value> live = new HashSet<>();
+      live.clear();
+      phiOperands.clear();
       List<com.debughelper.tools.r8.ir.code.BasicBlock> successors = block.getSuccessors();
-      Set<com.debughelper.tools.r8.ir.code.Value> phiOperands = new HashSet<>();
       for (com.debughelper.tools.r8.ir.code.BasicBlock successor : successors) {
-        live.addAll(liveAtEntrySets.get(successor));
+        live.or(liveAtEntrySets.get(successor));
         for (com.debughelper.tools.r8.ir.code.Phi phi : successor.getPhis()) {
-          live.remove(phi);
-          phiOperands.add(phi.getOperand(successor.getPredecessors().indexOf(block)));
+          live.clear(liveAtEntrySets.getIndex(phi));
+          phiOperands.set(
+              liveAtEntrySets.getIndex(
+                  phi.getOperand(successor.getPredecessors().indexOf(block))));
           assert phi.getDebugValues().stream().allMatch(com.debughelper.tools.r8.ir.code.Value::needsRegister);
-          phiOperands.addAll(phi.getDebugValues());
+          for (com.debughelper.tools.r8.ir.code.Value value : phi.getDebugValues()) {
+            phiOperands.set(liveAtEntrySets.getIndex(value));
+          }
         }
       }
-      live.addAll(phiOperands);
+      live.or(phiOperands);
       List<com.debughelper.tools.r8.ir.code.Instruction> instructions = block.getInstructions();
-      for (com.debughelper.tools.r8.ir.code.Value value : live) {
+      for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+        com.debughelper.tools.r8.ir.code.Value value = liveAtEntrySets.getValue(i);
         int end = block.entry().getNumber() + instructions.size() * com.debughelper.tools.r8.ir.code.IRCode.INSTRUCTION_NUMBER_DELTA;
         // Make sure that phi operands do not overlap the phi live range. The phi operand is
         // not live until the next instruction, but only until the gap before the next instruction
         // where the phi value takes over.
-        if (phiOperands.contains(value)) {
+        if (phiOperands.get(i)) {
           end--;
         }
-        addLiveRange(value, block, end, liveIntervals, options);
+        addLiveRange(value, block, end, liveIntervals, arena, options);
       }
       ListIterator<com.debughelper.tools.r8.ir.code.Instruction> iterator =
           block.getInstructions().listIterator(block.getInstructions().size());
@@ -2306,18 +2333,20 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
                 block,
                 instruction.getNumber() + com.debughelper.tools.r8.ir.code.IRCode.INSTRUCTION_NUMBER_DELTA,
                 liveIntervals,
+                arena,
                 options);
             assert !options.isGeneratingClassFiles() || instruction.isArgument()
                 : "Arguments should be the only potentially unused local in CF";
           }
-          live.remove(definition);
+          live.clear(liveAtEntrySets.getIndex(definition));
         }
         for (com.debughelper.tools.r8.ir.code.Value use : instruction.inValues()) {
           if (use.needsRegister()) {
             assert unconstrainedForCf(instruction.maxInValueRegister(), options);
-            if (!live.contains(use)) {
-              live.add(use);
-              addLiveRange(use, block, instruction.getNumber(), liveIntervals, options);
+            int index = liveAtEntrySets.getIndex(use);
+            if (!live.get(index)) {
+              live.set(index);
+              addLiveRange(use, block, instruction.getNumber(), liveIntervals, arena, options);
             }
             if (options.isGeneratingDex()) {
               int inConstraint = instruction.maxInValueRegister();
@@ -2345,9 +2374,10 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
           int number = instruction.getNumber();
           for (com.debughelper.tools.r8.ir.code.Value use : instruction.getDebugValues()) {
             assert use.needsRegister();
-            if (!live.contains(use)) {
-              live.add(use);
-              addLiveRange(use, block, number, liveIntervals, options);
+            int index = liveAtEntrySets.getIndex(use);
+            if (!live.get(index)) {
+              live.set(index);
+              addLiveRange(use, block, number, liveIntervals, arena, options);
             }
           }
         }
@@ -2592,8 +2622,8 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
       // Add a live range to this value from the beginning of the block up to the argument
       // instruction to avoid dead arguments without a range. This may create an actually empty
       // range like [0,0[ but that works, too.
-      com.debughelper.tools.r8.ir.regalloc.LiveIntervals argumentInterval = new com.debughelper.tools.r8.ir.regalloc.LiveIntervals(argument);
-      argumentInterval.addRange(new LiveRange(0, index));
+      com.debughelper.tools.r8.ir.regalloc.LiveIntervals argumentInterval = arena.newLiveIntervals(argument);
+      argumentInterval.addRange(arena.newLiveRange(0, index));
       liveIntervals.add(argumentInterval);
       index += com.debughelper.tools.r8.ir.code.IRCode.INSTRUCTION_NUMBER_DELTA;
     }
@@ -30,14 +30,15 @@ public class LiveIntervals implements Comparable<LiveIntervals> {
   public static final int NO_REGISTER = Integer.MIN_VALUE;
   public static final int CHILDREN_SORTING_CUTOFF = 100;
 
-  private final com.debughelper.tools.r8.ir.code.Value value;
+  private final LiveIntervalsArena arena;
+  private com.debughelper.tools.r8.ir.code.Value value;
   private LiveIntervals nextConsecutive;
   private LiveIntervals previousConsecutive;
-  private final LiveIntervals splitParent;
+  private LiveIntervals splitParent;
   private final List<LiveIntervals> splitChildren = new ArrayList<>();
   private final IntArrayList sortedSplitChildrenEnds = new IntArrayList();
   private boolean sortedChildren = false;
-  private List<com.debughelper.tools.r8.ir.regalloc.LiveRange> ranges = new ArrayList<>();
+  private final List<com.debughelper.tools.r8.ir.regalloc.LiveRange> ranges = new ArrayList<>();
   private final TreeSet<com.debughelper.tools.r8.ir.regalloc.LiveIntervalsUse> uses = new TreeSet<>();
   private int numberOfConsecutiveRegisters = -1;
   private int register = NO_REGISTER;
@@ -54,19 +55,49 @@ public class LiveIntervals implements Comparable<LiveIntervals> {
   private int maxNonSpilledRegister = NO_REGISTER;
   private boolean isRematerializable = false;
 
-  public LiveIntervals(com.debughelper.tools.r8.ir.code.Value value) {
+  // Instances are created by the arena and initialized for a value or split parent before use.
+  LiveIntervals(LiveIntervalsArena arena) {
+    this.arena = arena;
+  }
+
+  void initialize(com.debughelper.tools.r8.ir.code.Value value) {
     this.value = value;
     usedInMonitorOperations = value.usedInMonitorOperation();
     splitParent = this;
     value.setLiveIntervals(this);
   }
 
-  public LiveIntervals(LiveIntervals splitParent) {
+  void initialize(LiveIntervals splitParent) {
     this.splitParent = splitParent;
     value = splitParent.value;
     usedInMonitorOperations = splitParent.usedInMonitorOperations;
   }
 
+  // Resets all state to that of a new instance, for reuse by the arena. The value no longer refers
+  // to the intervals afterwards.
+  void clear() {
+    if (splitParent == this && value.getLiveIntervals() == this) {
+      value.clearLiveIntervals();
+    }
+    value = null;
+    nextConsecutive = null;
+    previousConsecutive = null;
+    splitParent = null;
+    splitChildren.clear();
+    sortedSplitChildrenEnds.clear();
+    sortedChildren = false;
+    ranges.clear();
+    uses.clear();
+    numberOfConsecutiveRegisters = -1;
+    register = NO_REGISTER;
+    hint = null;
+    spilled = false;
+    usedInMonitorOperations = false;
+    registerLimit = Constants.U16BIT_MAX;
+    maxNonSpilledRegister = NO_REGISTER;
+    isRematerializable = false;
+  }
+
   private int toInstructionPosition(int position) {
     return position % 2 == 0 ? position : position + 1;
   }
@@ -416,14 +447,13 @@ public class LiveIntervals implements Comparable<LiveIntervals> {
       return this;
     }
     start = toGapPosition(start);
-    LiveIntervals splitChild = new LiveIntervals(splitParent);
+    LiveIntervals splitChild = arena.newLiveIntervals(splitParent);
     splitParent.splitChildren.add(splitChild);
     splitParent.sortedChildren = false;
-    List<com.debughelper.tools.r8.ir.regalloc.LiveRange> beforeSplit = new ArrayList<>();
-    List<com.debughelper.tools.r8.ir.regalloc.LiveRange> afterSplit = new ArrayList<>();
+    // Move the ranges from the split position on to the child, keeping the ranges before it.
+    List<com.debughelper.tools.r8.ir.regalloc.LiveRange> afterSplit = splitChild.ranges;
     if (start == getEnd()) {
-      beforeSplit = ranges;
-      afterSplit.add(new com.debughelper.tools.r8.ir.regalloc.LiveRange(start, start));
+      afterSplit.add(arena.newLiveRange(start, start));
     } else {
       int rangeToSplitIndex = 0;
       for (; rangeToSplitIndex < ranges.size(); rangeToSplitIndex++) {
@@ -436,17 +466,18 @@ public class LiveIntervals implements Comparable<LiveIntervals> {
         }
       }
       com.debughelper.tools.r8.ir.regalloc.LiveRange rangeToSplit = ranges.get(rangeToSplitIndex);
-      beforeSplit.addAll(ranges.subList(0, rangeToSplitIndex));
+      List<com.debughelper.tools.r8.ir.regalloc.LiveRange> rangesFromSplit =
+          ranges.subList(rangeToSplitIndex, ranges.size());
       if (rangeToSplit.start < start) {
-        beforeSplit.add(new com.debughelper.tools.r8.ir.regalloc.LiveRange(rangeToSplit.start, start));
-        afterSplit.add(new com.debughelper.tools.r8.ir.regalloc.LiveRange(start, rangeToSplit.end));
+        afterSplit.add(arena.newLiveRange(start, rangeToSplit.end));
+        afterSplit.addAll(rangesFromSplit.subList(1, rangesFromSplit.size()));
+        rangesFromSplit.clear();
+        ranges.add(arena.newLiveRange(rangeToSplit.start, start));
       } else {
-        afterSplit.add(rangeToSplit);
+        afterSplit.addAll(rangesFromSplit);
+        rangesFromSplit.clear();
       }
-      afterSplit.addAll(ranges.subList(rangeToSplitIndex + 1, ranges.size()));
     }
-    splitChild.ranges = afterSplit;
-    ranges = beforeSplit;
     while (!uses.isEmpty() && uses.last().getPosition() >= start) {
       splitChild.addUse(uses.pollLast());
     }
@@ -0,0 +1,121 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.ir.regalloc;
+
+import com.debughelper.tools.r8.ir.code.Value;
+import com.debughelper.tools.r8.utils.InternalOptions;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Source of the {@link LiveIntervals} and {@link LiveRange} objects of register allocation.
+ *
+ * <p>When enabled by {@link InternalOptions#recycleLiveIntervals}, each thread has an arena that
+ * hands out the objects of the previous methods it allocated registers for, together with the
+ * backing storage of their range, use and split lists, instead of allocating them for every
+ * method anew. Otherwise, or when the arena of the thread is already in use, fresh objects are
+ * allocated.
+ */
+public class LiveIntervalsArena {
+
+  // Upper bounds on the objects kept between methods, so that a huge method does not keep its
+  // intervals alive for the rest of the compilation.
+  private static final int MAX_RETAINED_INTERVALS = 1 << 12;
+  private static final int MAX_RETAINED_RANGES = 1 << 14;
+
+  public static final LiveIntervalsArena NON_RECYCLING = new LiveIntervalsArena(false);
+
+  private static final ThreadLocal<LiveIntervalsArena> ARENAS =
+      ThreadLocal.withInitial(() -> new LiveIntervalsArena(true));
+
+  private final boolean recycling;
+  private boolean inUse = false;
+
+  private final List<LiveIntervals> intervals = new ArrayList<>();
+  private int usedIntervals = 0;
+  private final List<LiveRange> ranges = new ArrayList<>();
+  private int usedRanges = 0;
+
+  private LiveIntervalsArena(boolean recycling) {
+    this.recycling = recycling;
+  }
+
+  /**
+   * Returns the arena to allocate registers for one method with. It must be released when the
+   * code of the method has been built.
+   */
+  public static LiveIntervalsArena acquire(InternalOptions options) {
+    if (options.recycleLiveIntervals) {
+      LiveIntervalsArena arena = ARENAS.get();
+      if (!arena.inUse) {
+        arena.inUse = true;
+        return arena;
+      }
+    }
+    return NON_RECYCLING;
+  }
+
+  /**
+   * Makes all objects handed out since {@link #acquire} available for reuse. None of them can be
+   * used afterwards, and the values of the method no longer refer to their live intervals.
+   */
+  public void release() {
+    if (!recycling) {
+      return;
+    }
+    assert inUse;
+    for (int i = 0; i < usedIntervals; i++) {
+      intervals.get(i).clear();
+    }
+    if (intervals.size() > MAX_RETAINED_INTERVALS) {
+      intervals.subList(MAX_RETAINED_INTERVALS, intervals.size()).clear();
+    }
+    if (ranges.size() > MAX_RETAINED_RANGES) {
+      ranges.subList(MAX_RETAINED_RANGES, ranges.size()).clear();
+    }
+    usedIntervals = 0;
+    usedRanges = 0;
+    inUse = false;
+  }
+
+  LiveIntervals newLiveIntervals(Value value) {
+    LiveIntervals result = nextLiveIntervals();
+    result.initialize(value);
+    return result;
+  }
+
+  LiveIntervals newLiveIntervals(LiveIntervals splitParent) {
+    LiveIntervals result = nextLiveIntervals();
+    result.initialize(splitParent);
+    return result;
+  }
+
+  private LiveIntervals nextLiveIntervals() {
+    if (!recycling) {
+      return new LiveIntervals(this);
+    }
+    assert inUse;
+    if (usedIntervals == intervals.size()) {
+      intervals.add(new LiveIntervals(this));
+    }
+    return intervals.get(usedIntervals++);
+  }
+
+  LiveRange newLiveRange(int start, int end) {
+    if (!recycling) {
+      return new LiveRange(start, end);
+    }
+    assert inUse;
+    if (usedRanges == ranges.size()) {
+      LiveRange range = new LiveRange(start, end);
+      ranges.add(range);
+      usedRanges++;
+      return range;
+    }
+    LiveRange range = ranges.get(usedRanges++);
+    range.start = start;
+    range.end = end;
+    return range;
+  }
+}
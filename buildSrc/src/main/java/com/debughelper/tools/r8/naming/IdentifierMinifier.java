@@ -90,7 +90,7 @@ class IdentifierMinifier {
     }
     assert code.isDexCode();
     DexCode dexCode = code.asDexCode();
-    for (Instruction instr : dexCode.instructions) {
+    for (Instruction instr : dexCode.getInstructions()) {
       if (instr instanceof ConstString) {
         ConstString cnst = (ConstString) instr;
         DexString dexString = cnst.getString();
@@ -157,7 +157,7 @@ class IdentifierMinifier {
     }
     assert code.isDexCode();
     DexCode dexCode = code.asDexCode();
-    for (Instruction instr : dexCode.instructions) {
+    for (Instruction instr : dexCode.getInstructions()) {
       if (instr instanceof ConstString
           && ((ConstString) instr).getString() instanceof DexItemBasedString) {
         ConstString cnst = (ConstString) instr;
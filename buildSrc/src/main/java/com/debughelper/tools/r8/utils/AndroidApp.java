@@ -21,6 +21,7 @@ import com.debughelper.tools.r8.ProgramResourceProvider;
 import com.debughelper.tools.r8.Resource;
 import com.debughelper.tools.r8.ResourceException;
 import com.debughelper.tools.r8.StringResource;
+import com.debughelper.tools.r8.dex.ByteBufferResource;
 import com.debughelper.tools.r8.errors.CompilationError;
 import com.debughelper.tools.r8.errors.InternalCompilerError;
 import com.debughelper.tools.r8.errors.Unreachable;
@@ -30,6 +31,7 @@ import com.debughelper.tools.r8.shaking.FilteredClassPath;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
@@ -433,6 +435,15 @@ public class AndroidApp {
       return this;
     }
 
+    /**
+     * Add dex program-data without copying it. The buffer must stay valid while the application is
+     * read.
+     */
+    public Builder addDexProgramData(ByteBuffer data, Origin origin) {
+      addProgramResources(new ByteBufferResource(origin, Kind.DEX, data, null));
+      return this;
+    }
+
     /**
      * Add dex program-data.
      */
@@ -5,30 +5,121 @@
 package com.debughelper.tools.r8.utils;
 
 import com.debughelper.tools.r8.DataEntryResource;
+import com.debughelper.tools.r8.DataEntryResource.ZipDataEntryResource;
 import com.debughelper.tools.r8.DataResource;
 import com.debughelper.tools.r8.DiagnosticsHandler;
 import com.debughelper.tools.r8.ResourceException;
 import com.debughelper.tools.r8.origin.Origin;
 import com.debughelper.tools.r8.origin.PathOrigin;
 import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
-import java.util.zip.ZipOutputStream;
 
+/**
+ * Builds a zip archive.
+ *
+ * <p>Entries are encoded on the thread adding them, i.e., their CRC is computed and their content
+ * is compressed, if requested, without holding a lock. The encoded entries are collected and
+ * written to the archive in a single pass when it is closed: the manifest comes first, then the
+ * directories and then the files, each sorted by name, so that the archive does not depend on the
+ * order in which concurrent writers added its entries.
+ *
+ * <p>Entry contents are held in memory up to a bounded size. Beyond that, contents are spilled to a
+ * temporary file next to the archive, also by the thread adding them, and copied from there into
+ * the archive when it is closed.
+ */
 public class ArchiveBuilder implements OutputBuilder {
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_SIZE = 22;
+  private static final int ZIP64_END_SIZE = 56;
+  private static final int ZIP64_LOCATOR_SIZE = 20;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int ZIP64_EXTRA_SIZE = 12;
+  // General purpose flag for names encoded in UTF-8.
+  private static final int FLAG_UTF8 = 0x800;
+  private static final long MAX_U16 = 0xffff;
+  private static final long MAX_U32 = 0xffffffffL;
+  // Upper bound on the size of the entry contents held in memory until the archive is written.
+  private static final long MAX_IN_MEMORY_BYTES = 32L << 20;
+  private static final String MANIFEST_DIRECTORY = "META-INF/";
+  private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
   private final Path archive;
   private final com.debughelper.tools.r8.origin.Origin origin;
-  private ZipOutputStream stream = null;
+  private final int compressionMethod;
+  // All entries added so far, in the order in which they are written.
+  private final SortedMap<String, Entry> entries = new TreeMap<>(ArchiveBuilder::compareNames);
+  private long inMemoryBytes = 0;
+  // Temporary file holding the spilled entry contents, and the size reserved in it so far.
+  private FileChannel spill = null;
+  private long spillSize = 0;
+  private final int dosTime = toDosTime(System.currentTimeMillis());
   private boolean closed = false;
   private int openCount = 0;
 
+  private static class Entry {
+
+    private final byte[] name;
+    private final int method;
+    private final int crc;
+    private final int size;
+    private final int compressedSize;
+    // Content of the entry until it is written, null if it is spilled.
+    private byte[] data;
+    // Position of the content in the spill file, if it is spilled.
+    private long spillOffset = -1;
+    private long offset = -1;
+
+    private Entry(String name, int method, long crc, int size, byte[] data) {
+      this.name = name.getBytes(StandardCharsets.UTF_8);
+      this.method = method;
+      this.crc = (int) crc;
+      this.size = size;
+      this.compressedSize = data.length;
+      this.data = data;
+    }
+
+    private int getVersion(boolean zip64) {
+      return zip64 ? 45 : (method == ZipEntry.DEFLATED ? 20 : 10);
+    }
+  }
+
   public ArchiveBuilder(Path archive) {
+    this(archive, ZipEntry.STORED);
+  }
+
+  /**
+   * @param archive path of the archive to write
+   * @param compressionMethod {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+   */
+  public ArchiveBuilder(Path archive, int compressionMethod) {
+    assert compressionMethod == ZipEntry.STORED || compressionMethod == ZipEntry.DEFLATED;
     this.archive = archive;
+    this.compressionMethod = compressionMethod;
     origin = new PathOrigin(archive);
   }
 
@@ -39,48 +130,110 @@ public class ArchiveBuilder implements OutputBuilder {
   }
 
   @Override
-  public synchronized void close(com.debughelper.tools.r8.DiagnosticsHandler handler)  {
-    assert !closed;
-    openCount--;
-    if (openCount == 0) {
+  public void close(com.debughelper.tools.r8.DiagnosticsHandler handler)  {
+    synchronized (this) {
+      assert !closed;
+      openCount--;
+      if (openCount != 0) {
+        return;
+      }
       closed = true;
+    }
+    // All entries have been added, so the archive is written without holding the lock.
+    try (FileChannel channel =
+        FileChannel.open(
+            archive,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      long offset = writeEntries(channel);
+      writeCentralDirectory(channel, offset);
+    } catch (IOException e) {
+      handler.error(new ExceptionDiagnostic(e, origin));
+    } finally {
+      entries.clear();
+      closeSpill(handler);
+    }
+  }
+
+  private void closeSpill(com.debughelper.tools.r8.DiagnosticsHandler handler) {
+    if (spill != null) {
       try {
-        getStreamRaw().close();
-        stream = null;
+        spill.close();
       } catch (IOException e) {
         handler.error(new ExceptionDiagnostic(e, origin));
       }
+      spill = null;
     }
   }
 
-  private ZipOutputStream getStreamRaw() throws IOException {
-    if (stream != null) {
-      return stream;
+  private void add(String name, Entry entry, com.debughelper.tools.r8.DiagnosticsHandler handler) {
+    FileChannel spillChannel;
+    synchronized (this) {
+      assert !closed;
+      if (entries.containsKey(name)) {
+        // For now we stick to the Proguard behaviour, see section "Warning: can't write resource
+        // ... Duplicate zip entry" on
+        // https://www.guardsquare.com/en/proguard/manual/troubleshooting.
+        handler.warning(
+            new ExceptionDiagnostic(new ZipException("duplicate entry: " + name), origin));
+        return;
+      }
+      entries.put(name, entry);
+      if (inMemoryBytes + entry.compressedSize <= MAX_IN_MEMORY_BYTES) {
+        inMemoryBytes += entry.compressedSize;
+        return;
+      }
+      // Reserve the space of the content in the spill file, it is written outside of the lock.
+      try {
+        spillChannel = openSpill();
+      } catch (IOException e) {
+        handler.error(new ExceptionDiagnostic(e, origin));
+        return;
+      }
+      entry.spillOffset = spillSize;
+      spillSize += entry.compressedSize;
     }
-    stream = new ZipOutputStream(Files.newOutputStream(
-        archive, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
-    return stream;
-  }
-
-  /** Get or open the zip output stream. */
-  private synchronized ZipOutputStream getStream(com.debughelper.tools.r8.DiagnosticsHandler handler) {
-    assert !closed;
     try {
-      getStreamRaw();
+      ByteBuffer data = ByteBuffer.wrap(entry.data);
+      long position = entry.spillOffset;
+      while (data.hasRemaining()) {
+        position += spillChannel.write(data, position);
+      }
+      entry.data = null;
     } catch (IOException e) {
       handler.error(new ExceptionDiagnostic(e, origin));
     }
-    return stream;
   }
 
-  private void handleIOException(IOException e, com.debughelper.tools.r8.DiagnosticsHandler handler) {
-    if (e instanceof ZipException && e.getMessage().startsWith("duplicate entry")) {
-      // For now we stick to the Proguard behaviour, see section "Warning: can't write resource ...
-      // Duplicate zip entry" on https://www.guardsquare.com/en/proguard/manual/troubleshooting.
-      handler.warning(new ExceptionDiagnostic(e, origin));
-    } else {
-      handler.error(new ExceptionDiagnostic(e, origin));
+  private FileChannel openSpill() throws IOException {
+    if (spill == null) {
+      Path directory = archive.toAbsolutePath().getParent();
+      Path spillFile = Files.createTempFile(directory, archive.getFileName().toString(), ".tmp");
+      spill =
+          FileChannel.open(
+              spillFile,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.DELETE_ON_CLOSE);
     }
+    return spill;
+  }
+
+  // Orders the manifest before the directories, and these before the files.
+  private static int compareNames(String name, String other) {
+    int result = Integer.compare(getRank(name), getRank(other));
+    return result != 0 ? result : name.compareTo(other);
+  }
+
+  private static int getRank(String name) {
+    if (name.equals(MANIFEST_DIRECTORY)) {
+      return 0;
+    }
+    if (name.equals(MANIFEST)) {
+      return 1;
+    }
+    return name.charAt(name.length() - 1) == DataResource.SEPARATOR ? 2 : 3;
   }
 
   @Override
@@ -88,37 +241,207 @@ public class ArchiveBuilder implements OutputBuilder {
     if (name.charAt(name.length() - 1) != com.debughelper.tools.r8.DataResource.SEPARATOR) {
       name += DataResource.SEPARATOR;
     }
-    ZipEntry entry = new ZipEntry(name);
-    ZipOutputStream zip = getStream(handler);
-    synchronized (this) {
-      try {
-        zip.putNextEntry(entry);
-        zip.closeEntry();
-      } catch (IOException e) {
-        handleIOException(e, handler);
-      }
-    }
+    add(name, new Entry(name, ZipEntry.STORED, 0, 0, new byte[0]), handler);
   }
 
   @Override
   public void addFile(String name, DataEntryResource content, com.debughelper.tools.r8.DiagnosticsHandler handler) {
     try (InputStream in = content.getByteStream()) {
-      addFile(name, ByteStreams.toByteArray(in), handler);
+      ZipEntry zipEntry =
+          content instanceof ZipDataEntryResource
+              ? ((ZipDataEntryResource) content).getZipEntry()
+              : null;
+      if (zipEntry != null
+          && zipEntry.getMethod() == ZipEntry.STORED
+          && zipEntry.getCrc() != -1
+          && zipEntry.getSize() != -1) {
+        // Stored entries of an input archive are passed through as is, with their recorded CRC.
+        byte[] data = new byte[(int) zipEntry.getSize()];
+        ByteStreams.readFully(in, data);
+        add(name, new Entry(name, ZipEntry.STORED, zipEntry.getCrc(), data.length, data), handler);
+      } else {
+        addFile(name, ByteStreams.toByteArray(in), handler);
+      }
     } catch (IOException e) {
-      handleIOException(e, handler);
+      handler.error(new ExceptionDiagnostic(e, origin));
     } catch (ResourceException e) {
       handler.error(new StringDiagnostic("Failed to open input: " + e.getMessage(),
           content.getOrigin()));
     }
   }
 
-   @Override
-   public synchronized void addFile(String name, byte[] content, DiagnosticsHandler handler) {
+  @Override
+  public void addFile(String name, byte[] content, DiagnosticsHandler handler) {
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    byte[] data = content;
+    int method = ZipEntry.STORED;
+    if (compressionMethod == ZipEntry.DEFLATED && content.length > 0) {
+      byte[] deflated = deflate(content);
+      if (deflated.length < content.length) {
+        data = deflated;
+        method = ZipEntry.DEFLATED;
+      }
+    }
+    add(name, new Entry(name, method, crc.getValue(), content.length, data), handler);
+  }
+
+  private static byte[] deflate(byte[] content) {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
     try {
-      ZipUtils.writeToZipStream(getStream(handler), name, content, ZipEntry.STORED);
-    } catch (IOException e) {
-      handleIOException(e, handler);
+      deflater.setInput(content);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + 64);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  // Writes the local headers and contents of all entries and returns the offset after them.
+  private long writeEntries(FileChannel channel) throws IOException {
+    long offset = 0;
+    for (Entry entry : entries.values()) {
+      entry.offset = offset;
+      ByteBuffer header = allocate(LOCAL_HEADER_SIZE + entry.name.length);
+      header.putInt(LOCAL_HEADER_SIGNATURE);
+      header.putShort((short) entry.getVersion(false));
+      putCommonHeaderFields(header, entry, dosTime);
+      header.putShort((short) 0);
+      header.put(entry.name);
+      header.flip();
+      offset += write(channel, header);
+      if (entry.data != null) {
+        offset += write(channel, ByteBuffer.wrap(entry.data));
+        entry.data = null;
+      } else {
+        offset += transfer(spill, entry.spillOffset, entry.compressedSize, channel);
+      }
+    }
+    return offset;
+  }
+
+  private void writeCentralDirectory(FileChannel channel, long offset) throws IOException {
+    long centralDirectoryOffset = offset;
+    for (Entry entry : entries.values()) {
+      boolean zip64 = entry.offset >= MAX_U32;
+      ByteBuffer header =
+          allocate(CENTRAL_HEADER_SIZE + entry.name.length + (zip64 ? ZIP64_EXTRA_SIZE : 0));
+      header.putInt(CENTRAL_HEADER_SIGNATURE);
+      header.putShort((short) entry.getVersion(zip64));
+      header.putShort((short) entry.getVersion(zip64));
+      putCommonHeaderFields(header, entry, dosTime);
+      header.putShort((short) (zip64 ? ZIP64_EXTRA_SIZE : 0));
+      header.putShort((short) 0); // Comment length.
+      header.putShort((short) 0); // Disk number start.
+      header.putShort((short) 0); // Internal attributes.
+      header.putInt(0); // External attributes.
+      header.putInt((int) (zip64 ? MAX_U32 : entry.offset));
+      header.put(entry.name);
+      if (zip64) {
+        header.putShort((short) ZIP64_EXTRA_ID);
+        header.putShort((short) (ZIP64_EXTRA_SIZE - 4));
+        header.putLong(entry.offset);
+      }
+      header.flip();
+      offset += write(channel, header);
+    }
+    writeEnd(channel, entries.size(), centralDirectoryOffset, offset);
+  }
+
+  // Writes the fields from the version needed to extract up to the name length, which are shared
+  // by the local and the central headers.
+  private static void putCommonHeaderFields(ByteBuffer header, Entry entry, int dosTime) {
+    header.putShort((short) FLAG_UTF8);
+    header.putShort((short) entry.method);
+    header.putInt(dosTime);
+    header.putInt(entry.crc);
+    header.putInt(entry.compressedSize);
+    header.putInt(entry.size);
+    header.putShort((short) entry.name.length);
+  }
+
+  private static void writeEnd(
+      FileChannel channel, int entryCount, long centralDirectoryOffset, long end)
+      throws IOException {
+    long centralDirectorySize = end - centralDirectoryOffset;
+    boolean zip64 =
+        entryCount >= MAX_U16
+            || centralDirectoryOffset >= MAX_U32
+            || centralDirectorySize >= MAX_U32;
+    ByteBuffer buffer =
+        allocate((zip64 ? ZIP64_END_SIZE + ZIP64_LOCATOR_SIZE : 0) + END_SIZE);
+    if (zip64) {
+      buffer.putInt(ZIP64_END_SIGNATURE);
+      buffer.putLong(ZIP64_END_SIZE - 12);
+      buffer.putShort((short) 45); // Version made by.
+      buffer.putShort((short) 45); // Version needed to extract.
+      buffer.putInt(0); // Number of this disk.
+      buffer.putInt(0); // Disk with the central directory.
+      buffer.putLong(entryCount);
+      buffer.putLong(entryCount);
+      buffer.putLong(centralDirectorySize);
+      buffer.putLong(centralDirectoryOffset);
+      buffer.putInt(ZIP64_LOCATOR_SIGNATURE);
+      buffer.putInt(0); // Disk with the zip64 end of central directory.
+      buffer.putLong(end);
+      buffer.putInt(1); // Total number of disks.
+    }
+    buffer.putInt(END_SIGNATURE);
+    buffer.putShort((short) 0); // Number of this disk.
+    buffer.putShort((short) 0); // Disk with the central directory.
+    buffer.putShort((short) Math.min(entryCount, MAX_U16));
+    buffer.putShort((short) Math.min(entryCount, MAX_U16));
+    buffer.putInt((int) Math.min(centralDirectorySize, MAX_U32));
+    buffer.putInt((int) Math.min(centralDirectoryOffset, MAX_U32));
+    buffer.putShort((short) 0); // Comment length.
+    buffer.flip();
+    write(channel, buffer);
+  }
+
+  private static ByteBuffer allocate(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static long write(FileChannel channel, ByteBuffer... buffers) throws IOException {
+    long written = 0;
+    for (ByteBuffer buffer : buffers) {
+      while (buffer.hasRemaining()) {
+        written += channel.write(buffer);
+      }
+    }
+    return written;
+  }
+
+  private static long transfer(FileChannel source, long position, long size, FileChannel target)
+      throws IOException {
+    long transferred = 0;
+    while (transferred < size) {
+      long count = source.transferTo(position + transferred, size - transferred, target);
+      if (count <= 0) {
+        throw new IOException("Unexpected end of spilled archive entries");
+      }
+      transferred += count;
+    }
+    return transferred;
+  }
+
+  private static int toDosTime(long time) {
+    LocalDateTime dateTime =
+        LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+    if (dateTime.getYear() < 1980) {
+      return (1 << 21) | (1 << 16);
     }
+    return (dateTime.getYear() - 1980) << 25
+        | dateTime.getMonthValue() << 21
+        | dateTime.getDayOfMonth() << 16
+        | dateTime.getHour() << 11
+        | dateTime.getMinute() << 5
+        | dateTime.getSecond() >> 1;
   }
 
   @Override
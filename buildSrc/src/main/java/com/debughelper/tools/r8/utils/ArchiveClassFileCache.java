@@ -0,0 +1,204 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Process-wide, size-bounded cache of class files read from archives on the classpath and
+ * library path.
+ *
+ * <p>Compilations that repeatedly use the same library (e.g., incremental dexing of small groups
+ * of classes against android.jar) otherwise scan the zip directory and inflate the same entries
+ * for every run. Parsed {@link com.debughelper.tools.r8.graph.DexClass} objects are tied to the
+ * {@link com.debughelper.tools.r8.graph.DexItemFactory} of a single compilation and can therefore
+ * not be shared, but the archive index and the class file contents can.
+ *
+ * <p>Archives are identified by (path, last-modified time, size) and entries additionally by
+ * their name and CRC, so a rewritten archive never hits stale content.
+ *
+ * <p>NOTE: thread-safe, the cache may be shared by concurrent compilations.
+ */
+public class ArchiveClassFileCache {
+
+  // Upper bound on the total size of class file contents retained by the shared cache.
+  private static final long DEFAULT_MAXIMUM_CONTENT_SIZE = 64 * 1024 * 1024;
+  // Upper bound on the number of archive indexes retained by the shared cache.
+  private static final long DEFAULT_MAXIMUM_ARCHIVES = 64;
+
+  public static final ArchiveClassFileCache INSTANCE =
+      new ArchiveClassFileCache(DEFAULT_MAXIMUM_ARCHIVES, DEFAULT_MAXIMUM_CONTENT_SIZE);
+
+  private final Cache<ArchiveKey, List<ClassEntry>> indexes;
+  private final Cache<EntryKey, byte[]> contents;
+
+  public ArchiveClassFileCache(long maximumArchives, long maximumContentSize) {
+    indexes = CacheBuilder.newBuilder().maximumSize(maximumArchives).build();
+    contents =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maximumContentSize)
+            .weigher((EntryKey key, byte[] value) -> value.length)
+            .recordStats()
+            .build();
+  }
+
+  /** Identity of an archive on disk, changes when the archive is rewritten. */
+  public static final class ArchiveKey {
+    private final Path path;
+    private final long lastModified;
+    private final long size;
+
+    private ArchiveKey(Path path, long lastModified, long size) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.size = size;
+    }
+
+    public static ArchiveKey of(Path archive) throws IOException {
+      Path path = archive.toAbsolutePath().normalize();
+      return new ArchiveKey(
+          path, Files.getLastModifiedTime(path).toMillis(), Files.size(path));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ArchiveKey)) {
+        return false;
+      }
+      ArchiveKey other = (ArchiveKey) o;
+      return lastModified == other.lastModified && size == other.size && path.equals(other.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, lastModified, size);
+    }
+
+    @Override
+    public String toString() {
+      return path.toString();
+    }
+  }
+
+  /** A class file entry of an archive. */
+  public static final class ClassEntry {
+    public final String name;
+    public final String descriptor;
+    final long crc;
+
+    private ClassEntry(String name, String descriptor, long crc) {
+      this.name = name;
+      this.descriptor = descriptor;
+      this.crc = crc;
+    }
+  }
+
+  private static final class EntryKey {
+    private final ArchiveKey archive;
+    private final String name;
+    private final long crc;
+
+    private EntryKey(ArchiveKey archive, String name, long crc) {
+      this.archive = archive;
+      this.name = name;
+      this.crc = crc;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof EntryKey)) {
+        return false;
+      }
+      EntryKey other = (EntryKey) o;
+      return crc == other.crc && name.equals(other.name) && archive.equals(other.archive);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(archive, name, crc);
+    }
+  }
+
+  /** Returns all class file entries of the archive, reading the zip directory at most once. */
+  public List<ClassEntry> getClassEntries(ArchiveKey archive) throws IOException {
+    try {
+      return indexes.get(archive, () -> readClassEntries(archive.path));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw unwrap(e);
+    }
+  }
+
+  /**
+   * Returns the contents of the class file entry, using the loader only if no other compilation
+   * has read the same entry before.
+   */
+  public byte[] getContent(
+      ArchiveKey archive, ClassEntry entry, ThrowingSupplier<byte[], IOException> loader)
+      throws IOException {
+    try {
+      return contents.get(new EntryKey(archive, entry.name, entry.crc), loader::get);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw unwrap(e);
+    }
+  }
+
+  public CacheStats getContentStats() {
+    return contents.stats();
+  }
+
+  public void invalidateAll() {
+    indexes.invalidateAll();
+    contents.invalidateAll();
+  }
+
+  private static List<ClassEntry> readClassEntries(Path archive) throws IOException {
+    ImmutableList.Builder<ClassEntry> builder = ImmutableList.builder();
+    try (ZipFile zipFile = new ZipFile(archive.toFile(), StandardCharsets.UTF_8)) {
+      final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        String name = entry.getName();
+        if (ZipUtils.isClassFile(name)) {
+          builder.add(
+              new ClassEntry(name, DescriptorUtils.guessTypeDescriptor(name), entry.getCrc()));
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  private static IOException unwrap(Exception e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new IOException(cause);
+  }
+}
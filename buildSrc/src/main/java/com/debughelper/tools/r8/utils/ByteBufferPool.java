@@ -0,0 +1,148 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.utils;
+
+import com.debughelper.tools.r8.ByteBufferProvider;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide pool of heap buffers for writing dex files.
+ *
+ * <p>Buffers are grouped in size classes, so a buffer released after writing one file can be reused
+ * for the next file of a similar size, also by later compilations in the same VM. Each power of two
+ * range is split into four size classes, so a buffer is at most 25% larger than requested.
+ * The pool is shared rather than per thread, as every compilation runs on a new executor.
+ *
+ * <p>NOTE: thread-safe.
+ */
+public class ByteBufferPool implements ByteBufferProvider {
+
+  // Each power of two range is split into 2^SUB_CLASS_BITS size classes.
+  private static final int SUB_CLASS_BITS = 2;
+  private static final int SUB_CLASSES = 1 << SUB_CLASS_BITS;
+  // Smallest buffer handed out, per class dex files are usually a few KB.
+  private static final int MIN_CAPACITY = 1 << 12;
+  // Buffers above 2^30 bytes are never pooled.
+  private static final int MAX_CAPACITY = 1 << 30;
+  private static final int MIN_UNBIASED_SIZE_CLASS = unbiasedSizeClass(MIN_CAPACITY);
+  private static final int MAX_SIZE_CLASS = sizeClass(MAX_CAPACITY);
+  // Upper bound on the total capacity of the buffers retained by the shared pool.
+  private static final long DEFAULT_MAXIMUM_RETAINED_SIZE = 64 * 1024 * 1024;
+
+  private static final ByteBufferPool SHARED = new ByteBufferPool(DEFAULT_MAXIMUM_RETAINED_SIZE);
+
+  private final long maximumRetainedSize;
+  private final List<Queue<ByteBuffer>> pools;
+
+  private final AtomicLong acquired = new AtomicLong();
+  private final AtomicLong allocated = new AtomicLong();
+  private final AtomicLong allocatedBytes = new AtomicLong();
+  private final AtomicLong retainedBytes = new AtomicLong();
+
+  public ByteBufferPool(long maximumRetainedSize) {
+    this.maximumRetainedSize = maximumRetainedSize;
+    pools = new ArrayList<>(MAX_SIZE_CLASS + 1);
+    for (int i = 0; i <= MAX_SIZE_CLASS; i++) {
+      pools.add(new ConcurrentLinkedQueue<>());
+    }
+  }
+
+  public static ByteBufferPool getShared() {
+    return SHARED;
+  }
+
+  // The capacity of a size class is steps << stepBits, where steps is in
+  // ]SUB_CLASSES, 2 * SUB_CLASSES]. The size classes are numbered consecutively by
+  // stepBits * SUB_CLASSES + steps, this returns that number for the smallest class that fits.
+  private static int unbiasedSizeClass(int capacity) {
+    int value = capacity - 1;
+    int stepBits = 31 - Integer.numberOfLeadingZeros(value) - SUB_CLASS_BITS;
+    int steps = (value >> stepBits) + 1;
+    return stepBits * SUB_CLASSES + steps;
+  }
+
+  private static int sizeClass(int capacity) {
+    return unbiasedSizeClass(Math.max(capacity, MIN_CAPACITY)) - MIN_UNBIASED_SIZE_CLASS;
+  }
+
+  private static int capacityOf(int sizeClass) {
+    int value = sizeClass + MIN_UNBIASED_SIZE_CLASS - SUB_CLASSES - 1;
+    int stepBits = value / SUB_CLASSES;
+    int steps = value % SUB_CLASSES + SUB_CLASSES + 1;
+    return steps << stepBits;
+  }
+
+  /** Returns a zero-filled heap buffer with at least the given capacity. */
+  @Override
+  public ByteBuffer acquireByteBuffer(int capacity) {
+    acquired.incrementAndGet();
+    int sizeClass = sizeClass(capacity);
+    if (sizeClass <= MAX_SIZE_CLASS) {
+      ByteBuffer buffer = pools.get(sizeClass).poll();
+      if (buffer != null) {
+        retainedBytes.addAndGet(-buffer.capacity());
+        // Alignment padding is skipped rather than written, so stale content must be cleared.
+        Arrays.fill(buffer.array(), (byte) 0);
+        buffer.clear();
+        return buffer;
+      }
+      capacity = capacityOf(sizeClass);
+    }
+    allocated.incrementAndGet();
+    allocatedBytes.addAndGet(capacity);
+    return ByteBuffer.allocate(capacity);
+  }
+
+  @Override
+  public void releaseByteBuffer(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    int sizeClass = sizeClass(capacity);
+    if (!buffer.hasArray()
+        || buffer.isReadOnly()
+        || sizeClass > MAX_SIZE_CLASS
+        || capacity != capacityOf(sizeClass)) {
+      // Not handed out by this pool.
+      return;
+    }
+    if (retainedBytes.addAndGet(capacity) > maximumRetainedSize) {
+      retainedBytes.addAndGet(-capacity);
+      return;
+    }
+    pools.get(sizeClass).add(buffer);
+  }
+
+  /** Number of buffers handed out by this pool. */
+  public long getAcquiredCount() {
+    return acquired.get();
+  }
+
+  /** Number of buffers that had to be allocated, as no pooled buffer was available. */
+  public long getAllocatedCount() {
+    return allocated.get();
+  }
+
+  /** Total capacity of the buffers allocated by this pool. */
+  public long getAllocatedBytes() {
+    return allocatedBytes.get();
+  }
+
+  /** Total capacity of the buffers currently kept for reuse. */
+  public long getRetainedBytes() {
+    return retainedBytes.get();
+  }
+
+  @Override
+  public String toString() {
+    return "acquired: " + getAcquiredCount()
+        + ", allocated: " + getAllocatedCount()
+        + " (" + getAllocatedBytes() + " bytes)"
+        + ", retained: " + getRetainedBytes() + " bytes";
+  }
+}
@@ -17,6 +17,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
@@ -25,7 +26,8 @@ import java.util.function.Supplier;
  * classes along with lazy loaded content.
  *
  * The {@link #get(DexType)} operation for loading the type of a class is non-locking if a class was
- * loaded before but may block if a class has not yet been loaded.
+ * loaded before. If a class has not yet been loaded, it blocks only on other loads of the same
+ * type or on a concurrent {@link #forceLoad(Predicate)}.
  *
  * {@link #forceLoad(Predicate)} can be used to load all classes available from the given class
  * provider. Only after
@@ -49,11 +51,20 @@ public abstract class ClassMap<T extends DexClass> {
    * If the class provider is `null` it indicates that all classes are already present in a map
    * referenced by `classes` and thus the collection is fully loaded.
    * <p>
-   * <b>NOTE:</b> the field may only transition from a value to null while the this object is
-   * locked. Furthermore, it may never transition back from null.
+   * <b>NOTE:</b> the field may only transition from a value to null while the write lock of
+   * `sealLock` is held. Furthermore, it may never transition back from null.
    */
   private final AtomicReference<ClassProvider<T>> classProvider = new AtomicReference<>();
 
+  /**
+   * Guards the transition of the collection into the fully loaded state.
+   * <p>
+   * Installing a loader for a missing type holds the read lock, so lookups of different types
+   * proceed in parallel, while {@link #forceLoad(Predicate)} holds the write lock while it rewrites
+   * the map and clears the class provider.
+   */
+  private final ReentrantReadWriteLock sealLock = new ReentrantReadWriteLock();
+
   ClassMap(ConcurrentHashMap<DexType, Supplier<T>> classes, ClassProvider<T> classProvider) {
     assert classProvider == null || classProvider.getClassKind() == getClassKind();
     this.classes = classes == null ? new ConcurrentHashMap<>() : classes;
@@ -96,20 +107,25 @@ public abstract class ClassMap<T extends DexClass> {
       return supplier.get();
     }
 
-    // Otherwise, we have to do the full dance with locking to avoid creating two suppliers.
-    // Lock on this to ensure classProvider is not changed concurrently, so we do not create
-    // a concurrent class loader with a null classProvider.
-    synchronized (this) {
+    // Otherwise, install a loader for the type. The read lock only excludes the sealing step of
+    // forceLoad, so concurrent misses for different types do not serialize here. The map ensures
+    // that only one loader is installed per type, and the loading itself happens outside of any
+    // lock in the per-type loader.
+    sealLock.readLock().lock();
+    try {
       supplier = classes.computeIfAbsent(type, key -> {
         // Get class supplier, create it if it does not
         // exist and the collection is NOT fully loaded.
-        if (classProvider.get() == null) {
+        ClassProvider<T> provider = classProvider.get();
+        if (provider == null) {
           // There is no supplier, the collection is fully loaded.
           return null;
         }
 
-        return new ConcurrentClassLoader<>(this, classProvider.get(), type);
+        return new ConcurrentClassLoader<>(this, provider, type);
       });
+    } finally {
+      sealLock.readLock().unlock();
     }
 
     return supplier == null ? null : supplier.get();
@@ -174,9 +190,10 @@ public abstract class ClassMap<T extends DexClass> {
       }
     }
 
-    // Lock on this to prevent concurrent changes to classProvider state and to ensure that
+    // Lock exclusively to prevent concurrent changes to classProvider state and to ensure that
     // only one thread proceeds to rewriting the map.
-    synchronized (this) {
+    sealLock.writeLock().lock();
+    try {
       if (this.classProvider.get() == null) {
         return; // Has been force-loaded concurrently.
       }
@@ -206,8 +223,10 @@ public abstract class ClassMap<T extends DexClass> {
 
       // Mark the class map as fully loaded. This has to be the last operation, as this toggles
       // the class map into fully loaded state and the get operation will no longer try to load
-      // classes by blocking on 'this' and hence wait for the loading operation to finish.
+      // classes by taking the seal lock and hence wait for the loading operation to finish.
       this.classProvider.set(null);
+    } finally {
+      sealLock.writeLock().unlock();
     }
   }
 
@@ -17,6 +17,7 @@ import com.google.common.io.ByteStreams;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -70,6 +71,17 @@ public class DirectoryBuilder implements OutputBuilder {
     }
   }
 
+  @Override
+  public synchronized void addFile(String name, ByteBuffer content, DiagnosticsHandler handler) {
+    Path target = root.resolve(name.replace(NAME_SEPARATOR, File.separatorChar));
+    try {
+      Files.createDirectories(target.getParent());
+      FileUtils.writeToFile(target, content);
+    } catch (IOException e) {
+      handler.error(new ExceptionDiagnostic(e, new PathOrigin(target)));
+    }
+  }
+
   @Override
   public Origin getOrigin() {
     return origin;
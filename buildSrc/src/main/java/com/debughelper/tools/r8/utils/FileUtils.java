@@ -7,6 +7,8 @@ import com.debughelper.tools.r8.utils.StringDiagnostic;
 import com.google.common.io.Closer;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
@@ -161,4 +163,18 @@ public class FileUtils {
       outputStream.write(contents);
     }
   }
+
+  /** Writes the bytes from the position to the limit of the contents buffer to the output. */
+  public static void writeToFile(Path output, ByteBuffer contents) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            output,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      while (contents.hasRemaining()) {
+        channel.write(contents);
+      }
+    }
+  }
 }
@@ -8,6 +8,8 @@ import com.debughelper.tools.r8.graph.DexEncodedMethod;
 import com.debughelper.tools.r8.graph.DexItemFactory;
 import com.debughelper.tools.r8.graph.DexMethod;
 import com.debughelper.tools.r8.graph.DexType;
+import com.debughelper.tools.r8.ir.desugar.DesugaringCache;
+import com.debughelper.tools.r8.graph.ObjectToOffsetMapping;
 import com.debughelper.tools.r8.ClassFileConsumer;
 import com.debughelper.tools.r8.DataResourceConsumer;
 import com.debughelper.tools.r8.DataResourceProvider;
@@ -15,6 +17,7 @@ import com.debughelper.tools.r8.DexFilePerClassFileConsumer;
 import com.debughelper.tools.r8.DexIndexedConsumer;
 import com.debughelper.tools.r8.ProgramConsumer;
 import com.debughelper.tools.r8.StringConsumer;
+import com.debughelper.tools.r8.StringResource;
 import com.debughelper.tools.r8.Version;
 import com.debughelper.tools.r8.errors.CompilationError;
 import com.debughelper.tools.r8.errors.InvalidDebugInfoException;
@@ -93,6 +96,20 @@ public class InternalOptions {
 
   // Flag to toggle if DEX code objects should pass-through without IR processing.
   public boolean passthroughDexCode = false;
+  // Flag to read DEX code without decoding its instructions, which are then only decoded on demand.
+  // Code passed through is written by copying its code units and translating their indices.
+  public boolean keepRawDexInstructions = false;
+  // Keep the code objects of written methods, so that the application can be written again.
+  public boolean retainCodeAfterWriting = false;
+  // If non null, the index maps of written dex files are kept here and reused by the next write
+  // for files with the same items.
+  public ObjectToOffsetMapping.Cache offsetMappingCache = null;
+  // If non null, lambda classes synthesized and converted by a previous compilation with the same
+  // item factory are reused from here.
+  public DesugaringCache desugaringCache = null;
+  // Reuse the live intervals and live ranges of register allocation across the methods converted
+  // on a thread, see LiveIntervalsArena.
+  public boolean recycleLiveIntervals = false;
 
   // Optimization-related flags. These should conform to -dontoptimize.
   public boolean enableClassMerging = false;
@@ -215,6 +232,8 @@ public class InternalOptions {
   public boolean skipIR = false;
 
   public boolean debug = false;
+  // Only desugar the code of methods in debug mode, and do not optimize it.
+  public boolean fastDebugCompilation = false;
   public final TestingOptions testing = new TestingOptions();
 
   public ImmutableList<ProguardConfigurationRule> mainDexKeepRules = ImmutableList.of();
@@ -268,10 +287,21 @@ public class InternalOptions {
   // the code contains unsupported byte codes.
   public boolean skipReadingDexCode = false;
 
+  // Only read the structure of program classes: headers, members and annotations. No code is read
+  // and the class file contents are not retained. Used by tools that do not look at code.
+  public boolean readStructureOnly = false;
+
   // If null, no main-dex list needs to be computed.
   // If non null it must be and passed to the consumer.
   public com.debughelper.tools.r8.StringConsumer mainDexListConsumer = null;
 
+  // If non null, classes are kept in the dex files recorded by a previous build.
+  public StringResource previousDexDistribution = null;
+
+  // If null, the assignment of classes to dex files is not recorded.
+  // If non null, it is passed to the consumer, to be given as previousDexDistribution next time.
+  public StringConsumer dexDistributionConsumer = null;
+
   // If null, no proguad map needs to be computed.
   // If non null it must be and passed to the consumer.
   public com.debughelper.tools.r8.StringConsumer proguardMapConsumer = null;
@@ -8,6 +8,7 @@ import com.debughelper.tools.r8.DataEntryResource;
 import com.debughelper.tools.r8.DiagnosticsHandler;
 import com.debughelper.tools.r8.origin.Origin;
 
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 
 public interface OutputBuilder {
@@ -23,6 +24,13 @@ public interface OutputBuilder {
 
   void addFile(String name, byte[] content, DiagnosticsHandler handler);
 
+  /** Adds the bytes from the position to the limit of the content buffer as a file. */
+  default void addFile(String name, ByteBuffer content, DiagnosticsHandler handler) {
+    byte[] bytes = new byte[content.remaining()];
+    content.get(bytes);
+    addFile(name, bytes, handler);
+  }
+
   Path getPath();
 
   Origin getOrigin();
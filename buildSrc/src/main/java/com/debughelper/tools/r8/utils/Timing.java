@@ -82,6 +82,16 @@ public class Timing {
     stack.pop();
   }
 
+  /**
+   * Adds the time of a task that was measured separately, e.g., on another thread, to the current
+   * node.
+   */
+  public void add(String title, long durationNanos) {
+    Node n = new Node(title);
+    n.stop_time = n.start_time + durationNanos;
+    stack.peek().sons.add(n);
+  }
+
   public void report() {
     Node top = stack.peek();
     top.end();
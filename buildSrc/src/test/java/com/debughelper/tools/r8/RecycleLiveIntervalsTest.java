@@ -0,0 +1,129 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.debughelper.tools.r8.ir.regalloc.LinearScanRegisterAllocator;
+import com.debughelper.tools.r8.ir.regalloc.LiveIntervalsArena;
+import com.debughelper.tools.r8.origin.Origin;
+import com.debughelper.tools.r8.utils.AndroidApiLevel;
+import com.debughelper.tools.r8.utils.InternalOptions;
+import com.google.common.io.ByteStreams;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.Test;
+
+/**
+ * Checks that register allocation with recycled live intervals, see {@link LiveIntervalsArena},
+ * produces the same code as with fresh live intervals for every method.
+ */
+public class RecycleLiveIntervalsTest {
+
+  // The IR classes of the compiler itself have methods of all shapes and sizes.
+  private static final String PACKAGE = "com/debughelper/tools/r8/ir/";
+
+  private static class FilesConsumer extends DexIndexedConsumer.ForwardingConsumer {
+    final Map<Integer, byte[]> files = new TreeMap<>();
+
+    FilesConsumer() {
+      super(null);
+    }
+
+    @Override
+    public synchronized void accept(
+        int fileIndex, byte[] data, Set<String> descriptors, DiagnosticsHandler handler) {
+      files.put(fileIndex, data);
+    }
+  }
+
+  private static List<byte[]> programClasses() throws Exception {
+    Path location =
+        Paths.get(
+            LinearScanRegisterAllocator.class.getProtectionDomain().getCodeSource().getLocation()
+                .toURI());
+    List<byte[]> classes = new ArrayList<>();
+    if (Files.isDirectory(location)) {
+      List<Path> files;
+      try (Stream<Path> paths = Files.walk(location.resolve(PACKAGE))) {
+        files =
+            paths.filter(path -> path.toString().endsWith(".class")).collect(Collectors.toList());
+      }
+      Collections.sort(files);
+      for (Path file : files) {
+        classes.add(Files.readAllBytes(file));
+      }
+    } else {
+      try (ZipFile zipFile = new ZipFile(location.toFile())) {
+        for (ZipEntry entry : Collections.list(zipFile.entries())) {
+          if (entry.getName().startsWith(PACKAGE) && entry.getName().endsWith(".class")) {
+            try (InputStream in = zipFile.getInputStream(entry)) {
+              classes.add(ByteStreams.toByteArray(in));
+            }
+          }
+        }
+      }
+    }
+    return classes;
+  }
+
+  private static Map<Integer, byte[]> compile(
+      List<byte[]> classes, CompilationMode mode, boolean recycleLiveIntervals) throws Exception {
+    FilesConsumer consumer = new FilesConsumer();
+    // The classes are compiled without a library, so target an API level where interfaces need no
+    // desugaring and ignore the warnings about missing types.
+    D8Command.Builder builder =
+        D8Command.builder(
+                new DiagnosticsHandler() {
+                  @Override
+                  public void warning(Diagnostic warning) {}
+                })
+            .setMode(mode)
+            .setMinApiLevel(AndroidApiLevel.N.getLevel())
+            .setProgramConsumer(consumer);
+    for (byte[] clazz : classes) {
+      builder.addClassProgramData(clazz, Origin.unknown());
+    }
+    D8Command command = builder.build();
+    InternalOptions options = command.getInternalOptions();
+    options.recycleLiveIntervals = recycleLiveIntervals;
+    D8.runForTesting(command.getInputApp(), options);
+    return consumer.files;
+  }
+
+  private static void checkSameOutput(CompilationMode mode) throws Exception {
+    List<byte[]> classes = programClasses();
+    assertTrue(classes.size() > 100);
+    Map<Integer, byte[]> fresh = compile(classes, mode, false);
+    Map<Integer, byte[]> recycled = compile(classes, mode, true);
+    assertEquals(fresh.keySet(), recycled.keySet());
+    for (Integer fileIndex : fresh.keySet()) {
+      assertArrayEquals(fresh.get(fileIndex), recycled.get(fileIndex));
+    }
+  }
+
+  @Test
+  public void debugOutputIsUnchanged() throws Exception {
+    checkSameOutput(CompilationMode.DEBUG);
+  }
+
+  @Test
+  public void releaseOutputIsUnchanged() throws Exception {
+    checkSameOutput(CompilationMode.RELEASE);
+  }
+}
@@ -0,0 +1,78 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.dex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+
+/**
+ * Checks {@link DexChecksums} against hello.dex, a DEX file written by dx 9.0.0_r3 from a class
+ * printing "Hello, dex".
+ */
+public class DexChecksumsTest {
+
+  private static byte[] referenceDex() throws IOException {
+    try (InputStream input = DexChecksumsTest.class.getResourceAsStream("hello.dex")) {
+      return ByteStreams.toByteArray(input);
+    }
+  }
+
+  private static byte[] clearChecksums(byte[] dex) {
+    byte[] cleared = dex.clone();
+    Arrays.fill(cleared, Constants.CHECKSUM_OFFSET, Constants.FILE_SIZE_OFFSET, (byte) 0);
+    return cleared;
+  }
+
+  @Test
+  public void referenceDexHasValidChecksums() throws IOException {
+    assertTrue(DexChecksums.hasValidChecksums(ByteBuffer.wrap(referenceDex())));
+  }
+
+  @Test
+  public void stampReproducesReferenceDex() throws IOException {
+    byte[] expected = referenceDex();
+    byte[] dex = clearChecksums(expected);
+    assertFalse(DexChecksums.hasValidChecksums(ByteBuffer.wrap(dex)));
+    DexChecksums.stamp(ByteBuffer.wrap(dex));
+    assertArrayEquals(expected, dex);
+  }
+
+  @Test
+  public void legacyStampIsNotValid() throws Exception {
+    byte[] dex = clearChecksums(referenceDex());
+    DexChecksums.stampLegacy(ByteBuffer.wrap(dex), dex.length, null);
+    assertFalse(DexChecksums.hasValidChecksums(ByteBuffer.wrap(dex)));
+  }
+
+  @Test
+  public void parallelStampMatchesSequentialStamp() throws Exception {
+    byte[] sequential = new byte[5 * 1024 * 1024 + 17];
+    new Random(0).nextBytes(sequential);
+    ByteBuffer.wrap(sequential)
+        .order(ByteOrder.LITTLE_ENDIAN)
+        .putInt(Constants.FILE_SIZE_OFFSET, sequential.length);
+    byte[] parallel = sequential.clone();
+    DexChecksums.stamp(ByteBuffer.wrap(sequential));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      DexChecksums.stamp(ByteBuffer.wrap(parallel), parallel.length, executor);
+    } finally {
+      executor.shutdown();
+    }
+    assertArrayEquals(sequential, parallel);
+    assertTrue(DexChecksums.hasValidChecksums(ByteBuffer.wrap(parallel)));
+  }
+}
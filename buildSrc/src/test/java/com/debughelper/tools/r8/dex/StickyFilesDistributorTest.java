@@ -0,0 +1,129 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.dex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.debughelper.tools.r8.D8;
+import com.debughelper.tools.r8.D8Command;
+import com.debughelper.tools.r8.DexIndexedConsumer;
+import com.debughelper.tools.r8.DiagnosticsHandler;
+import com.debughelper.tools.r8.IncrementalD8;
+import com.debughelper.tools.r8.StringConsumer;
+import com.debughelper.tools.r8.StringResource;
+import com.debughelper.tools.r8.origin.Origin;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Checks that classes stay in the dex files recorded by a previous build, see {@link
+ * VirtualFile.StickyFilesDistributor}.
+ */
+public class StickyFilesDistributorTest {
+
+  // Previous assignment of the classes to three dex files.
+  private static final String DISTRIBUTION =
+      "0 Lp/A;\n0 Lq/B;\n1 Lp/C;\n1 Lq/D;\n2 Lp/E;\n2 Lq/F;\n";
+
+  private static class FilesConsumer extends DexIndexedConsumer.ForwardingConsumer {
+    final Map<Integer, byte[]> files = new TreeMap<>();
+
+    FilesConsumer() {
+      super(null);
+    }
+
+    @Override
+    public synchronized void accept(
+        int fileIndex, byte[] data, Set<String> descriptors, DiagnosticsHandler handler) {
+      files.put(fileIndex, data);
+    }
+  }
+
+  private static class DistributionConsumer implements StringConsumer {
+    String distribution;
+
+    @Override
+    public void accept(String string, DiagnosticsHandler handler) {
+      distribution = string;
+    }
+  }
+
+  private static byte[] classBytes(String name) {
+    ClassWriter cw = new ClassWriter(0);
+    cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+    MethodVisitor mv =
+        cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "id", "()I", null, null);
+    mv.visitCode();
+    mv.visitLdcInsn(name.hashCode());
+    mv.visitInsn(Opcodes.IRETURN);
+    mv.visitMaxs(1, 0);
+    mv.visitEnd();
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  private static D8Command.Builder builder(String... names) {
+    D8Command.Builder builder = D8Command.builder().setMinApiLevel(21);
+    for (String name : names) {
+      builder.addClassProgramData(classBytes(name), Origin.unknown());
+    }
+    return builder;
+  }
+
+  private static int classDefsSize(byte[] dex) {
+    return ByteBuffer.wrap(dex)
+        .order(ByteOrder.LITTLE_ENDIAN)
+        .getInt(Constants.CLASS_DEFS_SIZE_OFFSET);
+  }
+
+  @Test
+  public void classesStayInTheirPreviousFiles() throws Exception {
+    FilesConsumer output = new FilesConsumer();
+    DistributionConsumer distribution = new DistributionConsumer();
+    D8.run(
+        builder("q/F", "p/E", "q/D", "p/C", "q/B", "p/A", "p/G")
+            .setPreviousDexDistribution(
+                StringResource.fromString(DISTRIBUTION, Origin.unknown()))
+            .setDexDistributionConsumer(distribution)
+            .setProgramConsumer(output)
+            .build());
+    assertEquals(Arrays.asList(0, 1, 2), Arrays.asList(output.files.keySet().toArray()));
+    // The new class goes to the first file, which has space.
+    assertEquals(
+        "0 Lp/A;\n0 Lp/G;\n0 Lq/B;\n1 Lp/C;\n1 Lq/D;\n2 Lp/E;\n2 Lq/F;\n",
+        distribution.distribution);
+  }
+
+  @Test
+  public void emptiedMiddleFileDoesNotRenumberLaterFiles() throws Exception {
+    FilesConsumer first = new FilesConsumer();
+    IncrementalD8 d8 =
+        new IncrementalD8(
+            builder("p/A", "q/B", "p/C", "q/D", "p/E", "q/F")
+                .setPreviousDexDistribution(
+                    StringResource.fromString(DISTRIBUTION, Origin.unknown()))
+                .setProgramConsumer(first)
+                .build());
+    d8.build();
+    assertEquals(3, first.files.size());
+
+    // Remove all classes of the middle file. The next build gets the distribution of the first.
+    FilesConsumer second = new FilesConsumer();
+    d8.update(Collections::emptyList, Arrays.asList("Lp/C;", "Lq/D;"), second);
+    assertEquals(3, second.files.size());
+    assertArrayEquals(first.files.get(0), second.files.get(0));
+    assertEquals(0, classDefsSize(second.files.get(1)));
+    assertArrayEquals(first.files.get(2), second.files.get(2));
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.dex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.debughelper.tools.r8.Diagnostic;
+import com.debughelper.tools.r8.DiagnosticsHandler;
+import com.debughelper.tools.r8.errors.CompilationError;
+import com.debughelper.tools.r8.origin.Origin;
+import com.debughelper.tools.r8.utils.AbortException;
+import com.debughelper.tools.r8.utils.Reporter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/** Checks that section sizes read from a vdex header are validated before they are used. */
+public class VDexParserTest {
+
+  private static final int DEX_SIZE = 0x70;
+
+  private static class CollectingHandler implements DiagnosticsHandler {
+    final List<Diagnostic> errors = new ArrayList<>();
+
+    @Override
+    public void error(Diagnostic error) {
+      errors.add(error);
+    }
+  }
+
+  // A version 11 vdex with a single (header only) dex file and the given section sizes.
+  private static ByteBuffer vdex(
+      int dexSize, int verifierDepsSize, int quickeningInfoSize, int dexFileSize, int length) {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.put(new byte[] {'v', 'd', 'e', 'x', '0', '1', '1', 0});
+    buffer.putInt(1);
+    buffer.putInt(dexSize);
+    buffer.putInt(verifierDepsSize);
+    buffer.putInt(quickeningInfoSize);
+    int dexOffset = VDexReader.firstDexOffset(1);
+    buffer.putInt(dexOffset + Constants.FILE_SIZE_OFFSET, dexFileSize);
+    buffer.putInt(dexOffset + Constants.ENDIAN_TAG_OFFSET, Constants.ENDIAN_CONSTANT);
+    buffer.clear();
+    return buffer;
+  }
+
+  private static ByteBuffer vdex(int dexSize, int verifierDepsSize, int quickeningInfoSize) {
+    return vdex(
+        dexSize,
+        verifierDepsSize,
+        quickeningInfoSize,
+        DEX_SIZE,
+        VDexReader.firstDexOffset(1) + DEX_SIZE + 8);
+  }
+
+  private static void assertReported(ByteBuffer buffer, String reason) {
+    CollectingHandler handler = new CollectingHandler();
+    try {
+      new VDexParser(new VDexReader(Origin.unknown(), buffer), new Reporter(handler));
+      fail("Expected the vdex file to be rejected");
+    } catch (AbortException e) {
+      assertEquals(1, handler.errors.size());
+      assertTrue(handler.errors.get(0) instanceof CompilationError);
+      String message = handler.errors.get(0).getDiagnosticMessage();
+      assertTrue(message, message.contains(reason));
+    }
+  }
+
+  @Test
+  public void validSections() {
+    VDexParser parser =
+        new VDexParser(
+            new VDexReader(Origin.unknown(), vdex(DEX_SIZE, 4, 4)),
+            new Reporter(new CollectingHandler()));
+    assertEquals(1, parser.getNumberOfDexFiles());
+    assertEquals(DEX_SIZE, parser.getDexFile(0).remaining());
+  }
+
+  @Test
+  public void negativeSectionSize() {
+    assertReported(vdex(DEX_SIZE, -1, 0), "Negative section size");
+    assertReported(vdex(DEX_SIZE, 0, Integer.MIN_VALUE), "Negative section size");
+  }
+
+  @Test
+  public void sectionsBeyondFileSize() {
+    assertReported(vdex(DEX_SIZE, 9, 0), "Sections exceed the file size");
+    assertReported(vdex(DEX_SIZE, Integer.MAX_VALUE, Integer.MAX_VALUE), "exceed");
+  }
+
+  @Test
+  public void dexFileBeyondDexSection() {
+    assertReported(
+        vdex(DEX_SIZE, 0, 0, DEX_SIZE + 4, VDexReader.firstDexOffset(1) + DEX_SIZE + 8),
+        "Truncated dex file");
+    assertReported(
+        vdex(DEX_SIZE, 0, 0, -DEX_SIZE, VDexReader.firstDexOffset(1) + DEX_SIZE),
+        "Truncated dex file");
+  }
+
+  @Test
+  public void truncatedHeader() {
+    assertReported(
+        (ByteBuffer) vdex(DEX_SIZE, 0, 0).limit(Constants.VDEX_HEADER_SIZE - 4),
+        "Truncated header");
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.ir.conversion;
+
+import static org.junit.Assert.assertEquals;
+
+import com.debughelper.tools.r8.ClassFileResourceProvider;
+import com.debughelper.tools.r8.DexIndexedConsumer;
+import com.debughelper.tools.r8.DiagnosticsHandler;
+import com.debughelper.tools.r8.ProgramResource;
+import com.debughelper.tools.r8.ProgramResource.Kind;
+import com.debughelper.tools.r8.R8;
+import com.debughelper.tools.r8.R8Command;
+import com.debughelper.tools.r8.dex.ApplicationReader;
+import com.debughelper.tools.r8.graph.DexProgramClass;
+import com.debughelper.tools.r8.origin.Origin;
+import com.debughelper.tools.r8.utils.AndroidApp;
+import com.debughelper.tools.r8.utils.InternalOptions;
+import com.debughelper.tools.r8.utils.Timing;
+import com.google.common.io.ByteStreams;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Checks that the methods processed before a method, i.e., its direct and transitive callees, are
+ * inlined into it, see {@link CallGraph#forEachMethod}.
+ */
+public class CallGraphInliningTest {
+
+  public static class Box {
+    final int value;
+
+    Box(int value) {
+      this.value = value;
+    }
+
+    int get() {
+      return value;
+    }
+  }
+
+  // A calls B, B calls C, the constructor of Box. Box can only be class inlined into A, where it
+  // does not escape, once B has been inlined into A and C is known to be processed.
+  public static class Chain {
+    static int result;
+
+    public static void main(String[] args) {
+      result = a();
+    }
+
+    static int a() {
+      return b(args()).get();
+    }
+
+    static Box b(int value) {
+      return new Box(value);
+    }
+
+    static int args() {
+      return result + 1;
+    }
+  }
+
+  @Test
+  public void transitiveCalleesAreInlined() throws Exception {
+    List<byte[]> outputs = new ArrayList<>();
+    R8.run(
+        R8Command.builder()
+            .addClassProgramData(getClassData(Chain.class), Origin.unknown())
+            .addClassProgramData(getClassData(Box.class), Origin.unknown())
+            .addLibraryResourceProvider(new ObjectLibrary())
+            .addProguardConfiguration(
+                Arrays.asList(
+                    "-keep class " + Chain.class.getName() + " {",
+                    "  public static void main(java.lang.String[]);",
+                    "}",
+                    "-dontobfuscate",
+                    "-ignorewarnings"),
+                Origin.unknown())
+            .setProgramConsumer(
+                new DexIndexedConsumer.ForwardingConsumer(null) {
+                  @Override
+                  public void accept(
+                      int fileIndex,
+                      byte[] data,
+                      Set<String> descriptors,
+                      DiagnosticsHandler handler) {
+                    outputs.add(data);
+                  }
+                })
+            .build());
+    assertEquals(1, outputs.size());
+
+    AndroidApp output =
+        AndroidApp.builder().addDexProgramData(outputs.get(0), Origin.unknown()).build();
+    List<String> methods = new ArrayList<>();
+    for (DexProgramClass clazz :
+        new ApplicationReader(output, new InternalOptions(), new Timing("read")).read().classes()) {
+      clazz.forEachMethod(method -> methods.add(method.method.qualifiedName()));
+    }
+    // B and the methods of Box have been inlined into A, which has been inlined into main.
+    assertEquals(Arrays.asList(Chain.class.getName() + ".main"), methods);
+  }
+
+  // Library with just java.lang.Object, the only library class the test classes refer to.
+  private static class ObjectLibrary implements ClassFileResourceProvider {
+    private static final String DESCRIPTOR = "Ljava/lang/Object;";
+
+    @Override
+    public Set<String> getClassDescriptors() {
+      return Collections.singleton(DESCRIPTOR);
+    }
+
+    @Override
+    public ProgramResource getProgramResource(String descriptor) {
+      if (!descriptor.equals(DESCRIPTOR)) {
+        return null;
+      }
+      ClassWriter writer = new ClassWriter(0);
+      writer.visit(
+          Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "java/lang/Object", null, null,
+          null);
+      MethodVisitor init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+      init.visitCode();
+      init.visitInsn(Opcodes.RETURN);
+      init.visitMaxs(0, 1);
+      init.visitEnd();
+      writer.visitEnd();
+      return ProgramResource.fromBytes(
+          Origin.unknown(), Kind.CF, writer.toByteArray(), getClassDescriptors());
+    }
+  }
+
+  private static byte[] getClassData(Class<?> clazz) throws Exception {
+    String resource = clazz.getName().replace('.', '/') + ".class";
+    try (InputStream in = clazz.getClassLoader().getResourceAsStream(resource)) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+}
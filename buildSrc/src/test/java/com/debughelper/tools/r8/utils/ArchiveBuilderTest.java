@@ -0,0 +1,124 @@
+// Copyright (c) 2018, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.debughelper.tools.r8.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import com.debughelper.tools.r8.DiagnosticsHandler;
+import com.google.common.io.ByteStreams;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarInputStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.Test;
+
+/**
+ * Checks that archives larger than the contents held in memory are written in the same order
+ * regardless of the order in which their entries are added.
+ */
+public class ArchiveBuilderTest {
+
+  private static final int FILES = 40;
+  private static final int FILE_SIZE = 1 << 20;
+  private static final String MANIFEST = "Manifest-Version: 1.0\n";
+
+  private static byte[] content(int index) {
+    byte[] content = new byte[FILE_SIZE];
+    new Random(index).nextBytes(content);
+    return content;
+  }
+
+  private static void build(Path archive, boolean reverse) throws Exception {
+    DiagnosticsHandler handler = new DiagnosticsHandler() {};
+    ArchiveBuilder builder = new ArchiveBuilder(archive);
+    builder.open();
+    List<Integer> indices = new ArrayList<>();
+    for (int i = 0; i < FILES; i++) {
+      indices.add(i);
+    }
+    if (reverse) {
+      Collections.reverse(indices);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int index : indices) {
+        futures.add(
+            executor.submit(() -> builder.addFile("a/f" + index, content(index), handler)));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    builder.addDirectory("a", handler);
+    builder.addFile("META-INF/MANIFEST.MF", MANIFEST.getBytes(StandardCharsets.UTF_8), handler);
+    builder.close(handler);
+  }
+
+  private static List<String> names(Path archive) throws IOException {
+    List<String> names = new ArrayList<>();
+    try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        names.add(entry.getName());
+      }
+    }
+    return names;
+  }
+
+  @Test
+  public void largeArchiveIsSortedWithManifestFirst() throws Exception {
+    Path directory = Files.createTempDirectory("archive");
+    Path forward = directory.resolve("forward.jar");
+    Path reverse = directory.resolve("reverse.jar");
+    build(forward, false);
+    build(reverse, true);
+
+    List<String> expected = new ArrayList<>(Arrays.asList("META-INF/MANIFEST.MF", "a/"));
+    List<String> files = new ArrayList<>();
+    for (int i = 0; i < FILES; i++) {
+      files.add("a/f" + i);
+    }
+    Collections.sort(files);
+    expected.addAll(files);
+    assertEquals(expected, names(forward));
+    assertEquals(expected, names(reverse));
+
+    try (ZipFile zipFile = new ZipFile(reverse.toFile())) {
+      for (int i = 0; i < FILES; i++) {
+        try (InputStream in = zipFile.getInputStream(zipFile.getEntry("a/f" + i))) {
+          assertArrayEquals(content(i), ByteStreams.toByteArray(in));
+        }
+      }
+    }
+    try (JarInputStream in = new JarInputStream(new FileInputStream(reverse.toFile()))) {
+      assertNotNull(in.getManifest());
+    }
+
+    // Only the archives remain, the spilled contents are deleted.
+    try (Stream<Path> remaining = Files.list(directory)) {
+      assertEquals(2, remaining.count());
+    }
+    Files.delete(forward);
+    Files.delete(reverse);
+    Files.delete(directory);
+  }
+}